@@ -0,0 +1,71 @@
+package ee.mboysan.signverify.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Reproducible input data for the benchmarks.
+ */
+public final class BenchmarkData {
+
+    /** fixed seed so that every run (and every fork) works on the same events. */
+    private static final long SEED = 42L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param count number of events to create.
+     * @return list of log-line like events, e.g. "event-17 8b1c9f0e-...".
+     */
+    public static List<String> createEvents(int count) {
+        Random rng = new Random(SEED);
+        List<String> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add("event-" + i + " " + new UUID(rng.nextLong(), rng.nextLong()));
+        }
+        return events;
+    }
+
+    /**
+     * Writes <code>lineCount</code> events (see {@link #createEvents(int)}) to a new temporary file.
+     * @param lineCount number of lines to write.
+     * @return the created file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static File createLogFile(int lineCount) throws IOException {
+        File file = File.createTempFile("signverify-bench", ".log");
+        file.deleteOnExit();
+        Random rng = new Random(SEED);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                if (i > 0) {
+                    writer.newLine();
+                }
+                writer.write("event-" + i + " " + new UUID(rng.nextLong(), rng.nextLong()));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @param count number of indexes to pick.
+     * @param bound exclusive upper bound of the indexes.
+     * @return reproducible random indexes in range [0, bound).
+     */
+    public static int[] randomIndexes(int count, int bound) {
+        Random rng = new Random(SEED + 1);
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = rng.nextInt(bound);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,50 @@
+package ee.mboysan.signverify.hashing;
+
+import ee.mboysan.signverify.bench.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the leaf ({@link HashUtils#createHash(String, String)}) and the merge
+ * ({@link HashUtils#mergeHashes(IHash, IHash)}) operations every tree node goes through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    private static final int EVENT_COUNT = 1024;
+
+    @Param({"SHA-256", "SHA-1", "MD5"})
+    public String hashAlgorithm;
+
+    private String[] events;
+    private IHash left;
+    private IHash right;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> eventList = BenchmarkData.createEvents(EVENT_COUNT);
+        events = eventList.toArray(new String[0]);
+        left = HashUtils.createHash(events[0], hashAlgorithm);
+        right = HashUtils.createHash(events[1], hashAlgorithm);
+    }
+
+    @Benchmark
+    public IHash createHash() throws Exception {
+        String event = events[next];
+        next = (next + 1) % EVENT_COUNT;
+        return HashUtils.createHash(event, hashAlgorithm);
+    }
+
+    @Benchmark
+    public IHash mergeHashes() throws Exception {
+        return HashUtils.mergeHashes(left, right);
+    }
+}
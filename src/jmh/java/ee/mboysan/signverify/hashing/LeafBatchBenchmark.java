@@ -0,0 +1,75 @@
+package ee.mboysan.signverify.hashing;
+
+import ee.mboysan.signverify.bench.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares hashing a chunk of short SHA-256 leaves one after the other with hashing them in the interleaved lanes of
+ * {@link Sha256Lanes}. Run with <code>-jvmArgsAppend -XX:-UseSHA</code> to see the lanes on a JDK without SHA-256
+ * intrinsics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeafBatchBenchmark {
+
+    /** leaves per batch, i.e. the default chunk size of the file hashing. */
+    @Param({"256"})
+    public int batchSize;
+
+    /** extra bytes appended to each event to vary the number of blocks of the leaves. */
+    @Param({"0", "64", "128"})
+    public int padding;
+
+    private ByteBuffer events;
+    private int[] starts;
+    private byte[] digests;
+    private HashEngine engine;
+    private Sha256Lanes lanes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> eventList = BenchmarkData.createEvents(batchSize);
+        StringBuilder sb = new StringBuilder();
+        starts = new int[batchSize + 1];
+        for (int i = 0; i < batchSize; i++) {
+            starts[i] = sb.length();
+            sb.append(eventList.get(i));
+            for (int j = 0; j < padding; j++) {
+                sb.append('.');
+            }
+        }
+        starts[batchSize] = sb.length();
+        events = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        engine = HashEngine.forAlgorithm("SHA-256");
+        digests = new byte[batchSize * engine.getDigestLength()];
+        lanes = new Sha256Lanes();
+    }
+
+    @Benchmark
+    public byte[] scalar() {
+        for (int i = 0; i < batchSize; i++) {
+            events.limit(starts[i + 1]).position(starts[i]);
+            engine.hash(events, digests, i * 32);
+        }
+        return digests;
+    }
+
+    @Benchmark
+    public byte[] lanes() {
+        for (int i = 0; i < batchSize; i++) {
+            events.limit(starts[i + 1]).position(starts[i]);
+            lanes.add(events, digests, i * 32);
+        }
+        lanes.flush();
+        return digests;
+    }
+}
@@ -0,0 +1,53 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.bench.BenchmarkData;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end measurement of {@link FileHasher}: reading, chunking, hashing and aggregating a log file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FileHasherBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int lineCount;
+
+    @Param({"MEM", "CPU", "FLAT", "MMAP"})
+    public String opMode;
+
+    @Param({"SHA-256", "SHA-1", "MD5"})
+    public String hashAlgorithm;
+
+    @Param({"1", "64", "256", "4096"})
+    public int chunkSize;
+
+    private File logFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        HashTree.OPERATION_MODE = HashTree.OperationMode.valueOf(opMode);
+        FileHasher.CHUNK_SIZE = chunkSize;
+        logFile = BenchmarkData.createLogFile(lineCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(logFile.toPath());
+    }
+
+    @Benchmark
+    public IHash hashFile() throws Exception {
+        return new FileHasher(logFile, hashAlgorithm).getFileHash();
+    }
+}
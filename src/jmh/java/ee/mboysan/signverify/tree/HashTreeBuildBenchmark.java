@@ -0,0 +1,65 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.bench.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HashTree.HashTreeBuilder#appendEvent(String)} + {@link HashTree.HashTreeBuilder#build()} on a
+ * single thread, and the same events built in chunks by the {@link HashTreeAggregator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class HashTreeBuildBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int leafCount;
+
+    @Param({"MEM", "CPU", "FLAT", "MMAP"})
+    public String opMode;
+
+    @Param({"SHA-256", "SHA-1", "MD5"})
+    public String hashAlgorithm;
+
+    @Param({"256"})
+    public int chunkSize;
+
+    private List<String> events;
+    private List<List<String>> chunks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HashTree.OPERATION_MODE = HashTree.OperationMode.valueOf(opMode);
+        events = BenchmarkData.createEvents(leafCount);
+        chunks = new ArrayList<>();
+        for (int i = 0; i < events.size(); i += chunkSize) {
+            chunks.add(events.subList(i, Math.min(i + chunkSize, events.size())));
+        }
+    }
+
+    @Benchmark
+    public HashTree appendAndBuild() throws Exception {
+        HashTree.HashTreeBuilder builder = HashTree.builder(hashAlgorithm);
+        for (String event : events) {
+            builder.appendEvent(event);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public HashTree aggregate() throws Exception {
+        try (HashTreeAggregator aggregator = new HashTreeAggregator(hashAlgorithm)) {
+            for (List<String> chunk : chunks) {
+                aggregator.aggregateEvents(chunk);
+            }
+            return aggregator.endAggregation().getAggregatedTree();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.bench.BenchmarkData;
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup and proof operations on an already built tree:
+ * {@link HashTree#findNode(IHash)} ({@link HashTreeCpuImpl} vs {@link HashTreeMemImpl}),
+ * {@link HashTree#extractHashChain(IHash)} and {@link HashTree#isValidEvent(IHash)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class HashTreeQueryBenchmark {
+
+    /** number of distinct events queried round-robin. */
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int leafCount;
+
+    @Param({"MEM", "CPU", "FLAT", "MMAP"})
+    public String opMode;
+
+    @Param({"SHA-256", "SHA-1", "MD5"})
+    public String hashAlgorithm;
+
+    private HashTree hashTree;
+    private IHash[] queries;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        HashTree.OPERATION_MODE = HashTree.OperationMode.valueOf(opMode);
+        List<String> events = BenchmarkData.createEvents(leafCount);
+        HashTree.HashTreeBuilder builder = HashTree.builder(hashAlgorithm);
+        for (String event : events) {
+            builder.appendEvent(event);
+        }
+        hashTree = builder.build();
+
+        int[] indexes = BenchmarkData.randomIndexes(QUERY_COUNT, leafCount);
+        queries = new IHash[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = HashUtils.createHash(events.get(indexes[i]), hashAlgorithm);
+        }
+    }
+
+    private IHash nextQuery() {
+        IHash query = queries[next];
+        next = (next + 1) % QUERY_COUNT;
+        return query;
+    }
+
+    @Benchmark
+    public HashNode findNode() throws HashNotFoundException {
+        return hashTree.findNode(nextQuery());
+    }
+
+    @Benchmark
+    public List<IHash> extractHashChain() throws HashNotFoundException {
+        return hashTree.extractHashChain(nextQuery());
+    }
+
+    @Benchmark
+    public boolean isValidEvent() throws Exception {
+        return hashTree.isValidEvent(nextQuery());
+    }
+}
@@ -1,15 +1,27 @@
 package ee.mboysan.signverify;
 
+import ee.mboysan.signverify.hashing.HashProviders;
+import ee.mboysan.signverify.hashing.HashUtils;
 import ee.mboysan.signverify.hashing.IHash;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparsers;
+import ee.mboysan.signverify.ops.Manifest;
+import ee.mboysan.signverify.ops.MultiProof;
+import ee.mboysan.signverify.ops.ProofIndex;
 import ee.mboysan.signverify.ops.SignVerify;
 import ee.mboysan.signverify.tree.HashTree;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -23,10 +35,12 @@ public class HashCLI {
         ArgumentParser parser = ArgumentParsers.newFor("HashCLI").build();
         parser.addArgument("-opmod", "--operation-mode")
                 .dest("opmod")
-                .choices("MEM", "CPU").setDefault("MEM")
+                .choices("MEM", "CPU", "FLAT", "MMAP").setDefault("MEM")
                 .help("Specify operation mode to use. \n" +
                         "MEM: Memory intensive construction of the hash tree.\n" +
-                        "CPU: CPU intensive construction of the hash tree.");
+                        "CPU: CPU intensive construction of the hash tree.\n" +
+                        "FLAT: Compact construction of the hash tree in large arrays.\n" +
+                        "MMAP: Compact construction of the hash tree in memory-mapped files (off-heap).");
         Subparsers subparsers = parser.addSubparsers()
                 .title("subcommands")
                 .description("valid subcommands");
@@ -34,6 +48,11 @@ public class HashCLI {
         Map<String, AbsCmd> commandMap = Stream.of(
                 new SignCmd(subparsers),
                 new VerifyCmd(subparsers),
+                new VerifyAllCmd(subparsers),
+                new ExtendCmd(subparsers),
+                new ConsistencyCmd(subparsers),
+                new VerifyConsistencyCmd(subparsers),
+                new IndexCmd(subparsers),
                 new ExtractHashChainCmd(subparsers),
                 new VisualizeCmd(subparsers)
         ).collect(Collectors.toMap(o -> o.commandName, Function.identity()));
@@ -67,18 +86,25 @@ public class HashCLI {
             super(subparsers, "sign");
             ArgumentParser parser = subparsers.addParser("sign")
                     .defaultHelp(true)
-                    .description("Sign a log file.");
+                    .description("Sign a log file.\n" +
+                            "With a glob pattern, sign the files of a directory concurrently instead, writing a\n" +
+                            "manifest of their signatures with a root hash over all of them.");
 
             parser.addArgument("fileToSign").nargs(1)
                     .type(File.class)
-                    .help("File to sign");
+                    .help("File to sign, or the directory of the files to sign with a glob pattern");
             parser.addArgument("signatureFile").nargs(1)
                     .type(File.class)
-                    .help("Signature file output");
+                    .help("Signature file output, or the manifest file output with a glob pattern");
+            parser.addArgument("-g", "--glob")
+                    .dest("glob")
+                    .type(String.class)
+                    .help("Glob pattern of the files to sign relative to the directory, e.g. '*.log', or '**.log'" +
+                            " for the ones of the subdirectories too");
 
             parser.addArgument("-ha", "--hash-algorithm")
                     .dest("ha")
-                    .choices("SHA-256", "MD5", "SHA1").setDefault("SHA-256")
+                    .choices(HashProviders.getAlgorithms()).setDefault(HashUtils.getDefaultHashAlgorithm())
                     .help("Specify hash algorithm to use");
             parser.addArgument("-aa", "--allow-append")
                     .dest("aa")
@@ -95,6 +121,13 @@ public class HashCLI {
             String hashAlg = ns.getString("ha");
             boolean allowAppend = ns.get("aa");
 
+            String glob = ns.getString("glob");
+            if (glob != null) {
+                Manifest manifest = new SignVerify().signAll(fileToSign, glob, signatureFile, allowAppend, hashAlg);
+                System.out.println("files: " + manifest.getEntries().size());
+                System.out.println("root: " + manifest.getRoot());
+                return;
+            }
             new SignVerify().sign(fileToSign, signatureFile, allowAppend ,hashAlg);
         }
     }
@@ -123,6 +156,165 @@ public class HashCLI {
         }
     }
 
+    private static class VerifyAllCmd extends AbsCmd {
+        VerifyAllCmd(Subparsers subparsers) {
+            super(subparsers, "verifyall");
+            ArgumentParser parser = subparsers.addParser("verifyall")
+                    .defaultHelp(true)
+                    .description("Verify the files of a directory concurrently with the manifest created by signing\n" +
+                            "them with a glob pattern. The result of each file is printed as soon as it is done.");
+            parser.addArgument("directory").nargs(1)
+                    .type(File.class)
+                    .help("Directory of the files to verify");
+            parser.addArgument("manifestFile").nargs(1)
+                    .type(File.class)
+                    .help("Manifest file of the signatures of the files");
+            parser.addArgument("-mf", "--max-files")
+                    .dest("mf")
+                    .type(Integer.class)
+                    .setDefault(SignVerify.FILES_IN_FLIGHT)
+                    .help("Maximum number of files verified at once.");
+            parser.addArgument("-ff", "--fail-fast")
+                    .dest("ff")
+                    .setDefault(false)
+                    .type(Boolean.class)
+                    .help("Stop at the first file that is not verified.");
+        }
+
+        @Override
+        void process(Namespace ns) throws Exception {
+            File directory = (ns.<List<File>>get("directory")).get(0);
+            File manifestFile = (ns.<List<File>>get("manifestFile")).get(0);
+            int maxFiles = ns.getInt("mf");
+            boolean failFast = ns.get("ff");
+
+            int[] counts = new int[2];
+            boolean verif = new SignVerify().verifyAll(manifestFile, directory, maxFiles, failFast, result -> {
+                counts[result.isVerified() ? 0 : 1]++;
+                System.out.println(result);
+            });
+            System.out.println("verified: " + counts[0] + ", not verified: " + counts[1]);
+            System.out.println("Verification " + (verif ? "successful" : "failed"));
+        }
+    }
+
+    private static class ExtendCmd extends AbsCmd {
+        ExtendCmd(Subparsers subparsers) {
+            super(subparsers, "extend");
+            ArgumentParser parser = subparsers.addParser("extend")
+                    .defaultHelp(true)
+                    .description("Extend the signature of an append-only log file with the lines appended to it.\n" +
+                            "Only the appended lines are hashed, the signed lines are not verified again.");
+            parser.addArgument("logFile").nargs(1)
+                    .type(File.class)
+                    .help("Log file that is appended to");
+            parser.addArgument("signatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file of the log file, signed with allow append");
+            parser.addArgument("newSignatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file output for the whole log file");
+        }
+
+        @Override
+        void process(Namespace ns) throws Exception {
+            File logFile = (ns.<List<File>>get("logFile")).get(0);
+            File signatureFile = (ns.<List<File>>get("signatureFile")).get(0);
+            File newSignatureFile = (ns.<List<File>>get("newSignatureFile")).get(0);
+
+            new SignVerify().extend(signatureFile, logFile, newSignatureFile);
+        }
+    }
+
+    private static class ConsistencyCmd extends AbsCmd {
+        ConsistencyCmd(Subparsers subparsers) {
+            super(subparsers, "consistency");
+            ArgumentParser parser = subparsers.addParser("consistency")
+                    .defaultHelp(true)
+                    .description("Create a proof that a log file only grew between two of its signatures.");
+            parser.addArgument("logFile").nargs(1)
+                    .type(File.class)
+                    .help("Log file of the newer signature");
+            parser.addArgument("olderSignatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file of the log file before the lines were appended");
+            parser.addArgument("newerSignatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file of the log file with the lines appended");
+            parser.addArgument("proofFile").nargs(1)
+                    .type(File.class)
+                    .help("Consistency proof file output");
+        }
+
+        @Override
+        void process(Namespace ns) throws Exception {
+            File logFile = (ns.<List<File>>get("logFile")).get(0);
+            File olderSignatureFile = (ns.<List<File>>get("olderSignatureFile")).get(0);
+            File newerSignatureFile = (ns.<List<File>>get("newerSignatureFile")).get(0);
+            File proofFile = (ns.<List<File>>get("proofFile")).get(0);
+
+            System.out.println(new SignVerify().proveConsistency(olderSignatureFile, newerSignatureFile, logFile,
+                    proofFile));
+        }
+    }
+
+    private static class VerifyConsistencyCmd extends AbsCmd {
+        VerifyConsistencyCmd(Subparsers subparsers) {
+            super(subparsers, "verifyconsistency");
+            ArgumentParser parser = subparsers.addParser("verifyconsistency")
+                    .defaultHelp(true)
+                    .description("Verify that a log file only grew between two of its signatures, without the log " +
+                            "file.");
+            parser.addArgument("olderSignatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file of the log file before the lines were appended");
+            parser.addArgument("newerSignatureFile").nargs(1)
+                    .type(File.class)
+                    .help("Signature file of the log file with the lines appended");
+            parser.addArgument("proofFile").nargs(1)
+                    .type(File.class)
+                    .help("Consistency proof file");
+        }
+
+        @Override
+        void process(Namespace ns) throws Exception {
+            File olderSignatureFile = (ns.<List<File>>get("olderSignatureFile")).get(0);
+            File newerSignatureFile = (ns.<List<File>>get("newerSignatureFile")).get(0);
+            File proofFile = (ns.<List<File>>get("proofFile")).get(0);
+
+            boolean verif = new SignVerify().verifyConsistency(olderSignatureFile, newerSignatureFile, proofFile);
+            System.out.println("Verification " + (verif ? "successful" : "failed"));
+        }
+    }
+
+    private static class IndexCmd extends AbsCmd {
+        IndexCmd(Subparsers subparsers) {
+            super(subparsers, "index");
+            ArgumentParser parser = subparsers.addParser("index")
+                    .defaultHelp(true)
+                    .description("Persist the hash tree of a log file next to it, so that the hash chains of its " +
+                            "events are read from the index instead of hashing the file, until the file is changed.");
+            parser.addArgument("logFile").nargs(1)
+                    .type(File.class)
+                    .help("File to index");
+
+            parser.addArgument("-ha", "--hash-algorithm")
+                    .dest("ha")
+                    .choices(HashProviders.getAlgorithms()).setDefault(HashUtils.getDefaultHashAlgorithm())
+                    .help("Specify hash algorithm to use");
+        }
+
+        @Override
+        void process(Namespace ns) throws Exception {
+            File logFile = (ns.<List<File>>get("logFile")).get(0);
+            String hashAlg = ns.getString("ha");
+
+            IHash root = new SignVerify().index(logFile, hashAlg);
+            System.out.println("root: " + root);
+            System.out.println("index written to: " + ProofIndex.sidecarOf(logFile));
+        }
+    }
+
     private static class ExtractHashChainCmd extends AbsCmd {
         ExtractHashChainCmd(Subparsers subparsers) {
             super(subparsers, "hashchain");
@@ -133,34 +325,104 @@ public class HashCLI {
             parser.addArgument("logFile").nargs(1)
                     .type(File.class)
                     .help("File to extract hash chain");
-            parser.addArgument("event").nargs(1)
+            parser.addArgument("event").nargs("?")
                     .help("Input/event string to search for.\nexample: \"event to test\"");
 
             parser.addArgument("-ha", "--hash-algorithm")
                     .dest("ha")
-                    .choices("SHA-256", "MD5", "SHA1").setDefault("SHA-256")
+                    .choices(HashProviders.getAlgorithms()).setDefault(HashUtils.getDefaultHashAlgorithm())
                     .help("Specify hash algorithm to use");
             parser.addArgument("-out", "--out-file")
                     .dest("out")
                     .type(File.class)
                     .setDefault((Object) null)
                     .help("Output file to write the hash chain.");
+            parser.addArgument("-occ", "--occurrence")
+                    .dest("occ")
+                    .type(Integer.class)
+                    .setDefault(0)
+                    .help("Zero based occurrence of the event, for events logged more than once.");
+            parser.addArgument("-ln", "--line")
+                    .dest("line")
+                    .type(Long.class)
+                    .setDefault((Object) null)
+                    .help("Zero based number of the line to extract the hash chain for instead of the event " +
+                            "argument. With a fresh index of the file, the chain and the line are read from the " +
+                            "index without hashing the file.");
+            parser.addArgument("-ef", "--events-file")
+                    .dest("ef")
+                    .setDefault((Object) null)
+                    .help("File with an event per line to prove all at once instead of the event argument, " +
+                            "'-' to read the events from the standard input. A single proof is produced, where the " +
+                            "nodes shared by the hash chains of the events appear only once.");
         }
 
         @Override
         void process(Namespace ns) throws Exception {
             File file = (ns.<List<File>>get("logFile")).get(0);
-            String event = (ns.<List<String>>get("event")).get(0);
             File outFile = ns.get("out");
             String hashAlg = ns.getString("ha");
+            String eventsFile = ns.getString("ef");
+            if (eventsFile != null) {
+                processEvents(file, outFile, readEvents(eventsFile), hashAlg);
+                return;
+            }
+            String event = ns.getString("event");
+            Long line = ns.get("line");
+            if (line != null) {
+                if (event != null) {
+                    throw new IllegalArgumentException("Either the event or the line is allowed, not both.");
+                }
+                processLine(file, outFile, line, hashAlg);
+                return;
+            }
+            if (event == null) {
+                throw new IllegalArgumentException("Either the event, the line or the events file is required.");
+            }
+            int occurrence = ns.get("occ");
+
+            List<IHash> hashChain = new SignVerify().hashChainForEvent(file, outFile, event, occurrence, hashAlg);
+
+            System.out.println(hashChain);
+            if (outFile != null) {
+                System.out.println("output written to: " + outFile.toString());
+            }
+        }
 
-            List<IHash> hashChain = new SignVerify().hashChainForEvent(file, outFile, event, hashAlg);
+        private void processLine(File file, File outFile, long line, String hashAlg) throws Exception {
+            SignVerify sv = new SignVerify();
+            List<IHash> hashChain = sv.hashChainForLine(file, outFile, line, hashAlg);
 
+            System.out.println("event: " + sv.eventAt(file, line, hashAlg));
             System.out.println(hashChain);
             if (outFile != null) {
                 System.out.println("output written to: " + outFile.toString());
             }
         }
+
+        private void processEvents(File file, File outFile, List<String> events, String hashAlg) throws Exception {
+            MultiProof proof = new SignVerify().multiProofForEvents(file, outFile, events, hashAlg);
+
+            System.out.println("events: " + proof.getLeafHashes().size() + ", proof hashes: "
+                    + proof.getHashes().size() + ", root: " + proof.getRootHash());
+            if (outFile != null) {
+                System.out.println("output written to: " + outFile.toString());
+            } else {
+                System.out.println(proof);
+            }
+        }
+
+        private List<String> readEvents(String eventsFile) throws IOException {
+            InputStream in = "-".equals(eventsFile) ? System.in : new FileInputStream(eventsFile);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                List<String> events = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    events.add(line);
+                }
+                return events;
+            }
+        }
     }
 
     private static class VisualizeCmd extends AbsCmd {
@@ -177,7 +439,7 @@ public class HashCLI {
 
             parser.addArgument("-ha", "--hash-algorithm")
                     .dest("ha")
-                    .choices("SHA-256", "MD5", "SHA1").setDefault("SHA-256")
+                    .choices(HashProviders.getAlgorithms()).setDefault(HashUtils.getDefaultHashAlgorithm())
                     .help("Specify hash algorithm to use");
             parser.addArgument("-hl", "--hash-length")
                     .dest("hl")
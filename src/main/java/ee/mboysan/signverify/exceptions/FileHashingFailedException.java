@@ -8,6 +8,10 @@ public class FileHashingFailedException extends Exception {
         super(message);
     }
 
+    public FileHashingFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
     public FileHashingFailedException(Throwable cause) {
         super(cause);
     }
@@ -0,0 +1,235 @@
+package ee.mboysan.signverify.hashing;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the BLAKE3 hash function in its default (unkeyed) mode with 32 byte digests, following
+ * the reference implementation of the BLAKE3 specification. The input is split into 1 KiB chunks of 64 byte blocks;
+ * the chaining values of the completed chunks are merged into a binary tree on a stack, so the digest is computed in a
+ * single pass without buffering more than a block.
+ * <p>
+ * A line of a log usually fits into a single block, which is compressed in 7 rounds instead of the 64 rounds of
+ * SHA-256. Besides the digest output, updating and finishing the digest allocates nothing.
+ */
+final class Blake3Digest extends MessageDigest {
+
+    static final String ALGORITHM = "BLAKE3";
+
+    private static final int OUT_LEN = 32;
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+    /** enough for 2^54 chunks, i.e. the maximum input length of BLAKE3. */
+    private static final int MAX_DEPTH = 54;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final int[] MSG_PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+
+    /** message word indexes of each round, i.e. the permutation applied round times. */
+    private static final int[][] SCHEDULE = new int[7][16];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            SCHEDULE[0][i] = i;
+        }
+        for (int r = 1; r < SCHEDULE.length; r++) {
+            for (int i = 0; i < 16; i++) {
+                SCHEDULE[r][i] = SCHEDULE[r - 1][MSG_PERMUTATION[i]];
+            }
+        }
+    }
+
+    /** chaining value of the current chunk. */
+    private final int[] chunkCv = new int[8];
+    private long chunkCounter;
+    /** the current block of the chunk, zero padded. */
+    private final byte[] block = new byte[BLOCK_LEN];
+    private int blockLen;
+    private int blocksCompressed;
+
+    /** chaining values of the completed subtrees, 8 words each. */
+    private final int[] cvStack = new int[MAX_DEPTH * 8];
+    private int cvStackLen;
+
+    private final int[] words = new int[16];
+    private final int[] state = new int[16];
+    private final byte[] oneByte = new byte[1];
+
+    Blake3Digest() {
+        super(ALGORITHM);
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return OUT_LEN;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, chunkCv, 0, 8);
+        chunkCounter = 0;
+        Arrays.fill(block, (byte) 0);
+        blockLen = 0;
+        blocksCompressed = 0;
+        cvStackLen = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        oneByte[0] = input;
+        engineUpdate(oneByte, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        while (len > 0) {
+            if (blockLen == BLOCK_LEN) {
+                if (blocksCompressed == CHUNK_LEN / BLOCK_LEN - 1) {
+                    // the chunk is complete and more input follows.
+                    finishChunk();
+                } else {
+                    toWords(block, words);
+                    compress(chunkCv, words, chunkCounter, BLOCK_LEN, startFlag());
+                    System.arraycopy(state, 0, chunkCv, 0, 8);
+                    blocksCompressed++;
+                    Arrays.fill(block, (byte) 0);
+                    blockLen = 0;
+                }
+            }
+            int take = Math.min(BLOCK_LEN - blockLen, len);
+            System.arraycopy(input, offset, block, blockLen, take);
+            blockLen += take;
+            offset += take;
+            len -= take;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        byte[] out = new byte[OUT_LEN];
+        finish(out, 0);
+        return out;
+    }
+
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+        if (len < OUT_LEN) {
+            throw new DigestException("Output buffer too small: " + len);
+        }
+        finish(buf, offset);
+        return OUT_LEN;
+    }
+
+    private int startFlag() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    /**
+     * compresses the last block of the full chunk, pushes its chaining value and starts the next chunk.
+     */
+    private void finishChunk() {
+        toWords(block, words);
+        compress(chunkCv, words, chunkCounter, BLOCK_LEN, startFlag() | CHUNK_END);
+        long totalChunks = chunkCounter + 1;
+        // merge with the completed subtrees of equal size, there is one for each trailing zero bit.
+        while ((totalChunks & 1) == 0) {
+            cvStackLen--;
+            System.arraycopy(cvStack, cvStackLen * 8, words, 0, 8);
+            System.arraycopy(state, 0, words, 8, 8);
+            compress(IV, words, 0, BLOCK_LEN, PARENT);
+            totalChunks >>>= 1;
+        }
+        System.arraycopy(state, 0, cvStack, cvStackLen * 8, 8);
+        cvStackLen++;
+
+        System.arraycopy(IV, 0, chunkCv, 0, 8);
+        chunkCounter++;
+        Arrays.fill(block, (byte) 0);
+        blockLen = 0;
+        blocksCompressed = 0;
+    }
+
+    /**
+     * writes the root output and resets the digest.
+     */
+    private void finish(byte[] out, int offset) {
+        toWords(block, words);
+        int[] cv = chunkCv;
+        long counter = chunkCounter;
+        int len = blockLen;
+        int flags = startFlag() | CHUNK_END;
+        for (int i = cvStackLen - 1; i >= 0; i--) {
+            compress(cv, words, counter, len, flags);
+            System.arraycopy(cvStack, i * 8, words, 0, 8);
+            System.arraycopy(state, 0, words, 8, 8);
+            cv = IV;
+            counter = 0;
+            len = BLOCK_LEN;
+            flags = PARENT;
+        }
+        compress(cv, words, 0, len, flags | ROOT);
+        for (int i = 0; i < 8; i++) {
+            int w = state[i];
+            out[offset + i * 4] = (byte) w;
+            out[offset + i * 4 + 1] = (byte) (w >>> 8);
+            out[offset + i * 4 + 2] = (byte) (w >>> 16);
+            out[offset + i * 4 + 3] = (byte) (w >>> 24);
+        }
+        engineReset();
+    }
+
+    /**
+     * the compression function, leaves the first 8 words of the output (i.e. the chaining value) in {@link #state}.
+     */
+    private void compress(int[] cv, int[] m, long counter, int len, int flags) {
+        int[] v = state;
+        System.arraycopy(cv, 0, v, 0, 8);
+        System.arraycopy(IV, 0, v, 8, 4);
+        v[12] = (int) counter;
+        v[13] = (int) (counter >>> 32);
+        v[14] = len;
+        v[15] = flags;
+        for (int[] s : SCHEDULE) {
+            g(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+            g(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+            g(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+            g(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+            g(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+            g(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+            g(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+            g(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+        }
+        for (int i = 0; i < 8; i++) {
+            v[i] ^= v[i + 8];
+        }
+    }
+
+    private static void g(int[] v, int a, int b, int c, int d, int mx, int my) {
+        v[a] = v[a] + v[b] + mx;
+        v[d] = Integer.rotateRight(v[d] ^ v[a], 16);
+        v[c] = v[c] + v[d];
+        v[b] = Integer.rotateRight(v[b] ^ v[c], 12);
+        v[a] = v[a] + v[b] + my;
+        v[d] = Integer.rotateRight(v[d] ^ v[a], 8);
+        v[c] = v[c] + v[d];
+        v[b] = Integer.rotateRight(v[b] ^ v[c], 7);
+    }
+
+    private static void toWords(byte[] bytes, int[] words) {
+        for (int i = 0; i < 16; i++) {
+            int j = i * 4;
+            words[i] = (bytes[j] & 0xff) | (bytes[j + 1] & 0xff) << 8 | (bytes[j + 2] & 0xff) << 16
+                    | (bytes[j + 3] & 0xff) << 24;
+        }
+    }
+}
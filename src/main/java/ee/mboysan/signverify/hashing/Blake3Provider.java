@@ -0,0 +1,20 @@
+package ee.mboysan.signverify.hashing;
+
+import java.security.MessageDigest;
+
+/**
+ * Provides the pure Java BLAKE3 implementation of {@link Blake3Digest}, registered as a service in
+ * <code>META-INF/services</code>.
+ */
+public final class Blake3Provider implements HashProvider {
+
+    @Override
+    public String getAlgorithm() {
+        return Blake3Digest.ALGORITHM;
+    }
+
+    @Override
+    public MessageDigest newDigest() {
+        return new Blake3Digest();
+    }
+}
@@ -1,36 +1,71 @@
 package ee.mboysan.signverify.hashing;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 /**
- * Default hash wrapper implementation for working with java's {@link MessageDigest} libraries.
+ * Default hash wrapper implementation for working with java's {@link MessageDigest} libraries. The digest is held as a
+ * {@link Digest} value, so equality and hash codes are of the digest bytes.
+ * <p>
+ * The serialized form is the one of older versions, where the digest was held in an array, so that the signatures
+ * and the hash chains they wrote can still be read.
  */
-public class DefaultHashImpl implements IHash {
+public class DefaultHashImpl extends Digest implements IHash {
 
-    private final byte[] hash;
-    private Position position;
-    private final String algorithm;
+    private static final long serialVersionUID = -2958555227997290844L;
+
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("hash", byte[].class),
+            new ObjectStreamField("position", Position.class),
+            new ObjectStreamField("algorithm", String.class)
+    };
+
+    private transient Position position;
+    private transient String algorithm;
 
     DefaultHashImpl(String event, String algorithm) throws NoSuchAlgorithmException {
-        this.algorithm = algorithm;
-        this.hash = generateHash(event);
+        this(hash(event, algorithm), algorithm);
     }
 
-    private DefaultHashImpl(byte[] hash, String algorithm) throws NoSuchAlgorithmException {
+    /**
+     * @param hash      array containing the already calculated digest, copied.
+     * @param offset    offset of the digest in the array.
+     * @param length    length of the digest.
+     * @param algorithm algorithm the digest was calculated with.
+     */
+    private DefaultHashImpl(byte[] hash, int offset, int length, String algorithm) {
+        super(hash, offset, length);
         this.algorithm = algorithm;
-        this.hash = generateHash(hash);
     }
 
-    @Override
-    public byte[] generateHash(String event) throws NoSuchAlgorithmException {
-        return generateHash(event.getBytes(StandardCharsets.UTF_8));
+    private DefaultHashImpl(byte[] hash, String algorithm) {
+        this(hash, 0, hash.length, algorithm);
+    }
+
+    /**
+     * Wraps an already calculated digest.
+     * @param digest    array containing the digest, copied.
+     * @param offset    offset of the digest in the array.
+     * @param length    length of the digest.
+     * @param algorithm algorithm the digest was calculated with.
+     */
+    static DefaultHashImpl fromDigest(byte[] digest, int offset, int length, String algorithm) {
+        return new DefaultHashImpl(digest, offset, length, algorithm);
     }
 
-    private byte[] generateHash(byte[] mergedHash) throws NoSuchAlgorithmException {
-        return MessageDigest.getInstance(algorithm).digest(mergedHash);
+    private static byte[] hash(String event, String algorithm) throws NoSuchAlgorithmException {
+        return HashEngine.forAlgorithm(algorithm).hash(event.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public byte[] generateHash(String event) throws NoSuchAlgorithmException {
+        return hash(event, algorithm);
     }
 
     /**
@@ -44,10 +79,12 @@ public class DefaultHashImpl implements IHash {
             throw new IllegalArgumentException("Merge failed: implementation classes do not match: " + hashToMerge.getClass());
         }
         DefaultHashImpl toMerge = (DefaultHashImpl) hashToMerge;
-        byte[] mergedHash = new byte[this.hash.length + toMerge.hash.length];
-        System.arraycopy(this.hash, 0, mergedHash, 0, this.hash.length);
-        System.arraycopy(toMerge.hash, 0, mergedHash, this.hash.length, toMerge.hash.length);
-        DefaultHashImpl newHash = new DefaultHashImpl(mergedHash, algorithm);
+        HashEngine engine = HashEngine.forAlgorithm(algorithm);
+        int length = engine.getDigestLength();
+        if (length() != length || toMerge.length() != length) {
+            throw new IllegalArgumentException("Merge failed: digest lengths do not match the algorithm " + algorithm);
+        }
+        DefaultHashImpl newHash = new DefaultHashImpl(engine.merge(this, toMerge), 0, length, algorithm);
         setPosition(Position.LEFT);
         hashToMerge.setPosition(Position.RIGHT);
         return newHash;
@@ -63,32 +100,22 @@ public class DefaultHashImpl implements IHash {
         return this.position;
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        if (!(obj instanceof DefaultHashImpl)) {
-            return false;
-        }
-        DefaultHashImpl other = (DefaultHashImpl) obj;
-        return Arrays.equals(this.hash, other.hash);
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("hash", toByteArray());
+        fields.put("position", position);
+        fields.put("algorithm", algorithm);
+        out.writeFields();
     }
 
-    /**
-     * Taken from: https://www.baeldung.com/sha-256-hashing-java
-     * @param hash
-     * @return
-     */
-    private static String bytesToHex(byte[] hash) {
-        StringBuffer hexString = new StringBuffer();
-        for (int i = 0; i < hash.length; i++) {
-            String hex = Integer.toHexString(0xff & hash[i]);
-            if(hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        byte[] hash = (byte[]) fields.get("hash", null);
+        if (hash == null) {
+            throw new InvalidObjectException("No digest.");
         }
-        return hexString.toString();
-    }
-
-    @Override
-    public String toString() {
-        return bytesToHex(hash);
+        set(hash, 0, hash.length);
+        position = (Position) fields.get("position", null);
+        algorithm = (String) fields.get("algorithm", null);
     }
 }
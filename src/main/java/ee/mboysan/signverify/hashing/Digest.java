@@ -0,0 +1,200 @@
+package ee.mboysan.signverify.hashing;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Digest of a fixed length as a value. The first 32 bytes, i.e. the whole digest of SHA-256, SHA-1, MD5 and the like,
+ * are held big-endian in four long fields (zero padded), so a digest is a single object of constant size and
+ * {@link #equals(Object)} and {@link #hashCode()} take constant time without touching an array. The bytes after the
+ * 32nd of a longer digest are kept in an array.
+ * <p>
+ * Digests are equal if their bytes are, regardless of the algorithm and of the class. As digests are uniformly
+ * distributed, the hash code is made of the leading bits. The hex string is encoded with a lookup table.
+ * <p>
+ * A digest does not change after it is created. The fields are not final only for the deserialization of
+ * {@link DefaultHashImpl}.
+ */
+public class Digest {
+
+    /** number of bytes held in the long fields. */
+    private static final int WORDS_LENGTH = 4 * Long.BYTES;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private long w0;
+    private long w1;
+    private long w2;
+    private long w3;
+    /** bytes after the first {@link #WORDS_LENGTH} bytes, null if there are none. */
+    private byte[] rest;
+    private int length;
+
+    /**
+     * an empty digest, to be set by {@link #set(byte[], int, int)} on deserialization.
+     */
+    Digest() {
+    }
+
+    Digest(byte[] digest, int offset, int length) {
+        set(digest, offset, length);
+    }
+
+    /**
+     * @param digest the digest bytes, copied.
+     * @return the digest.
+     */
+    public static Digest of(byte[] digest) {
+        return new Digest(digest, 0, digest.length);
+    }
+
+    /**
+     * @param digest array containing the digest, copied.
+     * @param offset offset of the digest in the array.
+     * @param length length of the digest.
+     * @return the digest of <code>digest[offset, offset + length)</code>.
+     */
+    public static Digest of(byte[] digest, int offset, int length) {
+        return new Digest(digest, offset, length);
+    }
+
+    final void set(byte[] digest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > digest.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        this.length = length;
+        this.w0 = word(digest, offset, 0, length);
+        this.w1 = word(digest, offset, 1, length);
+        this.w2 = word(digest, offset, 2, length);
+        this.w3 = word(digest, offset, 3, length);
+        this.rest = length > WORDS_LENGTH
+                ? Arrays.copyOfRange(digest, offset + WORDS_LENGTH, offset + length) : null;
+    }
+
+    private static long word(byte[] digest, int offset, int index, int length) {
+        long w = 0;
+        for (int i = index * Long.BYTES; i < (index + 1) * Long.BYTES; i++) {
+            w = (w << 8) | (i < length ? digest[offset + i] & 0xff : 0);
+        }
+        return w;
+    }
+
+    private long word(int index) {
+        switch (index) {
+            case 0:
+                return w0;
+            case 1:
+                return w1;
+            case 2:
+                return w2;
+            default:
+                return w3;
+        }
+    }
+
+    /**
+     * @return i-th byte of the digest.
+     */
+    private int byteAt(int i) {
+        if (i >= WORDS_LENGTH) {
+            return rest[i - WORDS_LENGTH] & 0xff;
+        }
+        return (int) (word(i >>> 3) >>> (56 - ((i & 7) << 3))) & 0xff;
+    }
+
+    /**
+     * @return the number of bytes of the digest.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Writes the digest to <code>out[offset, offset + length)</code>.
+     */
+    public void copyTo(byte[] out, int offset) {
+        if (offset < 0 || offset + length > out.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        int words = Math.min(length, WORDS_LENGTH) / Long.BYTES;
+        for (int i = 0; i < words; i++) {
+            long w = word(i);
+            for (int j = 0; j < Long.BYTES; j++) {
+                out[offset + i * Long.BYTES + j] = (byte) (w >>> (56 - (j << 3)));
+            }
+        }
+        for (int i = words * Long.BYTES; i < Math.min(length, WORDS_LENGTH); i++) {
+            out[offset + i] = (byte) byteAt(i);
+        }
+        if (rest != null) {
+            System.arraycopy(rest, 0, out, offset + WORDS_LENGTH, rest.length);
+        }
+    }
+
+    /**
+     * @return a new array containing the digest.
+     */
+    public byte[] toByteArray() {
+        byte[] out = new byte[length];
+        copyTo(out, 0);
+        return out;
+    }
+
+    /**
+     * Writes the digest, without an intermediate array.
+     * @param out output to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int words = Math.min(length, WORDS_LENGTH) / Long.BYTES;
+        for (int i = 0; i < words; i++) {
+            out.writeLong(word(i));
+        }
+        for (int i = words * Long.BYTES; i < Math.min(length, WORDS_LENGTH); i++) {
+            out.writeByte(byteAt(i));
+        }
+        if (rest != null) {
+            out.write(rest);
+        }
+    }
+
+    /**
+     * @return the leading (at most) 64 bits of the digest as a big-endian long.
+     */
+    public long leadingBits() {
+        return length >= Long.BYTES ? w0 : w0 >>> ((Long.BYTES - length) << 3);
+    }
+
+    @Override
+    public final boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Digest)) {
+            return false;
+        }
+        Digest other = (Digest) obj;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3 && length == other.length
+                && (rest == null || Arrays.equals(rest, other.rest));
+    }
+
+    @Override
+    public final int hashCode() {
+        return (int) (w0 >>> 32);
+    }
+
+    /**
+     * @return the digest as a lower case hex string.
+     */
+    @Override
+    public String toString() {
+        char[] hex = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = byteAt(i);
+            hex[2 * i] = HEX[b >>> 4];
+            hex[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(hex);
+    }
+}
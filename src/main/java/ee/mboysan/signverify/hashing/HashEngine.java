@@ -0,0 +1,199 @@
+package ee.mboysan.signverify.hashing;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hashing engine for a single algorithm. Keeps one {@link MessageDigest} per thread, so that hashing a leaf or merging
+ * two child hashes neither looks up the provider again nor allocates anything besides the caller's output buffer.
+ * <p>
+ * Merging feeds the left and the right digests one after the other into the digest, which is equal to hashing their
+ * concatenation (left | right).
+ * <p>
+ * Many short leaves (e.g. the lines of a chunk) can be hashed as a {@link LeafBatch}. For SHA-256 the batch can be
+ * hashed in interleaved lanes by {@link Sha256Lanes}, enabled with the {@link #LANES_PROPERTY} system property. They
+ * are off by default: the JDK compiles SHA-256 to the SHA instructions of the CPU (or to AVX2 code), which is faster
+ * than the lanes, so they pay off only on platforms where the JDK has no SHA-256 intrinsic.
+ */
+public final class HashEngine {
+
+    /** system property enabling {@link Sha256Lanes} for the batches of SHA-256 leaves, i.e. "true" or "false". */
+    public static final String LANES_PROPERTY = "signverify.sha256.lanes";
+
+    /** engines created so far, by algorithm. */
+    private static final ConcurrentMap<String, HashEngine> ENGINES = new ConcurrentHashMap<>();
+
+    private final String algorithm;
+    private final int digestLength;
+    private final ThreadLocal<MessageDigest> digests;
+    /** per-thread buffer of two digests, for merging digests held as values, see {@link #merge(Digest, Digest)}. */
+    private final ThreadLocal<byte[]> scratch;
+    /** lanes of the batches, null if the batches are hashed one leaf after the other. */
+    private final ThreadLocal<Sha256Lanes> lanes;
+
+    private HashEngine(String algorithm) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        HashProvider provider = HashProviders.get(algorithm);
+        this.digestLength = provider.newDigest().getDigestLength();
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return provider.newDigest();
+            } catch (NoSuchAlgorithmException e) {
+                // we have already created an instance of it in the constructor.
+                throw new IllegalStateException(e);
+            }
+        });
+        this.scratch = ThreadLocal.withInitial(() -> new byte[2 * digestLength]);
+        this.lanes = "SHA-256".equals(algorithm) && Boolean.getBoolean(LANES_PROPERTY)
+                ? ThreadLocal.withInitial(Sha256Lanes::new) : null;
+    }
+
+    /**
+     * @param algorithm hash algorithm, i.e. one of {@link HashProviders#getAlgorithms()}.
+     * @return the (shared) engine for the algorithm.
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm.
+     */
+    public static HashEngine forAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+        HashEngine engine = ENGINES.get(algorithm);
+        if (engine == null) {
+            engine = new HashEngine(algorithm);
+            HashEngine prev = ENGINES.putIfAbsent(algorithm, engine);
+            if (prev != null) {
+                engine = prev;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * @return the hash algorithm of this engine.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the length of the produced digests in bytes.
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Hashes <code>input[offset, offset + length)</code> and writes the digest to <code>out[outOffset, outOffset +
+     * digestLength)</code>.
+     */
+    public void hash(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest md = digests.get();
+        md.update(input, offset, length);
+        finish(md, out, outOffset);
+    }
+
+    /**
+     * @return a new array containing the digest of the whole input.
+     */
+    public byte[] hash(byte[] input) {
+        byte[] out = new byte[digestLength];
+        hash(input, 0, input.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Hashes the remaining bytes of the input and writes the digest to <code>out[outOffset, outOffset +
+     * digestLength)</code>. The bytes are read in place, e.g. straight from a memory-mapped file, and the position of
+     * the input is moved to its limit.
+     */
+    public void hash(ByteBuffer input, byte[] out, int outOffset) {
+        MessageDigest md = digests.get();
+        md.update(input);
+        finish(md, out, outOffset);
+    }
+
+    /**
+     * Merges the digest at <code>left[leftOffset]</code> with the digest at <code>right[rightOffset]</code> and writes
+     * the digest of (left | right) to <code>out[outOffset]</code>. The output may overlap any of the inputs.
+     */
+    public void merge(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] out, int outOffset) {
+        MessageDigest md = digests.get();
+        md.update(left, leftOffset, digestLength);
+        md.update(right, rightOffset, digestLength);
+        finish(md, out, outOffset);
+    }
+
+    /**
+     * @return a new array containing the digest of (left | right).
+     */
+    public byte[] merge(byte[] left, byte[] right) {
+        byte[] out = new byte[digestLength];
+        merge(left, 0, right, 0, out, 0);
+        return out;
+    }
+
+    /**
+     * Merges two digests held as values, through a per-thread buffer instead of a new array for their concatenation.
+     * @return the per-thread buffer with the digest of (left | right) at offset 0, valid until the next merge on the
+     *         calling thread.
+     */
+    byte[] merge(Digest left, Digest right) {
+        byte[] buffer = scratch.get();
+        left.copyTo(buffer, 0);
+        right.copyTo(buffer, digestLength);
+        merge(buffer, 0, buffer, digestLength, buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * @return a new batch of leaves to hash with this engine.
+     */
+    public LeafBatch newLeafBatch() {
+        return new LeafBatch(lanes != null ? lanes.get() : null);
+    }
+
+    private void finish(MessageDigest md, byte[] out, int outOffset) {
+        try {
+            md.digest(out, outOffset, digestLength);
+        } catch (DigestException e) {
+            md.reset();
+            throw new IllegalArgumentException("Output buffer too small for the digest of " + algorithm, e);
+        }
+    }
+
+    /**
+     * Leaves hashed together. The digest of a leaf is written to its output once the batch is
+     * {@link #finish() finished}, not necessarily when it is added. A batch is used by the thread that created it, and
+     * must be finished before the thread creates the next batch of the same engine.
+     */
+    public final class LeafBatch {
+
+        private final Sha256Lanes lanes;
+
+        private LeafBatch(Sha256Lanes lanes) {
+            this.lanes = lanes;
+        }
+
+        /**
+         * Adds the remaining bytes of the event as the next leaf, see {@link HashEngine#hash(ByteBuffer, byte[], int)}.
+         * The bytes are consumed at once, the buffer may be reused after the call.
+         */
+        public void add(ByteBuffer event, byte[] out, int outOffset) {
+            if (lanes != null && Sha256Lanes.accepts(event.remaining())) {
+                lanes.add(event, out, outOffset);
+            } else {
+                hash(event, out, outOffset);
+            }
+        }
+
+        /**
+         * Writes the digests of the leaves not written yet.
+         */
+        public void finish() {
+            if (lanes != null) {
+                lanes.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ee.mboysan.signverify.hashing;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Provider of a hash algorithm. Besides the algorithms of the Java platform known to {@link HashProviders}, further
+ * algorithms are plugged in with {@link java.util.ServiceLoader}, i.e. by listing the implementing classes in
+ * <code>META-INF/services/ee.mboysan.signverify.hashing.HashProvider</code> of a jar on the classpath. The algorithm
+ * can then be given by its name everywhere a hash algorithm is expected, e.g. to the <code>--hash-algorithm</code>
+ * option of the CLI.
+ * <p>
+ * Implementations must have a public no-arg constructor.
+ */
+public interface HashProvider {
+
+    /**
+     * @return the name of the algorithm, e.g. "BLAKE3".
+     */
+    String getAlgorithm();
+
+    /**
+     * @return a new digest of the algorithm. The digests are not shared by threads.
+     * @throws NoSuchAlgorithmException if the algorithm is not available at runtime.
+     */
+    MessageDigest newDigest() throws NoSuchAlgorithmException;
+}
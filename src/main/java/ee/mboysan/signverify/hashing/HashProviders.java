@@ -0,0 +1,107 @@
+package ee.mboysan.signverify.hashing;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Registry of the supported hash algorithms. Consists of the algorithms of the Java platform (SHA-256, SHA-1, MD5 and,
+ * on Java 9 and later, SHA-512/256 and SHA3-256) and the ones of the {@link HashProvider}s found by
+ * {@link ServiceLoader}, e.g. BLAKE3. An algorithm is registered only if a digest of it can be created at runtime, and
+ * a service provider cannot replace an algorithm registered before it.
+ */
+public final class HashProviders {
+
+    /** providers by algorithm, in the order of registration. */
+    private static final Map<String, HashProvider> PROVIDERS = load();
+
+    private HashProviders() {
+    }
+
+    private static Map<String, HashProvider> load() {
+        Map<String, HashProvider> providers = new LinkedHashMap<>();
+        for (String algorithm : new String[]{"SHA-256", "SHA-1", "MD5", "SHA-512/256", "SHA3-256"}) {
+            register(providers, new JcaHashProvider(algorithm));
+        }
+        Iterator<HashProvider> it = ServiceLoader.load(HashProvider.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                register(providers, it.next());
+            } catch (ServiceConfigurationError e) {
+                // a broken provider must not make the other algorithms unusable.
+            }
+        }
+        return Collections.unmodifiableMap(providers);
+    }
+
+    private static void register(Map<String, HashProvider> providers, HashProvider provider) {
+        if (providers.containsKey(provider.getAlgorithm())) {
+            return;
+        }
+        try {
+            provider.newDigest();
+            providers.put(provider.getAlgorithm(), provider);
+        } catch (NoSuchAlgorithmException e) {
+            // not available at runtime.
+        }
+    }
+
+    /**
+     * @param algorithm name of the hash algorithm.
+     * @return the provider of the algorithm.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     */
+    public static HashProvider get(String algorithm) throws NoSuchAlgorithmException {
+        HashProvider provider = PROVIDERS.get(algorithm);
+        if (provider == null) {
+            throw new NoSuchAlgorithmException("Hash algorithm not recognized: " + algorithm);
+        }
+        return provider;
+    }
+
+    /**
+     * @param algorithm name of the hash algorithm.
+     * @return true if the algorithm can be used, false otherwise.
+     */
+    public static boolean isSupported(String algorithm) {
+        return algorithm != null && PROVIDERS.containsKey(algorithm);
+    }
+
+    /**
+     * @return names of the supported hash algorithms, the platform ones first.
+     */
+    public static Set<String> getAlgorithms() {
+        return PROVIDERS.keySet();
+    }
+
+    /**
+     * Provider of an algorithm of the Java platform, i.e. of the installed JCA providers.
+     */
+    private static final class JcaHashProvider implements HashProvider {
+
+        private final String algorithm;
+
+        JcaHashProvider(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public MessageDigest newDigest() throws NoSuchAlgorithmException {
+            return MessageDigest.getInstance(algorithm);
+        }
+    }
+}
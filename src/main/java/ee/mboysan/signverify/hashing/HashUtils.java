@@ -1,5 +1,8 @@
 package ee.mboysan.signverify.hashing;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A utility class for general hashing operations.
  */
@@ -35,13 +38,79 @@ public class HashUtils {
      * @throws Exception if hash creation fails.
      */
     public static IHash createHash(String event, String hashAlgorithm) throws Exception {
-        switch (hashAlgorithm) {
-            case "SHA-256":
-            case "SHA-1":
-            case "MD5":
-                return new DefaultHashImpl(event, hashAlgorithm);
-            default:
-                throw new IllegalStateException("Hash algorithm not recognized: " + hashAlgorithm);
+        if (!HashProviders.isSupported(hashAlgorithm)) {
+            throw new IllegalStateException("Hash algorithm not recognized: " + hashAlgorithm);
+        }
+        return new DefaultHashImpl(event, hashAlgorithm);
+    }
+
+    /**
+     * Creates a hash object from an already calculated digest.
+     * @param digest        raw digest bytes, copied.
+     * @param hashAlgorithm hash algorithm the digest was calculated with.
+     * @return Hash object wrapping the digest.
+     */
+    public static IHash createHashFromDigest(byte[] digest, String hashAlgorithm) {
+        if (!HashProviders.isSupported(hashAlgorithm)) {
+            throw new IllegalStateException("Hash algorithm not recognized: " + hashAlgorithm);
+        }
+        return DefaultHashImpl.fromDigest(digest, 0, digest.length, hashAlgorithm);
+    }
+
+    /**
+     * Creates a hash object from an already calculated digest in an array of many, e.g. of a node store.
+     * @param digests       array containing the digest, copied.
+     * @param offset        offset of the digest in the array.
+     * @param length        length of the digest.
+     * @param hashAlgorithm hash algorithm the digest was calculated with.
+     * @return Hash object wrapping the digest.
+     */
+    public static IHash createHashFromDigest(byte[] digests, int offset, int length, String hashAlgorithm) {
+        if (!HashProviders.isSupported(hashAlgorithm)) {
+            throw new IllegalStateException("Hash algorithm not recognized: " + hashAlgorithm);
+        }
+        return DefaultHashImpl.fromDigest(digests, offset, length, hashAlgorithm);
+    }
+
+    /**
+     * Digests are uniformly distributed, so their leading bits make a good key for hash based lookups.
+     * @param hash hash to get the key of.
+     * @return the leading (at most) 64 bits of the digest of the hash.
+     */
+    public static long leadingBits(IHash hash) {
+        if (hash instanceof Digest) {
+            return ((Digest) hash).leadingBits();
+        }
+        byte[] digest = hash.toByteArray();
+        long bits = 0;
+        for (int i = 0; i < Math.min(Long.BYTES, digest.length); i++) {
+            bits = (bits << 8) | (digest[i] & 0xff);
+        }
+        return bits;
+    }
+
+    /**
+     * @param hash hash to get the digest length of.
+     * @return the number of bytes of the digest of the hash.
+     */
+    public static int digestLength(IHash hash) {
+        if (hash instanceof Digest) {
+            return ((Digest) hash).length();
+        }
+        return hash.toByteArray().length;
+    }
+
+    /**
+     * Writes the raw digest of the hash, without copying it where possible.
+     * @param hash hash to write the digest of.
+     * @param out  output to write to.
+     * @throws IOException if writing fails.
+     */
+    public static void writeDigest(IHash hash, DataOutput out) throws IOException {
+        if (hash instanceof Digest) {
+            ((Digest) hash).writeTo(out);
+        } else {
+            out.write(hash.toByteArray());
         }
     }
 
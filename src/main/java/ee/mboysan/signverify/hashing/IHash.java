@@ -18,6 +18,11 @@ public interface IHash extends Serializable {
      */
     IHash mergeAndCreateNewHash(IHash hashToMerge) throws Exception;
 
+    /**
+     * @return a copy of the raw digest bytes of this hash.
+     */
+    byte[] toByteArray();
+
     /**
      * Sets the position of the node containing this hash relative to parent node.
      * @param position {@link Position} to set.
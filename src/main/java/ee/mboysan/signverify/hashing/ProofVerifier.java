@@ -0,0 +1,133 @@
+package ee.mboysan.signverify.hashing;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Verifies hash chains (inclusion proofs) without a tree, i.e. recomputes the root from the leaf digest and the
+ * sibling digests and compares it with the expected root. The directions of the siblings are given as a bitmask
+ * instead of the {@link IHash.Position} of hash objects: the bit <code>0x80 &gt;&gt;&gt; (i % 8)</code> of the byte
+ * <code>i / 8</code> is set if the i-th sibling from the leaf is on the left, the same as in the binary hash chain
+ * files.
+ * <p>
+ * The root is recomputed in a scratch buffer given by the caller, so verifying a proof allocates nothing. A scratch
+ * buffer (and the digest engine of {@link HashEngine}) must not be shared by threads, otherwise the methods are thread
+ * safe.
+ */
+public final class ProofVerifier {
+
+    private ProofVerifier() {
+    }
+
+    /**
+     * @param engine         engine of the hash algorithm of the proof.
+     * @param leaf           array containing the leaf digest.
+     * @param leafOffset     offset of the leaf digest.
+     * @param siblings       array containing the sibling digests one after the other, from the leaf.
+     * @param siblingsOffset offset of the first sibling digest.
+     * @param siblingCount   number of siblings.
+     * @param leftMask       direction bits of the siblings, see {@link ProofVerifier}.
+     * @param root           array containing the expected root digest.
+     * @param rootOffset     offset of the root digest.
+     * @param scratch        buffer of at least {@link HashEngine#getDigestLength()} bytes to compute the root in.
+     * @return true if the leaf and the siblings lead to the root, false otherwise.
+     */
+    public static boolean verify(HashEngine engine, byte[] leaf, int leafOffset, byte[] siblings, int siblingsOffset,
+                                 int siblingCount, byte[] leftMask, byte[] root, int rootOffset, byte[] scratch) {
+        int digestLength = engine.getDigestLength();
+        if (scratch.length < digestLength) {
+            throw new IllegalArgumentException("Scratch buffer is too small: " + scratch.length);
+        }
+        System.arraycopy(leaf, leafOffset, scratch, 0, digestLength);
+        for (int i = 0; i < siblingCount; i++) {
+            int sibling = siblingsOffset + i * digestLength;
+            if ((leftMask[i >>> 3] & (0x80 >>> (i & 7))) != 0) {
+                engine.merge(siblings, sibling, scratch, 0, scratch, 0);
+            } else {
+                engine.merge(scratch, 0, siblings, sibling, scratch, 0);
+            }
+        }
+        return digestEquals(scratch, 0, root, rootOffset, digestLength);
+    }
+
+    /**
+     * Same as {@link #verify(HashEngine, byte[], int, byte[], int, int, byte[], byte[], int, byte[])} for a hash chain
+     * whose digests are one after the other: the leaf, the siblings from the leaf and the root, e.g. as read by
+     * {@code HashChainReader}.
+     * @param engine       engine of the hash algorithm of the proof.
+     * @param digests      array containing the digests of the chain.
+     * @param offset       offset of the leaf digest.
+     * @param siblingCount number of siblings.
+     * @param leftMask     direction bits of the siblings, see {@link ProofVerifier}.
+     * @param scratch      buffer of at least {@link HashEngine#getDigestLength()} bytes to compute the root in.
+     * @return true if the leaf and the siblings lead to the root, false otherwise.
+     */
+    public static boolean verifyChain(HashEngine engine, byte[] digests, int offset, int siblingCount,
+                                      byte[] leftMask, byte[] scratch) {
+        int digestLength = engine.getDigestLength();
+        return verify(engine, digests, offset, digests, offset + digestLength, siblingCount, leftMask,
+                digests, offset + (siblingCount + 1) * digestLength, scratch);
+    }
+
+    /**
+     * Verifies a hash chain of hash objects in the format [leafHash, [c1,[c2,...]], rootHash], as extracted from a
+     * hash tree, against the expected root. A sibling is merged on the right if its position is
+     * {@link IHash.Position#RIGHT}, otherwise on the left. The chain is not modified.
+     * @param hashChain     the hash chain.
+     * @param hashAlgorithm hash algorithm of the hashes.
+     * @param root          the expected root, e.g. the one of a signature.
+     * @return true if the chain leads to the root and ends with it, false otherwise.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     */
+    public static boolean verify(List<IHash> hashChain, String hashAlgorithm, IHash root)
+            throws NoSuchAlgorithmException {
+        HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+        int digestLength = engine.getDigestLength();
+        if (hashChain.size() < 2 || !root.equals(hashChain.get(hashChain.size() - 1))) {
+            return false;
+        }
+        // the computed digest followed by the sibling or the root to merge or compare it with.
+        byte[] scratch = new byte[2 * digestLength];
+        if (!copyDigest(hashChain.get(0), scratch, 0, digestLength)) {
+            return false;
+        }
+        for (IHash sibling : hashChain.subList(1, hashChain.size() - 1)) {
+            if (!copyDigest(sibling, scratch, digestLength, digestLength)) {
+                return false;
+            }
+            if (sibling.getPosition() == IHash.Position.RIGHT) {
+                engine.merge(scratch, 0, scratch, digestLength, scratch, 0);
+            } else {
+                engine.merge(scratch, digestLength, scratch, 0, scratch, 0);
+            }
+        }
+        return copyDigest(root, scratch, digestLength, digestLength)
+                && digestEquals(scratch, 0, scratch, digestLength, digestLength);
+    }
+
+    /**
+     * copies the digest of the hash to out[offset] if it is of the expected length.
+     */
+    private static boolean copyDigest(IHash hash, byte[] out, int offset, int digestLength) {
+        if (HashUtils.digestLength(hash) != digestLength) {
+            return false;
+        }
+        if (hash instanceof Digest) {
+            ((Digest) hash).copyTo(out, offset);
+        } else {
+            System.arraycopy(hash.toByteArray(), 0, out, offset, digestLength);
+        }
+        return true;
+    }
+
+    /**
+     * compares the digests in constant time, i.e. without returning early at the first difference.
+     */
+    private static boolean digestEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            diff |= a[aOffset + i] ^ b[bOffset + i];
+        }
+        return diff == 0;
+    }
+}
@@ -0,0 +1,207 @@
+package ee.mboysan.signverify.hashing;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of many short messages at once. Messages with the same number of blocks are collected into groups of up to
+ * {@link #LANES}, and the blocks of a group are compressed together: each working variable and each word of the
+ * message schedule is an array over the lanes, so that each step of a round is a loop over the lanes with no
+ * dependencies between them, which the JIT compiles into SIMD instructions where the CPU has them. The working
+ * variables are rotated at the end of a round by renaming the arrays, so a round writes two arrays only.
+ * <p>
+ * Messages longer than {@link #MAX_BLOCKS} blocks are not collected, see {@link #accepts(int)}. Not thread safe.
+ */
+final class Sha256Lanes {
+
+    static final int LANES = 256;
+    /** messages of more blocks are left to the scalar path. */
+    static final int MAX_BLOCKS = 4;
+
+    private static final int BLOCK_LEN = 64;
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    /** padded messages of the groups, by number of blocks - 1: the blocks of lane l start at l * blocks * 64. */
+    private final byte[][] messages = new byte[MAX_BLOCKS][];
+    /** output arrays and offsets of the digests of the lanes of the groups. */
+    private final byte[][][] outs = new byte[MAX_BLOCKS][LANES][];
+    private final int[][] outOffsets = new int[MAX_BLOCKS][LANES];
+    /** number of messages in the groups. */
+    private final int[] counts = new int[MAX_BLOCKS];
+
+    /** message schedule, word t of lane l at w[t][l]. */
+    private final int[][] w = new int[64][LANES];
+    /** working variables a, ..., h of the lanes. */
+    private final int[][] vars = new int[8][LANES];
+    /** intermediate hash values, word i of lane l at state[i][l]. */
+    private final int[][] state = new int[8][LANES];
+
+    Sha256Lanes() {
+        for (int i = 0; i < MAX_BLOCKS; i++) {
+            messages[i] = new byte[LANES * (i + 1) * BLOCK_LEN];
+        }
+    }
+
+    /**
+     * @return the number of blocks of a padded message of the given length.
+     */
+    static int blockCount(int length) {
+        return (length + 8) / BLOCK_LEN + 1;
+    }
+
+    /**
+     * @return true if a message of the given length is collected by {@link #add(ByteBuffer, byte[], int)}.
+     */
+    static boolean accepts(int length) {
+        return blockCount(length) <= MAX_BLOCKS;
+    }
+
+    /**
+     * Collects the remaining bytes of the message (moving its position to the limit) and compresses its group if it
+     * is full. The digest is written to <code>out[outOffset]</code> once its group is compressed, at the latest by
+     * {@link #flush()}.
+     * @throws IllegalArgumentException if the message is not {@link #accepts(int) accepted}.
+     */
+    void add(ByteBuffer message, byte[] out, int outOffset) {
+        int length = message.remaining();
+        int blocks = blockCount(length);
+        if (blocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Message too long for the lanes: " + length);
+        }
+        int group = blocks - 1;
+        int lane = counts[group];
+        byte[] padded = messages[group];
+        int start = lane * blocks * BLOCK_LEN;
+        int end = start + blocks * BLOCK_LEN;
+        message.get(padded, start, length);
+        padded[start + length] = (byte) 0x80;
+        Arrays.fill(padded, start + length + 1, end - 8, (byte) 0);
+        long bits = (long) length << 3;
+        for (int i = 0; i < 8; i++) {
+            padded[end - 1 - i] = (byte) (bits >>> (i * 8));
+        }
+        outs[group][lane] = out;
+        outOffsets[group][lane] = outOffset;
+        if (++counts[group] == LANES) {
+            compressGroup(group);
+        }
+    }
+
+    /**
+     * Compresses the groups that are not full and writes their digests.
+     */
+    void flush() {
+        for (int group = 0; group < MAX_BLOCKS; group++) {
+            if (counts[group] > 0) {
+                compressGroup(group);
+            }
+        }
+    }
+
+    private void compressGroup(int group) {
+        int blocks = group + 1;
+        int count = counts[group];
+        byte[] padded = messages[group];
+        for (int i = 0; i < 8; i++) {
+            Arrays.fill(state[i], 0, count, IV[i]);
+        }
+        for (int b = 0; b < blocks; b++) {
+            for (int l = 0; l < count; l++) {
+                int p = (l * blocks + b) * BLOCK_LEN;
+                for (int t = 0; t < 16; t++, p += 4) {
+                    w[t][l] = (padded[p] << 24) | (padded[p + 1] & 0xff) << 16
+                            | (padded[p + 2] & 0xff) << 8 | (padded[p + 3] & 0xff);
+                }
+            }
+            compress(count);
+        }
+        for (int l = 0; l < count; l++) {
+            byte[] out = outs[group][l];
+            int o = outOffsets[group][l];
+            for (int i = 0; i < 8; i++, o += 4) {
+                int v = state[i][l];
+                out[o] = (byte) (v >>> 24);
+                out[o + 1] = (byte) (v >>> 16);
+                out[o + 2] = (byte) (v >>> 8);
+                out[o + 3] = (byte) v;
+            }
+            outs[group][l] = null;
+        }
+        counts[group] = 0;
+    }
+
+    /**
+     * compresses the blocks in {@link #w} into {@link #state}, the first count lanes at once.
+     */
+    private void compress(int count) {
+        for (int t = 16; t < 64; t++) {
+            schedule(w[t], w[t - 2], w[t - 7], w[t - 15], w[t - 16], count);
+        }
+        for (int i = 0; i < 8; i++) {
+            System.arraycopy(state[i], 0, vars[i], 0, count);
+        }
+        int[] a = vars[0], b = vars[1], c = vars[2], d = vars[3], e = vars[4], f = vars[5], g = vars[6], h = vars[7];
+        for (int t = 0; t < 64; t++) {
+            round(a, b, c, d, e, f, g, h, K[t], w[t], count);
+            // rename: the new a was written to h, the new e to d.
+            int[] tmp = h;
+            h = g;
+            g = f;
+            f = e;
+            e = d;
+            d = c;
+            c = b;
+            b = a;
+            a = tmp;
+        }
+        // 64 renames bring the variables back to their arrays.
+        for (int i = 0; i < 8; i++) {
+            add(state[i], vars[i], count);
+        }
+    }
+
+    private static void schedule(int[] wt, int[] w2, int[] w7, int[] w15, int[] w16, int count) {
+        for (int l = 0; l < count; l++) {
+            int x = w2[l];
+            int y = w15[l];
+            wt[l] = (Integer.rotateRight(x, 17) ^ Integer.rotateRight(x, 19) ^ (x >>> 10)) + w7[l]
+                    + (Integer.rotateRight(y, 7) ^ Integer.rotateRight(y, 18) ^ (y >>> 3)) + w16[l];
+        }
+    }
+
+    private static void round(int[] a, int[] b, int[] c, int[] d, int[] e, int[] f, int[] g, int[] h, int k,
+                              int[] wt, int count) {
+        for (int l = 0; l < count; l++) {
+            int ve = e[l];
+            int va = a[l];
+            int vb = b[l];
+            int vc = c[l];
+            int t1 = h[l] + (Integer.rotateRight(ve, 6) ^ Integer.rotateRight(ve, 11) ^ Integer.rotateRight(ve, 25))
+                    + ((ve & f[l]) ^ (~ve & g[l])) + k + wt[l];
+            int t2 = (Integer.rotateRight(va, 2) ^ Integer.rotateRight(va, 13) ^ Integer.rotateRight(va, 22))
+                    + ((va & vb) ^ (va & vc) ^ (vb & vc));
+            d[l] += t1;
+            h[l] = t1 + t2;
+        }
+    }
+
+    private static void add(int[] x, int[] y, int count) {
+        for (int l = 0; l < count; l++) {
+            x[l] += y[l];
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashFrontier;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of the {@link StreamingFileHasher} after the last line of a file, kept in the signatures of append-only files.
+ * The lines appended to the file later on can be hashed on top of it, without hashing the signed lines again.
+ */
+final class AppendState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Frontier of the whole chunks of lines.
+     */
+    private final HashFrontier aggregated;
+    /**
+     * Frontier of the lines of the last chunk, which is not yet complete.
+     */
+    private final HashFrontier chunk;
+    /**
+     * Number of lines per chunk the file was hashed with, see {@link FileHasher#CHUNK_SIZE}.
+     */
+    private final int chunkSize;
+    /**
+     * Number of bytes of the file hashed, i.e. the size of the file when it was signed.
+     */
+    private final long byteCount;
+
+    /**
+     * @param aggregated see {@link #aggregated}, owned by this object from now on.
+     * @param chunk      see {@link #chunk}, owned by this object from now on.
+     * @param chunkSize  see {@link #chunkSize}
+     * @param byteCount  see {@link #byteCount}
+     */
+    AppendState(HashFrontier aggregated, HashFrontier chunk, int chunkSize, long byteCount) {
+        this.aggregated = aggregated;
+        this.chunk = chunk;
+        this.chunkSize = chunkSize;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * @return a copy of {@link #aggregated}.
+     */
+    HashFrontier getAggregated() {
+        return aggregated.copy();
+    }
+
+    /**
+     * @return a copy of {@link #chunk}.
+     */
+    HashFrontier getChunk() {
+        return chunk.copy();
+    }
+
+    /**
+     * @return the roots of the subtrees covering all the lines hashed, from the left. These are the largest nodes
+     *         that lie wholly within the hashed lines in the tree of the file with any number of lines appended.
+     */
+    List<IHash> getSubtreeRoots() {
+        List<IHash> roots = new ArrayList<>(aggregated.getSubtreeRoots());
+        roots.addAll(chunk.getSubtreeRoots());
+        return roots;
+    }
+
+    /**
+     * writes the two frontiers, see {@link HashFrontier#writeTo(DataOutput)}.
+     */
+    void writeFrontiers(DataOutput out) throws IOException {
+        aggregated.writeTo(out);
+        chunk.writeTo(out);
+    }
+
+    /**
+     * @return hash algorithm the file was hashed with.
+     */
+    String getHashAlgorithm() {
+        return aggregated.getHashAlgorithm();
+    }
+
+    /**
+     * @return see {@link #chunkSize}
+     */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return see {@link #byteCount}
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return number of lines hashed.
+     */
+    long getEventCount() {
+        return aggregated.getLeafCount() + chunk.getLeafCount();
+    }
+}
@@ -0,0 +1,152 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashProviders;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Constants and helpers of the compact binary encoding of the signatures and the hash chains, which replaces Java
+ * serialization (i.e. no class descriptors are written and the digests are of fixed length). A stream starts with a
+ * header and continues with the records one after the other (big-endian):
+ * <pre>
+ *     header:      magic | version | kind
+ *     signature:   algorithmId | flags | eventCount | root digest [ | chunkSize | byteCount | frontier | frontier ]
+ *     hash chain:  algorithmId | siblingCount | position bitmask | leaf digest | sibling digests | root digest
+ *     manifest:    algorithmId | fileCount | root digest | (path | signature) * fileCount
+ * </pre>
+ * The length of the digests follows from the algorithm id. An algorithm without an id of its own, i.e. one plugged in
+ * by a {@link ee.mboysan.signverify.hashing.HashProvider}, is written as {@link #NAMED_ALGORITHM} followed by its name
+ * in modified UTF-8. A record starts with a non-zero algorithm id, so the end of the stream is reached when no more
+ * bytes follow a record.
+ * <ul>
+ *     <li>The flags of a signature are {@link #ALLOW_APPEND} and {@link #HAS_APPEND_STATE}. The append state is
+ *     written only if the latter is set, the two frontiers being encoded by
+ *     {@link ee.mboysan.signverify.tree.HashFrontier#writeTo(DataOutput)}.</li>
+ *     <li>The position bitmask of a hash chain takes (siblingCount + 7) / 8 bytes, the bit
+ *     <code>0x80 &gt;&gt;&gt; (i % 8)</code> of the byte <code>i / 8</code> is set if the i-th sibling from the leaf is
+ *     on the left.</li>
+ *     <li>A manifest is a single record, see {@link Manifest}. The paths of the files are in modified UTF-8.</li>
+ * </ul>
+ */
+final class BinaryFormat {
+
+    /** "SVBF" */
+    static final int MAGIC = 0x53564246;
+    static final int VERSION = 1;
+
+    /** kinds of the records of a stream. */
+    static final int SIGNATURES = 1;
+    static final int HASH_CHAINS = 2;
+    static final int MANIFESTS = 3;
+
+    /** flags of a signature. */
+    static final int ALLOW_APPEND = 1;
+    static final int HAS_APPEND_STATE = 1 << 1;
+
+    /** algorithms by their ids, 0 is not used. */
+    private static final String[] ALGORITHMS = {null, "SHA-256", "SHA-1", "MD5", "SHA-512/256", "SHA3-256", "BLAKE3"};
+
+    /** id of the algorithms that are written by their name. */
+    static final int NAMED_ALGORITHM = 0xFF;
+
+    /** first two bytes of a Java serialization stream, i.e. of the files written by older versions. */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * @return the id of the hash algorithm, {@link #NAMED_ALGORITHM} if it has none.
+     * @throws IllegalArgumentException if the algorithm is not supported.
+     */
+    static int algorithmId(String hashAlgorithm) {
+        for (int id = 1; id < ALGORITHMS.length; id++) {
+            if (ALGORITHMS[id].equals(hashAlgorithm)) {
+                return id;
+            }
+        }
+        if (HashProviders.isSupported(hashAlgorithm)) {
+            return NAMED_ALGORITHM;
+        }
+        throw new IllegalArgumentException("Hash algorithm not recognized: " + hashAlgorithm);
+    }
+
+    /**
+     * @return the hash algorithm of the id.
+     * @throws IOException if the id is not of an algorithm.
+     */
+    static String algorithm(int id) throws IOException {
+        if (id <= 0 || id >= ALGORITHMS.length) {
+            throw new IOException("Unknown hash algorithm id: " + id);
+        }
+        return ALGORITHMS[id];
+    }
+
+    /**
+     * Writes the id of the hash algorithm, followed by its name if it has no id.
+     * @throws IllegalArgumentException if the algorithm is not supported.
+     * @throws IOException if writing fails.
+     */
+    static void writeAlgorithm(DataOutput out, String hashAlgorithm) throws IOException {
+        int id = algorithmId(hashAlgorithm);
+        out.writeByte(id);
+        if (id == NAMED_ALGORITHM) {
+            out.writeUTF(hashAlgorithm);
+        }
+    }
+
+    /**
+     * Reads the rest of the hash algorithm whose id is already read, see {@link #writeAlgorithm(DataOutput, String)}.
+     * @return the hash algorithm.
+     * @throws IOException if reading fails or the algorithm is not known.
+     */
+    static String readAlgorithm(DataInput in, int id) throws IOException {
+        if (id != NAMED_ALGORITHM) {
+            return algorithm(id);
+        }
+        String hashAlgorithm = in.readUTF();
+        if (!HashProviders.isSupported(hashAlgorithm)) {
+            throw new IOException("Hash algorithm not available: " + hashAlgorithm);
+        }
+        return hashAlgorithm;
+    }
+
+    static void writeHeader(DataOutput out, int kind) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(kind);
+    }
+
+    /**
+     * @throws IOException if the header is not of a stream of the kind.
+     */
+    static void readHeader(DataInput in, int kind) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a signverify binary stream.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Binary format version not supported: " + version);
+        }
+        int actual = in.readUnsignedByte();
+        if (actual != kind) {
+            throw new IOException("Unexpected kind of records: " + actual + ", expected: " + kind);
+        }
+    }
+
+    /**
+     * Checks if the stream is written by Java serialization, i.e. by an older version, without consuming it.
+     * @param in stream supporting marks.
+     * @return true if the stream starts with the magic of Java serialization.
+     * @throws IOException if reading fails.
+     */
+    static boolean isSerialized(InputStream in) throws IOException {
+        in.mark(2);
+        int magic = (in.read() << 8) | in.read();
+        in.reset();
+        return magic == SERIALIZATION_MAGIC;
+    }
+}
@@ -0,0 +1,244 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.SubtreeHasher;
+import ee.mboysan.signverify.tree.TreeShape;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Proof that a log only grew between two of its signatures, i.e. that the tree of the first eventCount lines (the old
+ * signature) is a prefix of the tree of all the lines (the new signature), in the spirit of the consistency proofs of
+ * RFC 6962.
+ * <p>
+ * The shape of the tree only depends on the number of lines and the chunk size (see {@link TreeShape}). The proof
+ * holds the hashes of the largest nodes of the new tree that lie wholly before or after the old event count, in order.
+ * The nodes before it are exactly the nodes the old root is built from, so the verifier rebuilds both roots from the
+ * same hashes, which only needs the two roots and a number of hashes logarithmic in the number of lines.
+ */
+public class ConsistencyProof implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Event count of the old signature.
+     */
+    private final long oldEventCount;
+    /**
+     * Event count of the new signature.
+     */
+    private final long newEventCount;
+    /**
+     * Number of lines per chunk the file was hashed with, see {@link FileHasher#CHUNK_SIZE}.
+     */
+    private final int chunkSize;
+    /**
+     * Hash algorithm used when creating the hashes.
+     */
+    private final String hashAlgorithm;
+    /**
+     * Hashes of the nodes of the new tree split at the old event count, in order.
+     */
+    private final List<IHash> hashes;
+
+    /**
+     * @param oldEventCount see {@link #oldEventCount}
+     * @param newEventCount see {@link #newEventCount}
+     * @param chunkSize see {@link #chunkSize}
+     * @param hashAlgorithm see {@link #hashAlgorithm}
+     * @param hashes see {@link #hashes}
+     */
+    ConsistencyProof(long oldEventCount, long newEventCount, int chunkSize, String hashAlgorithm, List<IHash> hashes) {
+        this.oldEventCount = oldEventCount;
+        this.newEventCount = newEventCount;
+        this.chunkSize = chunkSize;
+        this.hashAlgorithm = hashAlgorithm;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Creates the proof that the file with the newer signature is the file with the older signature with lines
+     * appended to it. If the older signature keeps the state of the hashing (i.e. created with allowAppend set), the
+     * hashes of the signed lines are taken from it and only the appended lines are hashed, otherwise the whole file
+     * is hashed.
+     * @param older signature of the file before the lines were appended.
+     * @param newer signature of the file with the lines appended.
+     * @param file  the file of the newer signature.
+     * @return the proof.
+     * @throws FileHashingFailedException if the file does not match the signatures.
+     * @throws Exception if hashing the file fails.
+     */
+    static ConsistencyProof create(Signature older, Signature newer, File file) throws Exception {
+        String hashAlgorithm = newer.getHashAlgorithm();
+        long oldEventCount = older.getEventCount();
+        long newEventCount = newer.getEventCount();
+        if (!hashAlgorithm.equals(older.getHashAlgorithm()) || oldEventCount > newEventCount) {
+            throw new IllegalArgumentException("Signatures are not of the same growing log: " + older + ", " + newer);
+        }
+        int chunkSize = chunkSizeOf(newer);
+        if (older.getAppendState() != null && older.getAppendState().getChunkSize() != chunkSize) {
+            throw new IllegalArgumentException("Signatures are created with different chunk sizes: " + older + ", "
+                    + newer);
+        }
+        ConsistencyProof proof;
+        if (oldEventCount == newEventCount) {
+            proof = new ConsistencyProof(oldEventCount, newEventCount, chunkSize, hashAlgorithm,
+                    Collections.emptyList());
+        } else {
+            List<TreeShape.Node> nodes = new TreeShape(newEventCount, chunkSize).split(oldEventCount);
+            proof = new ConsistencyProof(oldEventCount, newEventCount, chunkSize, hashAlgorithm,
+                    hashNodes(older, newer, file, nodes));
+        }
+        if (!proof.verify(older.getFileHash(), newer.getFileHash())) {
+            throw new FileHashingFailedException("File does not match the signatures: " + file);
+        }
+        return proof;
+    }
+
+    private static List<IHash> hashNodes(Signature older, Signature newer, File file, List<TreeShape.Node> nodes)
+            throws Exception {
+        List<IHash> hashes = new ArrayList<>();
+        int oldNodeCount = oldNodeCount(nodes, older.getEventCount());
+        long from = 0;
+        long to = newer.getAppendState() != null ? newer.getAppendState().getByteCount() : file.length();
+        AppendState state = older.getAppendState();
+        if (state != null && state.getSubtreeRoots().size() == oldNodeCount) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                from = StreamingFileHasher.resumeOffset(channel, state, to);
+            }
+            if (from < 0) {
+                throw new FileHashingFailedException("The signed lines of the file were modified: " + file);
+            }
+            hashes.addAll(state.getSubtreeRoots());
+            nodes = nodes.subList(oldNodeCount, nodes.size());
+        }
+        SubtreeHasher hasher = new SubtreeHasher(older.getHashAlgorithm(), nodes);
+        MappedLineScanner.scan(file, from, to, (window, start, end) -> {
+            if (!hasher.isDone()) {
+                window.limit(end);
+                window.position(start);
+                hasher.appendEvent(window);
+            }
+        });
+        if (!hasher.isDone()) {
+            throw new FileHashingFailedException("File has less lines than signed: " + file);
+        }
+        hashes.addAll(hasher.getHashes());
+        return hashes;
+    }
+
+    private static int chunkSizeOf(Signature signature) {
+        return signature.getAppendState() != null ? signature.getAppendState().getChunkSize() : FileHasher.CHUNK_SIZE;
+    }
+
+    /**
+     * @return number of the nodes before the old event count.
+     */
+    private static int oldNodeCount(List<TreeShape.Node> nodes, long oldEventCount) {
+        int count = 0;
+        while (count < nodes.size() && nodes.get(count).getEnd() <= oldEventCount) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Verifies the proof with only the roots of the two signatures, i.e. without the file.
+     * @param oldRoot root hash of the old signature.
+     * @param newRoot root hash of the new signature.
+     * @return true if the tree of the old root is a prefix of the tree of the new root, false otherwise.
+     * @throws Exception if merging the hashes fails.
+     */
+    public boolean verify(IHash oldRoot, IHash newRoot) throws Exception {
+        if (oldEventCount <= 0 || oldEventCount > newEventCount) {
+            return false;
+        }
+        if (oldEventCount == newEventCount) {
+            return hashes.isEmpty() && oldRoot.equals(newRoot);
+        }
+        List<TreeShape.Node> nodes = new TreeShape(newEventCount, chunkSize).split(oldEventCount);
+        if (nodes.size() != hashes.size()) {
+            return false;
+        }
+        int oldNodeCount = oldNodeCount(nodes, oldEventCount);
+        TreeShape.Node oldTree = new TreeShape(oldEventCount, chunkSize).getRoot();
+        IHash oldHash = rootOf(oldTree, nodes.subList(0, oldNodeCount), hashes.subList(0, oldNodeCount));
+        IHash newHash = rootOf(new TreeShape(newEventCount, chunkSize).getRoot(), nodes, hashes);
+        return oldRoot.equals(oldHash) && newRoot.equals(newHash);
+    }
+
+    /**
+     * @return the root hash of the tree built from the hashes of the given nodes covering the tree, null if the nodes
+     *         do not cover the tree.
+     */
+    private static IHash rootOf(TreeShape.Node tree, List<TreeShape.Node> nodes, List<IHash> hashes)
+            throws Exception {
+        int[] next = {0};
+        IHash root = rootOf(tree, nodes, hashes, next);
+        return next[0] == nodes.size() ? root : null;
+    }
+
+    private static IHash rootOf(TreeShape.Node node, List<TreeShape.Node> nodes, List<IHash> hashes, int[] next)
+            throws Exception {
+        if (next[0] == nodes.size()) {
+            return null;
+        }
+        TreeShape.Node cover = nodes.get(next[0]);
+        if (cover.getStart() == node.getStart() && cover.getEnd() == node.getEnd()) {
+            return hashes.get(next[0]++);
+        }
+        if (node.isLeaf()) {
+            return null;
+        }
+        IHash left = rootOf(node.getLeft(), nodes, hashes, next);
+        IHash right = left != null ? rootOf(node.getRight(), nodes, hashes, next) : null;
+        return right != null ? HashUtils.mergeHashes(left, right) : null;
+    }
+
+    /**
+     * @return see {@link #oldEventCount}
+     */
+    public long getOldEventCount() {
+        return oldEventCount;
+    }
+
+    /**
+     * @return see {@link #newEventCount}
+     */
+    public long getNewEventCount() {
+        return newEventCount;
+    }
+
+    /**
+     * @return see {@link #hashAlgorithm}
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return see {@link #hashes}
+     */
+    public List<IHash> getHashes() {
+        return Collections.unmodifiableList(hashes);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistencyProof{" +
+                "oldEventCount=" + oldEventCount +
+                ", newEventCount=" + newEventCount +
+                ", chunkSize=" + chunkSize +
+                ", hashAlgorithm='" + hashAlgorithm + '\'' +
+                ", hashes=" + hashes +
+                '}';
+    }
+}
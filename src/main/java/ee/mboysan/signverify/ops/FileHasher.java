@@ -5,13 +5,12 @@ import ee.mboysan.signverify.hashing.HashUtils;
 import ee.mboysan.signverify.hashing.IHash;
 import ee.mboysan.signverify.tree.HashTree;
 import ee.mboysan.signverify.tree.HashTreeAggregator;
+import ee.mboysan.signverify.tree.RawEvents;
+import ee.mboysan.signverify.tree.Workers;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Stream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 public class FileHasher {
 
@@ -28,6 +27,11 @@ public class FileHasher {
      * file to create a consistent hash tree.
      */
     private final int prevEventCount;
+    /**
+     * Hash of the first {@link #prevEventCount} lines, i.e. the root of the subtree the rest of the file is appended
+     * to. Null if the file has fewer lines.
+     */
+    private IHash prevEventsHash;
 
     /**
      * @see FileHasher#FileHasher(File, int, String)
@@ -50,40 +54,50 @@ public class FileHasher {
      * @throws Exception if a problem occurs when creating a hash tree for the file.
      */
     public FileHasher(File file, int prevEventCount, String hashAlgorithm) throws Exception {
+        this(file, prevEventCount, hashAlgorithm, Workers.defaultExecutor());
+    }
+
+    /**
+     * @param file file to create a hash tree.
+     * @param prevEventCount see {@link #prevEventCount}.
+     * @param hashAlgorithm hash algorithm to use for building the hash tree.
+     * @param executor executor to build the subtrees of the chunks on, see {@link Workers}.
+     * @throws Exception if a problem occurs when creating a hash tree for the file.
+     */
+    public FileHasher(File file, int prevEventCount, String hashAlgorithm, Executor executor) throws Exception {
         this.prevEventCount = prevEventCount;
-        fileHashTree = hashFile(file, hashAlgorithm);
+        fileHashTree = hashFile(file, hashAlgorithm, executor);
     }
 
     /**
-     * creates a hash tree from the given file and hash algorithm
+     * creates a hash tree from the given file and hash algorithm. The lines are not decoded, their raw bytes are
+     * hashed (see {@link MappedLineScanner}).
      */
-    private HashTree hashFile(File file, String hashAlgorithm) throws Exception {
-        try(Stream<String> lines = Files.lines(file.toPath());
-            HashTreeAggregator hta = new HashTreeAggregator(hashAlgorithm)) {
+    private HashTree hashFile(File file, String hashAlgorithm, Executor executor) throws Exception {
+        try(HashTreeAggregator hta = new HashTreeAggregator(hashAlgorithm, executor)) {
 
             EventCollector collector = new EventCollector(CHUNK_SIZE);
-            AtomicInteger lineN = new AtomicInteger(0);
-            lines.forEach(line -> {
-                try {
-                    collector.append(line);
-                    if (lineN.incrementAndGet() == prevEventCount) {
+            long lineCount = MappedLineScanner.scan(file, new MappedLineScanner.LineHandler() {
+                long lineN = 0;
+                @Override
+                public void onLine(ByteBuffer window, int start, int end) throws Exception {
+                    collector.append(window, start, end);
+                    if (++lineN == prevEventCount) {
                         /* aggregate the events remaining dangling formed from the previous file
                            and the current aggregation and continue. */
-                        hta.aggregateEvents(collector.collectAndReset());
-                        hta.endAggregation();
+                        hta.aggregateRawEvents(collector.collectAndReset());
+                        prevEventsHash = hta.endAggregation().getAggregatedTree().getRoot().getHash();
                     }
                     if (collector.canCollect()) {
-                        hta.aggregateEvents(collector.collectAndReset());
+                        hta.aggregateRawEvents(collector.collectAndReset());
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
                 }
             });
-            if (lineN.get() == 0) {
+            if (lineCount == 0) {
                 throw new FileHashingFailedException("Cannot hash a file with empty content");
             }
             if (collector.hasRemaining()) {
-                hta.aggregateEvents(collector.collectAndReset());
+                hta.aggregateRawEvents(collector.collectAndReset());
             }
             return hta.endAggregation().getAggregatedTree();
         }
@@ -93,14 +107,15 @@ public class FileHasher {
      * A helper class for collecting events based on the {@link #CHUNK_SIZE}.
      */
     private static class EventCollector {
-        List<String> lines = new ArrayList<>();
+        RawEvents lines;
         boolean canCollect = false;
         final int chunkSize;
         EventCollector(int chunkSize) {
             this.chunkSize = chunkSize;
+            this.lines = new RawEvents(chunkSize);
         }
-        void append(String event) {
-            lines.add(event);
+        void append(ByteBuffer window, int start, int end) {
+            lines.add(window, start, end);
             canCollect = lines.size() >= chunkSize;
         }
         boolean canCollect() {
@@ -109,9 +124,9 @@ public class FileHasher {
         boolean hasRemaining() {
             return lines.size() > 0 && lines.size() <= chunkSize;
         }
-        List<String> collectAndReset() {
-            List<String> toCollect = lines;
-            lines = new ArrayList<>();
+        RawEvents collectAndReset() {
+            RawEvents toCollect = lines;
+            lines = new RawEvents(chunkSize);
             canCollect = false;
             return toCollect;
         }
@@ -124,6 +139,13 @@ public class FileHasher {
         return getFileHashTree().getRoot().getHash();
     }
 
+    /**
+     * @return see {@link #prevEventsHash}.
+     */
+    public IHash getPrevEventsHash() {
+        return prevEventsHash;
+    }
+
     /**
      * @return {@link #fileHashTree}.
      */
@@ -0,0 +1,67 @@
+package ee.mboysan.signverify.ops;
+
+/**
+ * The result of verifying a file of a {@link Manifest}, see
+ * {@link SignVerify#verifyAll(Manifest, java.io.File, int, boolean, java.util.function.Consumer)}.
+ */
+public final class FileVerification {
+
+    /**
+     * Outcome of the verification of a file.
+     */
+    public enum Status {
+        /** the file matches its signature. */
+        VERIFIED,
+        /** the file does not match its signature, i.e. it was modified. */
+        FAILED,
+        /** the file does not exist. */
+        MISSING,
+        /** the file could not be verified, e.g. it could not be read. */
+        ERROR
+    }
+
+    private final String path;
+    private final Status status;
+    /** the problem found while hashing the file, if any. */
+    private final Exception error;
+
+    FileVerification(String path, Status status, Exception error) {
+        this.path = path;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * @return path of the file as in the manifest.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return outcome of the verification.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the file matches its signature.
+     */
+    public boolean isVerified() {
+        return status == Status.VERIFIED;
+    }
+
+    /**
+     * @return the problem that prevented verifying the file for an {@link Status#ERROR}, the reason of a
+     *         {@link Status#FAILED} found while hashing the file (e.g. the file is empty), null otherwise.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return status + " " + path + (error != null ? " (" + error + ")" : "");
+    }
+}
@@ -0,0 +1,165 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.hashing.ProofVerifier;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the hash chains written by {@link HashChainWriter} one after the other. Besides {@link #read()}, which creates
+ * the hash objects of a chain, the raw digests of the current chain can be accessed after {@link #next()} without any
+ * allocation, i.e. the buffers are reused for all the chains of the stream.
+ * <b>NB! </b> not thread safe.
+ */
+public final class HashChainReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private String hashAlgorithm;
+    private HashEngine engine;
+    private int digestLength;
+    private int siblingCount;
+    /** position bitmask of the current chain, see {@link BinaryFormat}. */
+    private byte[] mask = new byte[16];
+    /** leaf, sibling and root digests of the current chain, one after the other. */
+    private byte[] digests = new byte[0];
+
+    /**
+     * Reads the header of the stream.
+     * @param in stream to read from, closed along with the reader.
+     * @throws IOException if reading fails or the stream is not of hash chains.
+     */
+    public HashChainReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+        BinaryFormat.readHeader(this.in, BinaryFormat.HASH_CHAINS);
+    }
+
+    /**
+     * Reads the next chain into the buffers of the reader.
+     * @return false at the end of the stream.
+     * @throws IOException if reading fails or the stream is corrupted.
+     */
+    public boolean next() throws IOException {
+        int algorithmId = in.read();
+        if (algorithmId < 0) {
+            return false;
+        }
+        String algorithm = BinaryFormat.readAlgorithm(in, algorithmId);
+        if (!algorithm.equals(hashAlgorithm)) {
+            try {
+                engine = HashEngine.forAlgorithm(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            digestLength = engine.getDigestLength();
+            hashAlgorithm = algorithm;
+        }
+        siblingCount = in.readUnsignedShort();
+        int maskLength = (siblingCount + 7) / 8;
+        if (mask.length < maskLength) {
+            mask = new byte[maskLength];
+        }
+        in.readFully(mask, 0, maskLength);
+        int length = (siblingCount + 2) * digestLength;
+        if (digests.length < length) {
+            digests = new byte[Math.max(length, 2 * digests.length)];
+        }
+        in.readFully(digests, 0, length);
+        return true;
+    }
+
+    /**
+     * Reads the next chain and creates its hash objects.
+     * @return the hash chain in the format [leafHash, [c1,[c2,...]], rootHash], null at the end of the stream.
+     * @throws IOException if reading fails or the stream is corrupted.
+     */
+    public List<IHash> read() throws IOException {
+        return next() ? toHashChain() : null;
+    }
+
+    /**
+     * @return the hash objects of the current chain, in the format [leafHash, [c1,[c2,...]], rootHash].
+     */
+    public List<IHash> toHashChain() {
+        List<IHash> hashes = new ArrayList<>(siblingCount + 2);
+        for (int i = 0; i < siblingCount + 2; i++) {
+            IHash hash = HashUtils.createHashFromDigest(digests, i * digestLength, digestLength, hashAlgorithm);
+            if (i > 0 && i <= siblingCount) {
+                hash.setPosition(isLeft(i - 1) ? IHash.Position.LEFT : IHash.Position.RIGHT);
+            }
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * @return hash algorithm of the current chain.
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return length of the digests of the current chain.
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * @return number of siblings of the current chain, i.e. without the leaf and the root.
+     */
+    public int getSiblingCount() {
+        return siblingCount;
+    }
+
+    /**
+     * @return the buffer holding the digests of the current chain, one after the other: the leaf, the siblings from
+     *         the leaf and the root. The buffer is reused by the next chain.
+     */
+    public byte[] getDigests() {
+        return digests;
+    }
+
+    /**
+     * @param sibling index of the sibling from the leaf.
+     * @return true if the sibling is on the left, i.e. it is merged with the hash calculated so far on its left side.
+     */
+    public boolean isLeft(int sibling) {
+        return (mask[sibling >>> 3] & (0x80 >>> (sibling & 7))) != 0;
+    }
+
+    /**
+     * @return the position bitmask of the current chain, see {@link ProofVerifier}. The buffer is reused by the next
+     *         chain.
+     */
+    public byte[] getPositionMask() {
+        return mask;
+    }
+
+    /**
+     * Verifies the current chain against the expected root without any allocation, see {@link ProofVerifier}. The
+     * root written in the chain is not used.
+     * @param root    the expected root digest, e.g. the one of a signature.
+     * @param scratch buffer of at least {@link #getDigestLength()} bytes to compute the root in.
+     * @return true if the leaf and the siblings of the chain lead to the root, false otherwise.
+     */
+    public boolean verify(byte[] root, byte[] scratch) {
+        return root.length == digestLength && ProofVerifier.verify(engine, digests, 0, digests, digestLength,
+                siblingCount, mask, root, 0, scratch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
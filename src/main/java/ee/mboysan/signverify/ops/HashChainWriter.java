@@ -0,0 +1,89 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes hash chains one after the other in the compact binary encoding of {@link BinaryFormat}, to be read with
+ * {@link HashChainReader}. The output is buffered, so the writer has to be flushed or closed.
+ * <b>NB! </b> not thread safe.
+ */
+public final class HashChainWriter implements Closeable, Flushable {
+
+    private final DataOutputStream out;
+    /** position bitmask, reused for all the chains. */
+    private byte[] mask = new byte[16];
+
+    /**
+     * Writes the header of the stream.
+     * @param out stream to write to, closed along with the writer.
+     * @throws IOException if writing fails.
+     */
+    public HashChainWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        BinaryFormat.writeHeader(this.out, BinaryFormat.HASH_CHAINS);
+    }
+
+    /**
+     * @param hashChain hash chain in the format [leafHash, [c1,[c2,...]], rootHash], as extracted from a hash tree.
+     * @param hashAlgorithm hash algorithm of the hashes.
+     * @throws IllegalArgumentException if the chain has no leaf and root, or the hash algorithm is not supported.
+     * @throws IOException if writing fails.
+     */
+    public void write(List<IHash> hashChain, String hashAlgorithm) throws IOException {
+        if (hashChain.size() < 2) {
+            throw new IllegalArgumentException("A hash chain has at least the leaf and the root: " + hashChain);
+        }
+        int siblingCount = hashChain.size() - 2;
+        if (siblingCount > 0xffff) {
+            throw new IllegalArgumentException("Hash chain is too long: " + siblingCount);
+        }
+        int maskLength = (siblingCount + 7) / 8;
+        if (mask.length < maskLength) {
+            mask = new byte[maskLength];
+        }
+        Arrays.fill(mask, 0, maskLength, (byte) 0);
+        for (int i = 0; i < siblingCount; i++) {
+            if (hashChain.get(i + 1).getPosition() != IHash.Position.RIGHT) {
+                mask[i >>> 3] |= 0x80 >>> (i & 7);
+            }
+        }
+        int digestLength;
+        try {
+            digestLength = HashEngine.forAlgorithm(hashAlgorithm).getDigestLength();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Hash algorithm not recognized: " + hashAlgorithm, e);
+        }
+        for (IHash hash : hashChain) {
+            if (HashUtils.digestLength(hash) != digestLength) {
+                throw new IllegalArgumentException("Digest length does not match the hash algorithm: " + hash);
+            }
+        }
+        BinaryFormat.writeAlgorithm(out, hashAlgorithm);
+        out.writeShort(siblingCount);
+        out.write(mask, 0, maskLength);
+        for (IHash hash : hashChain) {
+            HashUtils.writeDigest(hash, out);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,195 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.TreeConstructionFailedException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashFrontier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The signatures of a set of files, e.g. of the log files of a directory, along with a root hash over all of them.
+ * The root is the root of the tree with a leaf per file in the order of their paths, so the whole set can be vouched
+ * for by publishing (or timestamping) a single hash. The leaf of a file is the hash of its path and the root hash of
+ * its signature, <code>H(length | path | file root)</code> with the length of the path in bytes as 4 bytes big-endian
+ * and the path in UTF-8, so the root also vouches for which contents belong to which file.
+ * <p>
+ * The paths are relative to a base directory, e.g. the directory the files were listed from, with '/' as the separator.
+ * The manifest is written in the binary format, see {@link BinaryFormat}.
+ */
+public final class Manifest {
+
+    /**
+     * A file of the manifest with its signature.
+     */
+    public static final class Entry {
+
+        private final String path;
+        private final Signature signature;
+
+        Entry(String path, Signature signature) {
+            this.path = path;
+            this.signature = signature;
+        }
+
+        /**
+         * @return path of the file, relative to the base directory.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return signature of the file.
+         */
+        public Signature getSignature() {
+            return signature;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + signature;
+        }
+    }
+
+    private final String hashAlgorithm;
+    /** sorted by the paths. */
+    private final List<Entry> entries;
+    private final IHash root;
+
+    /**
+     * @param hashAlgorithm hash algorithm of the signatures.
+     * @param entries       files with their signatures, in any order.
+     * @throws IllegalArgumentException if there are no entries, a path is repeated or a signature is not of the
+     *                                  algorithm.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     * @throws TreeConstructionFailedException if calculating the root fails.
+     */
+    Manifest(String hashAlgorithm, List<Entry> entries) throws NoSuchAlgorithmException,
+            TreeConstructionFailedException {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("No files in the manifest.");
+        }
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::getPath));
+        HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+        HashFrontier frontier = new HashFrontier(hashAlgorithm);
+        for (int i = 0; i < sorted.size(); i++) {
+            Entry entry = sorted.get(i);
+            if (i > 0 && entry.getPath().equals(sorted.get(i - 1).getPath())) {
+                throw new IllegalArgumentException("File repeated in the manifest: " + entry.getPath());
+            }
+            if (!hashAlgorithm.equals(entry.getSignature().getHashAlgorithm())) {
+                throw new IllegalArgumentException("Signature not of " + hashAlgorithm + ": " + entry);
+            }
+            frontier.appendLeafDigest(leafDigest(engine, entry), 0);
+        }
+        this.hashAlgorithm = hashAlgorithm;
+        this.entries = Collections.unmodifiableList(sorted);
+        this.root = frontier.getRoot();
+    }
+
+    /**
+     * @return the digest of the leaf of the entry, see {@link Manifest}.
+     */
+    private static byte[] leafDigest(HashEngine engine, Entry entry) {
+        byte[] path = entry.getPath().getBytes(StandardCharsets.UTF_8);
+        byte[] fileRoot = entry.getSignature().getFileHash().toByteArray();
+        ByteBuffer leaf = ByteBuffer.allocate(Integer.BYTES + path.length + fileRoot.length);
+        leaf.putInt(path.length).put(path).put(fileRoot);
+        return engine.hash(leaf.array());
+    }
+
+    /**
+     * @return hash algorithm of the signatures and the root.
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return the files with their signatures, sorted by their paths.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the root hash over the paths and the signatures of all the files.
+     */
+    public IHash getRoot() {
+        return root;
+    }
+
+    /**
+     * Writes the manifest in the binary format.
+     * @param out stream to write to, not closed.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        BinaryFormat.writeHeader(data, BinaryFormat.MANIFESTS);
+        BinaryFormat.writeAlgorithm(data, hashAlgorithm);
+        data.writeInt(entries.size());
+        HashUtils.writeDigest(root, data);
+        for (Entry entry : entries) {
+            data.writeUTF(entry.getPath());
+            SignatureWriter.writeRecord(data, entry.getSignature());
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a manifest written by {@link #writeTo(OutputStream)}.
+     * @param in stream to read from, not closed.
+     * @return the manifest.
+     * @throws IOException if reading fails, the stream is not of a manifest or the root does not match the
+     *                     signatures.
+     */
+    public static Manifest readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(
+                in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+        BinaryFormat.readHeader(data, BinaryFormat.MANIFESTS);
+        String hashAlgorithm = BinaryFormat.readAlgorithm(data, data.readUnsignedByte());
+        int count = data.readInt();
+        try {
+            byte[] digest = new byte[HashEngine.forAlgorithm(hashAlgorithm).getDigestLength()];
+            data.readFully(digest);
+            List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int i = 0; i < count; i++) {
+                String path = data.readUTF();
+                entries.add(new Entry(path, SignatureReader.readRecord(data, data.readUnsignedByte())));
+            }
+            Manifest manifest = new Manifest(hashAlgorithm, entries);
+            if (!manifest.getRoot().equals(HashUtils.createHashFromDigest(digest, hashAlgorithm))) {
+                throw new IOException("Root of the manifest does not match its signatures.");
+            }
+            return manifest;
+        } catch (NoSuchAlgorithmException | TreeConstructionFailedException | IllegalArgumentException e) {
+            throw new IOException("Corrupted manifest.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Manifest{" +
+                "fileCount=" + entries.size() +
+                ", root=" + root +
+                ", hashAlgorithm='" + hashAlgorithm + '\'' +
+                '}';
+    }
+}
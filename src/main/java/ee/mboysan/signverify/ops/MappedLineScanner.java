@@ -0,0 +1,155 @@
+package ee.mboysan.signverify.ops;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a file into lines without decoding it. The file is memory-mapped window by window and the line terminators
+ * are searched on the raw bytes, so the lines are handed out as byte ranges of the mapped window instead of strings.
+ * <p>
+ * The lines are the same as of {@link java.io.BufferedReader#readLine()}, i.e. a line is terminated by any one of
+ * <code>\n</code>, <code>\r</code> or <code>\r\n</code>, or by the end of the file. Since UTF-8 decoding followed by
+ * encoding gives back the same bytes for valid UTF-8 input, hashing the raw bytes of a line gives the same hash as
+ * hashing the decoded line. Unlike decoding, malformed input is not rejected but hashed as it is.
+ */
+class MappedLineScanner {
+
+    /**
+     * Default number of bytes to map at once. A window is enlarged for lines that do not fit in it.
+     */
+    static int WINDOW_SIZE = 1 << 26;
+
+    /**
+     * Receives the lines of the file in order.
+     */
+    interface LineHandler {
+        /**
+         * @param window view of the mapped window containing the line. The same view is passed for all the lines of
+         *               the window, its position and limit may be changed by the handler.
+         * @param start  index of the first byte of the line in the window.
+         * @param end    index after the last byte of the line (excluding the terminator) in the window.
+         * @throws Exception to stop the scanning.
+         */
+        void onLine(ByteBuffer window, int start, int end) throws Exception;
+
+        /**
+         * Called before the lines of a window are handed out, e.g. to find the offsets of the lines in the file.
+         * @param offset offset of the first byte of the window in the file.
+         * @throws Exception to stop the scanning.
+         */
+        default void onWindow(long offset) throws Exception {
+        }
+    }
+
+    private MappedLineScanner() {
+    }
+
+    /**
+     * Finds the beginning of the first line that starts at or after the given position, e.g. to split a file into
+     * ranges of whole lines.
+     * @param channel  channel of the file.
+     * @param position position to start searching from.
+     * @return offset of the line start, or the size of the file if no line starts after the position.
+     * @throws IOException if the file cannot be read.
+     */
+    static long lineStartFrom(FileChannel channel, long position) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        // a line starts right after a terminator, so start with the byte before the position.
+        long offset = position - 1;
+        boolean afterCr = false;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (afterCr) {
+                    return b == '\n' ? offset + i + 1 : offset + i;
+                }
+                if (b == '\n') {
+                    return offset + i + 1;
+                }
+                afterCr = b == '\r';
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Scans the whole file.
+     * @see #scan(File, long, long, LineHandler)
+     */
+    static long scan(File file, LineHandler handler) throws Exception {
+        return scan(file, 0, file.length(), handler);
+    }
+
+    /**
+     * Scans the lines in the given byte range of the file. The range is assumed to start at the beginning of a line.
+     * If it ends in the middle of a line, that part is handed out as the last line.
+     * @param file    file to scan.
+     * @param from    offset of the first byte to scan.
+     * @param to      offset after the last byte to scan.
+     * @param handler handler for the lines.
+     * @return number of lines scanned.
+     * @throws Exception if the file cannot be read or the handler fails.
+     */
+    static long scan(File file, long from, long to, LineHandler handler) throws Exception {
+        long lineCount = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int windowSize = WINDOW_SIZE;
+            long windowStart = from;
+            while (windowStart < to) {
+                int size = (int) Math.min(windowSize, to - windowStart);
+                boolean last = windowStart + size == to;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+                ByteBuffer view = window.duplicate();
+                handler.onWindow(windowStart);
+                int lineStart = 0;
+                int i = 0;
+                while (i < size) {
+                    byte b = window.get(i);
+                    if (b == '\n' || b == '\r') {
+                        if (b == '\r' && i + 1 == size && !last) {
+                            // cannot tell if it is followed by '\n', scan the line again with the next window.
+                            break;
+                        }
+                        handler.onLine(view, lineStart, i);
+                        lineCount++;
+                        if (b == '\r' && i + 1 < size && window.get(i + 1) == '\n') {
+                            i++;
+                        }
+                        lineStart = i + 1;
+                    }
+                    i++;
+                }
+                if (last) {
+                    if (lineStart < size) {
+                        handler.onLine(view, lineStart, size);
+                        lineCount++;
+                    }
+                    break;
+                }
+                if (lineStart == 0) {
+                    // the line does not fit in the window.
+                    if (windowSize == Integer.MAX_VALUE) {
+                        throw new IOException("Line too long at offset " + windowStart + " of file " + file);
+                    }
+                    windowSize = (int) Math.min(2L * windowSize, Integer.MAX_VALUE);
+                }
+                windowStart += lineStart;
+            }
+        }
+        return lineCount;
+    }
+}
@@ -0,0 +1,313 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.SubtreeHasher;
+import ee.mboysan.signverify.tree.TreeShape;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inclusion proof of many events at once. Instead of a hash chain per event, the proof holds the hashes of the nodes
+ * needed to rebuild the root from the leaves of all the events, so a node shared by the hash chains of many events
+ * appears only once, and the nodes that can be calculated from the leaves are left out altogether.
+ * <p>
+ * The shape of the tree only depends on the number of lines and the chunk size (see {@link TreeShape}), so the nodes
+ * are identified by the leaf indices of the events. The proof nodes are the largest nodes that contain none of the
+ * leaves, in order, which along with the leaves cover the whole tree.
+ */
+public class MultiProof implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of lines of the file.
+     */
+    private final long eventCount;
+    /**
+     * Number of lines per chunk the file was hashed with, see {@link FileHasher#CHUNK_SIZE}.
+     */
+    private final int chunkSize;
+    /**
+     * Hash algorithm used when creating the hashes.
+     */
+    private final String hashAlgorithm;
+    /**
+     * Indices of the leaves of the events, in increasing order.
+     */
+    private final long[] leafIndices;
+    /**
+     * Hashes of the leaves of the events, in the order of {@link #leafIndices}.
+     */
+    private final List<IHash> leafHashes;
+    /**
+     * Hashes of the proof nodes, in order.
+     */
+    private final List<IHash> hashes;
+    /**
+     * Root hash of the file.
+     */
+    private final IHash rootHash;
+
+    /**
+     * @param eventCount see {@link #eventCount}
+     * @param chunkSize see {@link #chunkSize}
+     * @param hashAlgorithm see {@link #hashAlgorithm}
+     * @param leafIndices see {@link #leafIndices}
+     * @param leafHashes see {@link #leafHashes}
+     * @param hashes see {@link #hashes}
+     * @param rootHash see {@link #rootHash}
+     */
+    MultiProof(long eventCount, int chunkSize, String hashAlgorithm, long[] leafIndices, List<IHash> leafHashes,
+               List<IHash> hashes, IHash rootHash) {
+        this.eventCount = eventCount;
+        this.chunkSize = chunkSize;
+        this.hashAlgorithm = hashAlgorithm;
+        this.leafIndices = leafIndices;
+        this.leafHashes = leafHashes;
+        this.hashes = hashes;
+        this.rootHash = rootHash;
+    }
+
+    /**
+     * Creates the inclusion proof of the events in the file. The file is read twice, once to find the leaves of the
+     * events and once to hash the proof nodes, no matter how many events there are. An event given n times is proven
+     * for its first n occurrences in the file.
+     * @param file          log file.
+     * @param events        events to prove.
+     * @param hashAlgorithm hash algorithm to use.
+     * @return the proof.
+     * @throws HashNotFoundException if an event is not found in the file.
+     * @throws Exception if hashing the file fails.
+     */
+    static MultiProof create(File file, List<String> events, String hashAlgorithm) throws Exception {
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("No events to prove.");
+        }
+        // the file might be appended to meanwhile, stick to its size at the beginning.
+        long size = file.length();
+        long[] eventCount = {0};
+        long[] leafIndices = findLeaves(file, size, events, hashAlgorithm, eventCount);
+        int chunkSize = FileHasher.CHUNK_SIZE;
+
+        List<TreeShape.Node> nodes = new ArrayList<>();
+        cover(new TreeShape(eventCount[0], chunkSize).getRoot(), leafIndices, 0, leafIndices.length, nodes);
+        SubtreeHasher hasher = new SubtreeHasher(hashAlgorithm, nodes);
+        MappedLineScanner.scan(file, 0, size, (window, start, end) -> {
+            if (!hasher.isDone()) {
+                window.limit(end);
+                window.position(start);
+                hasher.appendEvent(window);
+            }
+        });
+        if (!hasher.isDone()) {
+            throw new IllegalStateException("File changed while creating the proof: " + file);
+        }
+        List<IHash> leafHashes = new ArrayList<>();
+        List<IHash> hashes = new ArrayList<>();
+        int leaf = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            TreeShape.Node node = nodes.get(i);
+            if (leaf < leafIndices.length && node.getStart() == leafIndices[leaf] && node.isLeaf()) {
+                leafHashes.add(hasher.getHashes().get(i));
+                leaf++;
+            } else {
+                hashes.add(hasher.getHashes().get(i));
+            }
+        }
+        MultiProof proof = new MultiProof(eventCount[0], chunkSize, hashAlgorithm, leafIndices, leafHashes, hashes,
+                null);
+        return new MultiProof(eventCount[0], chunkSize, hashAlgorithm, leafIndices, leafHashes, hashes,
+                proof.calculateRoot());
+    }
+
+    /**
+     * @param lineCount array to set the number of lines of the file to.
+     * @return the distinct leaf indices of the events in increasing order.
+     */
+    private static long[] findLeaves(File file, long size, List<String> events, String hashAlgorithm,
+                                     long[] lineCount) throws Exception {
+        HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+        // digest -> number of occurrences to find.
+        Map<ByteBuffer, int[]> wanted = new HashMap<>();
+        for (String event : events) {
+            ByteBuffer key = ByteBuffer.wrap(engine.hash(event.getBytes(StandardCharsets.UTF_8)));
+            wanted.computeIfAbsent(key, k -> new int[1])[0]++;
+        }
+        long[] leafIndices = new long[events.size()];
+        int[] found = {0};
+        byte[] digest = new byte[engine.getDigestLength()];
+        ByteBuffer key = ByteBuffer.wrap(digest);
+        MappedLineScanner.scan(file, 0, size, (window, start, end) -> {
+            if (found[0] < leafIndices.length) {
+                window.limit(end);
+                window.position(start);
+                engine.hash(window, digest, 0);
+                int[] remaining = wanted.get(key);
+                if (remaining != null && remaining[0] > 0) {
+                    remaining[0]--;
+                    leafIndices[found[0]++] = lineCount[0];
+                }
+            }
+            lineCount[0]++;
+        });
+        if (found[0] < leafIndices.length) {
+            List<String> missing = new ArrayList<>();
+            for (String event : events) {
+                int[] remaining = wanted.get(ByteBuffer.wrap(engine.hash(event.getBytes(StandardCharsets.UTF_8))));
+                if (remaining[0] > 0) {
+                    remaining[0]--;
+                    missing.add(event);
+                }
+            }
+            throw new HashNotFoundException("Events not found: " + missing);
+        }
+        return leafIndices;
+    }
+
+    /**
+     * Finds the largest nodes that contain none of the leaves, along with the leaves themselves, in order.
+     * @param node        node to cover.
+     * @param leafIndices leaf indices in increasing order.
+     * @param from        index of the first leaf under the node.
+     * @param to          index after the last leaf under the node.
+     * @param nodes       the list to add the nodes to.
+     */
+    private static void cover(TreeShape.Node node, long[] leafIndices, int from, int to, List<TreeShape.Node> nodes) {
+        if (from == to || node.isLeaf()) {
+            nodes.add(node);
+            return;
+        }
+        TreeShape.Node left = node.getLeft();
+        int mid = from;
+        while (mid < to && leafIndices[mid] < left.getEnd()) {
+            mid++;
+        }
+        cover(left, leafIndices, from, mid, nodes);
+        cover(node.getRight(), leafIndices, mid, to, nodes);
+    }
+
+    /**
+     * Rebuilds the root from the leaves of the events and the proof nodes and compares it with the given root.
+     * @param rootHash trusted root hash of the file, e.g. of its signature.
+     * @return true if the events are included in the tree with the root, false otherwise.
+     * @throws Exception if merging the hashes fails.
+     */
+    public boolean verify(IHash rootHash) throws Exception {
+        return rootHash.equals(calculateRoot()) && rootHash.equals(this.rootHash);
+    }
+
+    /**
+     * Checks if the event is one of the events proven, i.e. the proof also needs to be verified with
+     * {@link #verify(IHash)}.
+     * @param event event to check.
+     * @return true if the leaf hash of the event is in the proof.
+     * @throws Exception if hashing fails.
+     */
+    public boolean containsEvent(String event) throws Exception {
+        return leafHashes.contains(HashUtils.createHash(event, hashAlgorithm));
+    }
+
+    /**
+     * @return the root hash rebuilt from the leaves and the proof nodes, null if they do not make up a tree.
+     */
+    private IHash calculateRoot() throws Exception {
+        if (leafIndices.length == 0 || leafIndices.length != leafHashes.size() || eventCount <= 0) {
+            return null;
+        }
+        for (int i = 0; i < leafIndices.length; i++) {
+            if (leafIndices[i] < 0 || leafIndices[i] >= eventCount || (i > 0 && leafIndices[i] <= leafIndices[i - 1])) {
+                return null;
+            }
+        }
+        int[] next = {0, 0};
+        IHash root = rootOf(new TreeShape(eventCount, chunkSize).getRoot(), 0, leafIndices.length, next);
+        return next[1] == hashes.size() ? root : null;
+    }
+
+    /**
+     * @param next index of the next leaf and proof hash to use.
+     */
+    private IHash rootOf(TreeShape.Node node, int from, int to, int[] next) throws Exception {
+        if (from == to) {
+            return next[1] < hashes.size() ? hashes.get(next[1]++) : null;
+        }
+        if (node.isLeaf()) {
+            return leafHashes.get(next[0]++);
+        }
+        TreeShape.Node left = node.getLeft();
+        int mid = from;
+        while (mid < to && leafIndices[mid] < left.getEnd()) {
+            mid++;
+        }
+        IHash leftHash = rootOf(left, from, mid, next);
+        IHash rightHash = leftHash != null ? rootOf(node.getRight(), mid, to, next) : null;
+        return rightHash != null ? HashUtils.mergeHashes(leftHash, rightHash) : null;
+    }
+
+    /**
+     * @return see {@link #eventCount}
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return see {@link #hashAlgorithm}
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return see {@link #leafIndices}
+     */
+    public long[] getLeafIndices() {
+        return leafIndices.clone();
+    }
+
+    /**
+     * @return see {@link #leafHashes}
+     */
+    public List<IHash> getLeafHashes() {
+        return Collections.unmodifiableList(leafHashes);
+    }
+
+    /**
+     * @return see {@link #hashes}
+     */
+    public List<IHash> getHashes() {
+        return Collections.unmodifiableList(hashes);
+    }
+
+    /**
+     * @return see {@link #rootHash}
+     */
+    public IHash getRootHash() {
+        return rootHash;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiProof{" +
+                "eventCount=" + eventCount +
+                ", chunkSize=" + chunkSize +
+                ", hashAlgorithm='" + hashAlgorithm + '\'' +
+                ", leafIndices=" + Arrays.toString(leafIndices) +
+                ", leafHashes=" + leafHashes +
+                ", hashes=" + hashes +
+                ", rootHash=" + rootHash +
+                '}';
+    }
+}
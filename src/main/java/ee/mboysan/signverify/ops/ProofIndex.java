@@ -0,0 +1,484 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.hashing.ProofVerifier;
+import ee.mboysan.signverify.tree.TreeShape;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persistent index of the hash tree of a log file, kept next to the log (see {@link #sidecarOf(File)}), so that the
+ * hash chains of its events are read from the index instead of hashing the whole log for every query.
+ * <p>
+ * The index is written by {@link ProofIndexWriter} and is laid out as follows (big-endian):
+ * <pre>
+ *     header:   magic | version | hashAlgorithm | chunkSize | leafCount | byteCount | lastModified | tableBits
+ *               | digestLength | root digest
+ *     leaves:   leafCount digests, in the order of the lines
+ *     nodes:    leafCount - 1 digests of the inner nodes, in post-order
+ *     table:    2^tableBits ints, the open addressing (linear probing) table of the leaves by their digests
+ *     offsets:  a long per group of {@link #OFFSET_GROUP} lines, the byte offset of the first line of the group,
+ *               followed by leafCount + 1 unsigned ints, the byte offset of each line relative to the offset of its
+ *               group, the last one being the length of the file
+ * </pre>
+ * The shape of the tree only depends on the number of lines and the chunk size (see {@link TreeShape}), so the record
+ * of a node is found by index arithmetic while walking down the shape: the inner nodes of the subtree of L leaves
+ * starting at record b take the records [b, b + L - 1), its root being the last one. The table holds the leaf index
+ * plus one of each line (zero for an empty slot), in the slot given by the leading bits of its digest, so a line is
+ * found with a single probe on average.
+ * <p>
+ * The offsets of the lines map a line number to the byte range of the line in the log, so the hash chain of a line
+ * (see {@link #extractHashChain(long)}) is found by walking down the shape without searching, in O(log n) reads, and
+ * the line itself is read with a single positional read of the log (see {@link #readEvent(File, long)}). At about
+ * four bytes per line, the offsets are much smaller than the digests.
+ * <p>
+ * The header keeps the size and the modification time of the log when it was indexed, so an index that is older than
+ * its log is detected without reading the log, see {@link #isFresh(File)}. The index is read with positional reads, so
+ * a query reads a record per level of the tree and is thread safe.
+ */
+public final class ProofIndex implements AutoCloseable {
+
+    /** "SVIX" */
+    static final int MAGIC = 0x53564958;
+    static final int VERSION = 2;
+
+    /** suffix of the index file of a log file. */
+    static final String SIDECAR_SUFFIX = ".idx";
+
+    /** max number of lines that can be indexed, i.e. that the table of at most 2^30 slots can hold. */
+    static final long MAX_LEAF_COUNT = 1L << 29;
+
+    /** number of lines sharing the absolute offset the offsets of the lines are relative to. */
+    static final int OFFSET_GROUP = 64;
+
+    private final FileChannel channel;
+    private final HashEngine engine;
+
+    private final String hashAlgorithm;
+    private final int chunkSize;
+    private final long leafCount;
+    private final long byteCount;
+    private final long lastModified;
+    private final int tableBits;
+    private final int digestLength;
+    private final IHash root;
+
+    /** offsets of the sections. */
+    private final long leavesAt;
+    private final long nodesAt;
+    private final long tableAt;
+    private final long offsetsAt;
+    private final long deltasAt;
+
+    private final TreeShape shape;
+
+    private ProofIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a proof index.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Proof index version not supported: " + version);
+        }
+        this.hashAlgorithm = in.readUTF();
+        this.chunkSize = in.readInt();
+        this.leafCount = in.readLong();
+        this.byteCount = in.readLong();
+        this.lastModified = in.readLong();
+        this.tableBits = in.readInt();
+        this.digestLength = in.readInt();
+        try {
+            this.engine = HashEngine.forAlgorithm(hashAlgorithm);
+        } catch (Exception e) {
+            throw new IOException("Hash algorithm not recognized: " + hashAlgorithm, e);
+        }
+        if (leafCount <= 0 || leafCount > MAX_LEAF_COUNT || tableBits <= 0 || tableBits > 30
+                || digestLength != engine.getDigestLength()) {
+            throw new IOException("Proof index header is corrupted.");
+        }
+        byte[] rootDigest = new byte[digestLength];
+        in.readFully(rootDigest);
+        this.root = HashUtils.createHashFromDigest(rootDigest, hashAlgorithm);
+
+        this.leavesAt = headerLength(hashAlgorithm, digestLength);
+        this.nodesAt = leavesAt + leafCount * digestLength;
+        this.tableAt = nodesAt + (leafCount - 1) * digestLength;
+        this.offsetsAt = tableAt + ((long) Integer.BYTES << tableBits);
+        this.deltasAt = offsetsAt + (long) Long.BYTES * offsetGroups(leafCount);
+        if (channel.size() != deltasAt + (leafCount + 1) * Integer.BYTES) {
+            throw new IOException("Proof index is truncated.");
+        }
+        this.shape = new TreeShape(leafCount, chunkSize);
+        // the root record must be the root of the header.
+        if (!Arrays.equals(rootDigest, digestOf(shape.getRoot(), 0))) {
+            throw new IOException("Proof index is corrupted, the root does not match.");
+        }
+    }
+
+    /**
+     * Opens an index written with {@link SignVerify#index(File, File, String)}.
+     * @param indexFile the index file.
+     * @return the opened index, to be closed by the caller.
+     * @throws IOException if the file cannot be read or is not a valid index.
+     */
+    public static ProofIndex open(File indexFile) throws IOException {
+        FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        try {
+            return new ProofIndex(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the index next to the file (see {@link #sidecarOf(File)}) if it can answer the queries of the file in
+     * place of its hash tree, i.e. it is of the same hash algorithm and chunk size, and the file was not changed since
+     * it was indexed.
+     * @param file          the log file.
+     * @param hashAlgorithm hash algorithm of the queries.
+     * @return the opened index, null if there is no such index.
+     */
+    static ProofIndex openFor(File file, String hashAlgorithm) {
+        File indexFile = sidecarOf(file);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        ProofIndex index;
+        try {
+            index = open(indexFile);
+        } catch (IOException e) {
+            // unreadable, the queries fall back to hashing the file.
+            return null;
+        }
+        if (index.hashAlgorithm.equals(hashAlgorithm) && index.chunkSize == Math.max(1, FileHasher.CHUNK_SIZE)
+                && index.isFresh(file)) {
+            return index;
+        }
+        index.close();
+        return null;
+    }
+
+    /**
+     * @param file the log file.
+     * @return the default index file of the log file.
+     */
+    public static File sidecarOf(File file) {
+        return new File(file.getPath() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * A cheap check that the log was not changed since it was indexed, i.e. it has the same size and modification
+     * time. The lines are not read.
+     * @param file the log file.
+     * @return true if the index still describes the file.
+     */
+    public boolean isFresh(File file) {
+        return file.length() == byteCount && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Hashes the event and calls {@link #extractHashChain(String, int)} for its first occurrence.
+     */
+    public List<IHash> extractHashChain(String event) throws HashNotFoundException, IOException {
+        return extractHashChain(event, 0);
+    }
+
+    /**
+     * Reads the hash chain of the n-th occurrence of the event, the same as of
+     * {@link ee.mboysan.signverify.tree.HashTree#extractHashChain(String, int)} of the indexed file.
+     * @param event      event/input to extract the hash chain for.
+     * @param occurrence zero based occurrence of the event in the file.
+     * @return a list of hashes from leaf hash to root hash. [leafHash, [c1,[c2,...]], rootHash]
+     * @throws HashNotFoundException if the n-th occurrence of the event is not found.
+     * @throws IOException if the index cannot be read.
+     */
+    public List<IHash> extractHashChain(String event, int occurrence) throws HashNotFoundException, IOException {
+        byte[] digest = engine.hash(event.getBytes(StandardCharsets.UTF_8));
+        IHash eventHash = HashUtils.createHashFromDigest(digest, hashAlgorithm);
+        long leaf = leafIndexOf(digest, occurrence);
+        if (leaf < 0) {
+            throw new HashNotFoundException("[" + eventHash + "](" + occurrence + ")");
+        }
+        return extractHashChain(eventHash, leaf);
+    }
+
+    /**
+     * Reads the hash chain of the line with the given number, the same as of
+     * {@link ee.mboysan.signverify.tree.HashTree#extractHashChain(long)} of the indexed file. The records of the
+     * chain are found by index arithmetic, so this takes a read per level of the tree and no search.
+     * @param leafIndex zero based number of the line in the file.
+     * @return a list of hashes from leaf hash to root hash. [leafHash, [c1,[c2,...]], rootHash]
+     * @throws IndexOutOfBoundsException if the file has no such line.
+     * @throws IOException if the index cannot be read.
+     */
+    public List<IHash> extractHashChain(long leafIndex) throws IOException {
+        checkLeafIndex(leafIndex);
+        byte[] digest = new byte[digestLength];
+        readFully(ByteBuffer.wrap(digest), leavesAt + leafIndex * digestLength);
+        return extractHashChain(HashUtils.createHashFromDigest(digest, hashAlgorithm), leafIndex);
+    }
+
+    private List<IHash> extractHashChain(IHash eventHash, long leaf) throws IOException {
+        List<IHash> hashes = new ArrayList<>();
+        // descend from the root to the leaf collecting the siblings, then reverse to get them from the leaf.
+        TreeShape.Node node = shape.getRoot();
+        long base = 0;
+        while (!node.isLeaf()) {
+            TreeShape.Node left = node.getLeft();
+            TreeShape.Node right = node.getRight();
+            long rightBase = base + (left.getEnd() - left.getStart()) - 1;
+            IHash sibling;
+            if (leaf < left.getEnd()) {
+                sibling = hashOf(right, rightBase);
+                sibling.setPosition(IHash.Position.RIGHT);
+                node = left;
+            } else {
+                sibling = hashOf(left, base);
+                sibling.setPosition(IHash.Position.LEFT);
+                node = right;
+                base = rightBase;
+            }
+            hashes.add(sibling);
+        }
+        Collections.reverse(hashes);
+        hashes.add(0, eventHash);   // include leaf's hash as the first element
+        hashes.add(root);   // include root's hash as the last element
+        return hashes;
+    }
+
+    /**
+     * @param leafIndex zero based number of the line.
+     * @return the offset of the first byte of the line in the indexed file. For <code>leafIndex == leafCount</code>,
+     *         the length of the file.
+     * @throws IndexOutOfBoundsException if the file has no such line.
+     * @throws IOException if the index cannot be read.
+     */
+    public long lineOffset(long leafIndex) throws IOException {
+        if (leafIndex < 0 || leafIndex > leafCount) {
+            throw new IndexOutOfBoundsException("line: " + leafIndex + ", lines: " + leafCount);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+        readFully(entry, offsetsAt + (leafIndex / OFFSET_GROUP) * Long.BYTES);
+        long groupOffset = entry.getLong(0);
+        entry.clear().limit(Integer.BYTES);
+        readFully(entry, deltasAt + leafIndex * Integer.BYTES);
+        return groupOffset + (entry.getInt(0) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Reads a line of the indexed file at its offset, without reading the lines before it.
+     * @param file      the indexed log file.
+     * @param leafIndex zero based number of the line.
+     * @return the line, without its terminator.
+     * @throws IndexOutOfBoundsException if the file has no such line.
+     * @throws IOException if the file cannot be read or was changed since it was indexed, see {@link #isFresh(File)}.
+     */
+    public String readEvent(File file, long leafIndex) throws IOException {
+        checkLeafIndex(leafIndex);
+        if (!isFresh(file)) {
+            throw new IOException("File changed since it was indexed: " + file);
+        }
+        long start = lineOffset(leafIndex);
+        long length = lineOffset(leafIndex + 1) - start;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Line too long to read: " + leafIndex);
+        }
+        ByteBuffer line = ByteBuffer.allocate((int) length);
+        try (FileChannel log = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (line.hasRemaining()) {
+                if (log.read(line, start + line.position()) < 0) {
+                    throw new EOFException("File changed since it was indexed: " + file);
+                }
+            }
+        }
+        // strip the terminator, i.e. one of \n, \r or \r\n.
+        int end = line.limit();
+        if (end > 0 && line.get(end - 1) == '\n') {
+            end--;
+        }
+        if (end > 0 && line.get(end - 1) == '\r') {
+            end--;
+        }
+        return new String(line.array(), 0, end, StandardCharsets.UTF_8);
+    }
+
+    private void checkLeafIndex(long leafIndex) {
+        if (leafIndex < 0 || leafIndex >= leafCount) {
+            throw new IndexOutOfBoundsException("line: " + leafIndex + ", lines: " + leafCount);
+        }
+    }
+
+    /**
+     * Checks if the event is a line of the indexed file, i.e. its hash chain leads to the root.
+     * @param event event/input to check.
+     * @return true if the event is included in the tree, false otherwise.
+     * @throws HashNotFoundException if the event is not found.
+     * @throws Exception if reading the index fails.
+     */
+    public boolean isValidEvent(String event) throws Exception {
+        return ProofVerifier.verify(extractHashChain(event), hashAlgorithm, root);
+    }
+
+    /**
+     * probes the table from the slot of the digest. The leaves are inserted in order, so the occurrences of a digest
+     * are met in order.
+     * @return the leaf index of the n-th occurrence of the digest, -1 if not found.
+     */
+    private long leafIndexOf(byte[] digest, int occurrence) throws IOException {
+        if (digest.length != digestLength) {
+            return -1;
+        }
+        int mask = (1 << tableBits) - 1;
+        int slot = slotOf(digest, 0, tableBits);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES);
+        byte[] leafDigest = new byte[digestLength];
+        int found = 0;
+        for (;;) {
+            entry.clear();
+            readFully(entry, tableAt + (long) slot * Integer.BYTES);
+            long leaf = entry.getInt(0) - 1L;
+            if (leaf < 0) {
+                return -1;
+            }
+            readFully(ByteBuffer.wrap(leafDigest), leavesAt + leaf * digestLength);
+            if (Arrays.equals(digest, leafDigest) && found++ == occurrence) {
+                return leaf;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @param base index of the first inner node record of the subtree of the node.
+     */
+    private IHash hashOf(TreeShape.Node node, long base) throws IOException {
+        return HashUtils.createHashFromDigest(digestOf(node, base), hashAlgorithm);
+    }
+
+    private byte[] digestOf(TreeShape.Node node, long base) throws IOException {
+        long position = node.isLeaf()
+                ? leavesAt + node.getStart() * digestLength
+                : nodesAt + (base + (node.getEnd() - node.getStart()) - 2) * digestLength;
+        byte[] digest = new byte[digestLength];
+        readFully(ByteBuffer.wrap(digest), position);
+        return digest;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new EOFException("Proof index is truncated.");
+            }
+        }
+    }
+
+    /**
+     * @return the number of bits of the table for the number of leaves, so that the table is at most half full.
+     */
+    static int tableBits(long leafCount) {
+        if (leafCount > MAX_LEAF_COUNT) {
+            throw new IllegalArgumentException("Too many lines to index: " + leafCount);
+        }
+        int bits = 1;
+        while ((1L << bits) < 2 * leafCount) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /**
+     * @return the number of groups of the offsets of the lines, for the offsets of the lines and the end of the file.
+     */
+    static long offsetGroups(long leafCount) {
+        return (leafCount + OFFSET_GROUP) / OFFSET_GROUP;
+    }
+
+    /**
+     * @return the slot of the digest, i.e. its leading bits.
+     */
+    static int slotOf(byte[] digest, int offset, int tableBits) {
+        long bits = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            bits = (bits << 8) | (digest[offset + i] & 0xff);
+        }
+        return (int) (bits >>> (Long.SIZE - tableBits));
+    }
+
+    /**
+     * @return the header of an index.
+     */
+    static byte[] header(String hashAlgorithm, int chunkSize, long leafCount, long byteCount, long lastModified,
+                         int tableBits, byte[] rootDigest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(hashAlgorithm);
+            out.writeInt(chunkSize);
+            out.writeLong(leafCount);
+            out.writeLong(byteCount);
+            out.writeLong(lastModified);
+            out.writeInt(tableBits);
+            out.writeInt(rootDigest.length);
+            out.write(rootDigest);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the length of the header, which only depends on the hash algorithm.
+     */
+    static int headerLength(String hashAlgorithm, int digestLength) throws IOException {
+        return header(hashAlgorithm, 0, 0, 0, 0, 0, new byte[digestLength]).length;
+    }
+
+    /**
+     * @return see {@link #hashAlgorithm}.
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return the number of lines indexed.
+     */
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return the root hash of the indexed file.
+     */
+    public IHash getRoot() {
+        return root;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to do, the index was only read.
+        }
+    }
+}
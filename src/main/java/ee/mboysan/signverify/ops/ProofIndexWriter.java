@@ -0,0 +1,207 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.SubtreeHasher;
+import ee.mboysan.signverify.tree.TreeShape;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ * Writes the {@link ProofIndex} of a log file. The file is read twice, once to count its lines, i.e. to find the
+ * shape of its tree, and once to hash it. The digests are written through a buffer per section as soon as they are
+ * calculated, so only the table of the leaves is kept in memory, and the header is written last. The offsets of the
+ * lines are taken from the positions of the mapped windows while hashing.
+ */
+final class ProofIndexWriter {
+
+    /** number of bytes buffered per section before writing them to the file. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ProofIndexWriter() {
+    }
+
+    /**
+     * Indexes the file. If indexing fails, the index file is removed.
+     * @param file          log file to index.
+     * @param indexFile     output index file, overwritten if it exists.
+     * @param hashAlgorithm hash algorithm to use.
+     * @return the root hash of the file.
+     * @throws FileHashingFailedException if the file is empty or changed while it was indexed.
+     * @throws Exception if indexing fails.
+     */
+    static IHash write(File file, File indexFile, String hashAlgorithm) throws Exception {
+        // the modification time is taken first, so an append while indexing makes the index stale.
+        long lastModified = file.lastModified();
+        long byteCount = file.length();
+        long leafCount = MappedLineScanner.scan(file, 0, byteCount, (window, start, end) -> { });
+        if (leafCount == 0) {
+            throw new FileHashingFailedException("Cannot hash a file with empty content");
+        }
+        int chunkSize = Math.max(1, FileHasher.CHUNK_SIZE);
+        int tableBits = ProofIndex.tableBits(leafCount);
+        int digestLength = HashEngine.forAlgorithm(hashAlgorithm).getDigestLength();
+        long leavesAt = ProofIndex.headerLength(hashAlgorithm, digestLength);
+        long nodesAt = leavesAt + leafCount * digestLength;
+        long tableAt = nodesAt + (leafCount - 1) * digestLength;
+        long offsetsAt = tableAt + ((long) Integer.BYTES << tableBits);
+        long deltasAt = offsetsAt + (long) Long.BYTES * ProofIndex.offsetGroups(leafCount);
+
+        int[] table = new int[1 << tableBits];
+        int mask = table.length - 1;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Section leaves = new Section(channel, leavesAt);
+            Section nodes = new Section(channel, nodesAt);
+            TreeShape shape = new TreeShape(leafCount, chunkSize);
+            SubtreeHasher hasher = new SubtreeHasher(hashAlgorithm, Collections.singletonList(shape.getRoot()),
+                    (node, digest, offset) -> {
+                        if (node.isLeaf()) {
+                            leaves.put(digest, offset, digestLength);
+                            int slot = ProofIndex.slotOf(digest, offset, tableBits);
+                            while (table[slot] != 0) {
+                                slot = (slot + 1) & mask;
+                            }
+                            table[slot] = Math.toIntExact(node.getStart() + 1);
+                        } else {
+                            nodes.put(digest, offset, digestLength);
+                        }
+                    });
+            LineOffsets offsets = new LineOffsets(new Section(channel, offsetsAt), new Section(channel, deltasAt));
+            MappedLineScanner.scan(file, 0, byteCount, new MappedLineScanner.LineHandler() {
+                private long windowOffset;
+
+                @Override
+                public void onWindow(long offset) {
+                    windowOffset = offset;
+                }
+
+                @Override
+                public void onLine(ByteBuffer window, int start, int end) throws Exception {
+                    if (!hasher.isDone()) {
+                        offsets.add(windowOffset + start);
+                        window.limit(end);
+                        window.position(start);
+                        hasher.appendEvent(window);
+                    }
+                }
+            });
+            if (!hasher.isDone()) {
+                throw new FileHashingFailedException("File changed while indexing: " + file);
+            }
+            offsets.add(byteCount);
+            offsets.flush();
+            leaves.flush();
+            nodes.flush();
+            Section slots = new Section(channel, tableAt);
+            for (int leaf : table) {
+                slots.putInt(leaf);
+            }
+            slots.flush();
+
+            IHash root = hasher.getHashes().get(0);
+            byte[] header = ProofIndex.header(hashAlgorithm, chunkSize, leafCount, byteCount, lastModified,
+                    tableBits, root.toByteArray());
+            new Section(channel, 0).put(header, 0, header.length).flush();
+            return root;
+        } catch (Exception e) {
+            Files.deleteIfExists(indexFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the offsets of the lines in groups of {@link ProofIndex#OFFSET_GROUP}: the offset of the first line of a
+     * group to one section, and the offsets of the lines relative to it to the other.
+     */
+    private static final class LineOffsets {
+        private final Section groups;
+        private final Section deltas;
+        private long count = 0;
+        private long groupOffset;
+
+        LineOffsets(Section groups, Section deltas) {
+            this.groups = groups;
+            this.deltas = deltas;
+        }
+
+        void add(long offset) throws IOException {
+            if (count++ % ProofIndex.OFFSET_GROUP == 0) {
+                groupOffset = offset;
+                groups.putLong(offset);
+            }
+            long delta = offset - groupOffset;
+            if (delta > 0xFFFFFFFFL) {
+                throw new IOException("Lines too long to index at offset " + offset);
+            }
+            deltas.putInt((int) delta);
+        }
+
+        void flush() {
+            groups.flush();
+            deltas.flush();
+        }
+    }
+
+    /**
+     * Buffered sequential writer of a section of the index file.
+     */
+    private static final class Section {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /** file position of the first byte in the buffer. */
+        private long position;
+
+        Section(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        Section put(byte[] src, int offset, int length) {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(src, offset, n);
+                offset += n;
+                length -= n;
+            }
+            return this;
+        }
+
+        void putInt(int value) {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) {
+            if (buffer.remaining() < Long.BYTES) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the proof index", e);
+            }
+            buffer.clear();
+        }
+    }
+}
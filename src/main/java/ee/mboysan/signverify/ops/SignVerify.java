@@ -1,18 +1,63 @@
 package ee.mboysan.signverify.ops;
 
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
 import ee.mboysan.signverify.hashing.HashUtils;
 import ee.mboysan.signverify.hashing.IHash;
 import ee.mboysan.signverify.tree.HashTree;
+import ee.mboysan.signverify.tree.Workers;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
- * The API for signing and verifying a file.
+ * The API for signing and verifying a file. The files are hashed on an executor shared by all the instances (see
+ * {@link Workers#defaultExecutor()}) unless one is given, so creating an instance per call is cheap.
  */
 public final class SignVerify {
 
+    /** maximum number of files hashed at once by {@link #signAll}, and the default of {@link #verifyAll}. */
+    public static final int FILES_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** executor the files are hashed on. */
+    private final Executor executor;
+
+    /**
+     * Hashes the files on the default executor, see {@link Workers#defaultExecutor()}.
+     */
+    public SignVerify() {
+        this(Workers.defaultExecutor());
+    }
+
+    /**
+     * @param executor executor to hash the files on, e.g. {@link Workers#virtualThreads()}. It is not shut down by
+     *                 this class. When many files are hashed at once on a bounded pool that is not a fork/join pool,
+     *                 each file is hashed by a single thread, see {@link Workers#nestedExecutor(Executor)}.
+     */
+    public SignVerify(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        this.executor = executor;
+    }
+
     /**
      * Signs a given file with the {@link HashUtils#getDefaultHashAlgorithm()} producing a signature.
      * After signing, any modifications (including appends) will result the integrity verification fail.
@@ -38,10 +83,20 @@ public final class SignVerify {
      * @throws Exception if signing fails.
      */
     public Signature sign(File fileToSign, boolean allowAppend, String hashAlgorithm) throws Exception {
-        FileHasher fileHasher = new FileHasher(fileToSign, hashAlgorithm);
-        IHash fileHash = fileHasher.getFileHashTree().getRoot().getHash();
-        int eventCount = fileHasher.getFileHashTree().getLeafCount();
-        return new Signature(fileHash, eventCount, allowAppend, hashAlgorithm);
+        return sign(fileToSign, allowAppend, hashAlgorithm, executor);
+    }
+
+    /**
+     * @param rangeExecutor executor to hash the ranges of a large file on.
+     */
+    private static Signature sign(File fileToSign, boolean allowAppend, String hashAlgorithm, Executor rangeExecutor)
+            throws Exception {
+        // only the root is needed, no need to build the tree.
+        StreamingFileHasher hasher = new StreamingFileHasher(fileToSign, -1, hashAlgorithm, rangeExecutor);
+        IHash fileHash = hasher.getFileHash();
+        int eventCount = Math.toIntExact(hasher.getEventCount());
+        AppendState appendState = allowAppend ? hasher.getAppendState() : null;
+        return new Signature(fileHash, eventCount, allowAppend, hashAlgorithm, appendState);
     }
 
     /**
@@ -69,14 +124,226 @@ public final class SignVerify {
      */
     public Signature sign(File fileToSign, File signatureFile, boolean allowAppend, String hashAlgorithm) throws Exception {
         Signature signature = sign(fileToSign, allowAppend, hashAlgorithm);
-        try(FileOutputStream f = new FileOutputStream(signatureFile);
-            ObjectOutputStream o = new ObjectOutputStream(f)) {
-            o.writeObject(signature);
-            o.flush();
+        writeSignature(signature, signatureFile);
+        return signature;
+    }
+
+    /**
+     * Signs the files of a directory matching a glob pattern, see {@link #listFiles(File, String)}, producing a
+     * manifest of their signatures with a root hash over all of them. The files are signed concurrently on the
+     * executor of this instance, the largest files first, so that a large file does not keep the others waiting at the
+     * end. At most {@link #FILES_IN_FLIGHT} files are hashed at once. The lines of a large file are hashed in parallel
+     * as well (see {@link StreamingFileHasher}) if the executor has threads to spare for them, otherwise by the thread
+     * of the file itself, see {@link Workers#nestedExecutor(Executor)}.
+     *
+     * @param directory     directory of the files, the paths in the manifest are relative to it.
+     * @param glob          glob pattern of the paths of the files relative to the directory, e.g. "**.log".
+     * @param allowAppend   true, if the files are append-only log files, false otherwise.
+     * @param hashAlgorithm the hash algorithm to use when producing the hash trees.
+     * @return the manifest of the signatures of the files.
+     * @throws IllegalArgumentException if no files match the pattern.
+     * @throws FileHashingFailedException if signing a file fails, e.g. the file is empty.
+     * @throws Exception if signing fails.
+     */
+    public Manifest signAll(File directory, String glob, boolean allowAppend, String hashAlgorithm) throws Exception {
+        List<String> paths = listFiles(directory, glob);
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No files matching " + glob + " in " + directory);
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        for (String path : paths) {
+            sizes.put(path, new File(directory, path).length());
+        }
+        List<String> bySize = new ArrayList<>(paths);
+        bySize.sort(Comparator.comparing((String path) -> sizes.get(path)).reversed());
+        List<Manifest.Entry> entries = new ArrayList<>(paths.size());
+        // the exception of a failed file is thrown as it is, see Workers#submit.
+        BlockingQueue<Future<Manifest.Entry>> done = new LinkedBlockingQueue<>();
+        List<Future<Manifest.Entry>> submitted = new ArrayList<>(bySize.size());
+        try {
+            int next = 0;
+            // a file is started whenever any file is done, the manifest sorts the entries by their paths.
+            while (entries.size() < bySize.size()) {
+                while (next < bySize.size() && submitted.size() - entries.size() < FILES_IN_FLIGHT) {
+                    String path = bySize.get(next++);
+                    submitted.add(Workers.submit(executor,
+                            () -> new Manifest.Entry(path, signFileOf(directory, path, allowAppend, hashAlgorithm)),
+                            done));
+                }
+                entries.add(awaitFile(done.take()));
+            }
+        } finally {
+            if (entries.size() < bySize.size()) {
+                for (Future<Manifest.Entry> future : submitted) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return new Manifest(hashAlgorithm, entries);
+    }
+
+    /**
+     * After calling {@link #signAll(File, String, boolean, String)}, the manifest will be persisted to the provided
+     * manifestFile.
+     *
+     * @param directory     directory of the files, the paths in the manifest are relative to it.
+     * @param glob          glob pattern of the paths of the files relative to the directory.
+     * @param manifestFile  output manifest file.
+     * @param allowAppend   true, if the files are append-only log files, false otherwise.
+     * @param hashAlgorithm the hash algorithm to use when producing the hash trees.
+     * @return the manifest of the signatures of the files.
+     * @throws Exception if signing fails.
+     */
+    public Manifest signAll(File directory, String glob, File manifestFile, boolean allowAppend, String hashAlgorithm)
+            throws Exception {
+        Manifest manifest = signAll(directory, glob, allowAppend, hashAlgorithm);
+        try (OutputStream out = new FileOutputStream(manifestFile)) {
+            manifest.writeTo(out);
         }
+        return manifest;
+    }
+
+    /**
+     * @param manifestFile file containing the manifest, see {@link #signAll(File, String, File, boolean, String)}.
+     * @return the manifest.
+     * @throws IOException if reading fails or the file is not a valid manifest.
+     */
+    public Manifest readManifest(File manifestFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(manifestFile))) {
+            return Manifest.readFrom(in);
+        }
+    }
+
+    /**
+     * Lists the regular files under a directory, including its subdirectories, whose paths relative to the directory
+     * match a glob pattern, see {@link java.nio.file.FileSystem#getPathMatcher(String)}. E.g. "*.log" matches the log
+     * files of the directory itself, "**&#47;*.log" the ones of its subdirectories and "**.log" all of them.
+     *
+     * @param directory directory to list the files of.
+     * @param glob      glob pattern of the paths relative to the directory.
+     * @return the relative paths of the files with '/' as the separator, sorted.
+     * @throws IOException if listing the files fails.
+     */
+    public static List<String> listFiles(File directory, String glob) throws IOException {
+        Path base = directory.toPath();
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + glob);
+        List<String> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(base)) {
+            files.filter(Files::isRegularFile)
+                    .map(base::relativize)
+                    .filter(matcher::matches)
+                    .forEach(path -> {
+                        StringJoiner joiner = new StringJoiner("/");
+                        path.forEach(name -> joiner.add(name.toString()));
+                        paths.add(joiner.toString());
+                    });
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private Signature signFileOf(File directory, String path, boolean allowAppend, String hashAlgorithm)
+            throws Exception {
+        try {
+            return sign(new File(directory, path), allowAppend, hashAlgorithm, Workers.nestedExecutor(executor));
+        } catch (Exception e) {
+            throw new FileHashingFailedException("Signing failed: " + path, e);
+        }
+    }
+
+    /**
+     * waits for the job of a file, the exception of the job is thrown as it is.
+     */
+    private static <T> T awaitFile(Future<T> future) throws Exception {
+        try {
+            return Workers.await(future);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Extends the signature of an append-only file with the lines appended to the file since it was signed. The
+     * resulting signature is the same as of signing the whole file again with the same settings, but only the appended
+     * lines are hashed, so the cost depends on the size of the appended data instead of the size of the file. Since the
+     * signed lines are not read again (apart from the last one), their integrity is not checked here; it is up to the
+     * caller to make sure that the file was not modified, e.g. with {@link #verify(Signature, File)}.
+     *
+     * @param signature signature of the file, created with allowAppend set.
+     * @param file      the file the signature was created for, with the new lines appended.
+     * @return a new signature containing the info about the whole file.
+     * @throws IllegalArgumentException if the signature does not allow appends or was created without the state
+     *                                  needed for extending it.
+     * @throws FileHashingFailedException if the file is shorter than it was or its last signed line was modified.
+     * @throws Exception if extending fails.
+     */
+    public Signature extend(Signature signature, File file) throws Exception {
+        AppendState state = appendStateOf(signature);
+        StreamingFileHasher hasher = new StreamingFileHasher(file, state, -1, executor);
+        int eventCount = Math.toIntExact(hasher.getEventCount());
+        return new Signature(hasher.getFileHash(), eventCount, true, signature.getHashAlgorithm(),
+                hasher.getAppendState());
+    }
+
+    /**
+     * Reads the signature from the signatureFile and calls {@link #extend(Signature, File)}, persisting the extended
+     * signature to the newSignatureFile.
+     *
+     * @param signatureFile    file containing the signature pojo.
+     * @param file             the file the signature was created for, with the new lines appended.
+     * @param newSignatureFile output file for the extended signature.
+     * @return a new signature containing the info about the whole file.
+     * @throws Exception if extending fails.
+     */
+    public Signature extend(File signatureFile, File file, File newSignatureFile) throws Exception {
+        Signature signature = extend(readSignature(signatureFile), file);
+        writeSignature(signature, newSignatureFile);
         return signature;
     }
 
+    /**
+     * Checks that a newer signature of an append-only file only adds the lines appended to the file to an already
+     * trusted signature of it. Only the lines appended between the two signatures are hashed, so the cost depends on
+     * the size of the appended data instead of the size of the file. The lines covered by the trusted signature are
+     * not read again (apart from the last one), i.e. their integrity is the one established when the trusted
+     * signature was verified.
+     *
+     * @param trusted   already verified signature of the file, created with allowAppend set.
+     * @param signature newer signature of the file to verify.
+     * @param file      the file the signatures were created for.
+     * @return true if the newer signature is the one of the file with the lines appended after the trusted signature,
+     *         false otherwise.
+     * @throws IllegalArgumentException if a signature does not allow appends or was created without the state needed
+     *                                  for extending it.
+     * @throws Exception if any problem occurs while hashing the appended lines.
+     */
+    public boolean verifyAppend(Signature trusted, Signature signature, File file) throws Exception {
+        AppendState from = appendStateOf(trusted);
+        AppendState to = appendStateOf(signature);
+        if (!trusted.getHashAlgorithm().equals(signature.getHashAlgorithm())
+                || from.getChunkSize() != to.getChunkSize()
+                || from.getByteCount() > to.getByteCount()) {
+            return false;
+        }
+        StreamingFileHasher hasher;
+        try {
+            hasher = new StreamingFileHasher(file, from, to.getByteCount(), executor);
+        } catch (FileHashingFailedException e) {
+            // the last trusted line was modified, or the file was truncated.
+            return false;
+        }
+        return hasher.getEventCount() == signature.getEventCount()
+                && signature.getFileHash().equals(hasher.getFileHash());
+    }
+
+    private static AppendState appendStateOf(Signature signature) {
+        if (!signature.isAppendAllowed() || signature.getAppendState() == null) {
+            throw new IllegalArgumentException("Signature cannot be extended, sign the file again with allowAppend"
+                    + " set: " + signature);
+        }
+        return signature.getAppendState();
+    }
+
     /**
      * Checks the integrity of a file with the provided signature. If the file integrity has changed, the verification
      * fails.
@@ -87,9 +354,18 @@ public final class SignVerify {
      * @throws Exception if any problem occurs while checking the integrity of the file.
      */
     public boolean verify(Signature signature, File fileToVerify) throws Exception {
-        FileHasher hasher = new FileHasher(fileToVerify, signature.getEventCount(), signature.getHashAlgorithm());
+        return verify(signature, fileToVerify, executor);
+    }
+
+    /**
+     * @param rangeExecutor executor to hash the ranges of a large file on.
+     */
+    private static boolean verify(Signature signature, File fileToVerify, Executor rangeExecutor) throws Exception {
+        StreamingFileHasher hasher = new StreamingFileHasher(fileToVerify, signature.getEventCount(),
+                signature.getHashAlgorithm(), rangeExecutor);
         if (signature.isAppendAllowed()) {
-            return hasher.getFileHashTree().isValidEvent(signature.getFileHash());
+            // the signed lines form a subtree of their own, the rest of the file is appended to it.
+            return signature.getFileHash().equals(hasher.getPrevEventsHash());
         }
         return signature.getFileHash().equals(hasher.getFileHash());
     }
@@ -104,10 +380,211 @@ public final class SignVerify {
      * @throws Exception if any problem occurs while checking the integrity of the file.
      */
     public boolean verify(File signatureFile, File fileToVerify) throws Exception {
-        try(FileInputStream fi = new FileInputStream(signatureFile);
+        return verify(readSignature(signatureFile), fileToVerify);
+    }
+
+    /**
+     * Verifies the files of a manifest, see {@link #signAll(File, String, boolean, String)}, against their signatures.
+     * The files are verified concurrently on the executor of this instance, the largest files first, and only the
+     * roots of the files are calculated, as with {@link #verify(Signature, File)}. The lines of a large file are hashed
+     * in parallel as well only if the executor has threads to spare for them, see
+     * {@link Workers#nestedExecutor(Executor)}. The result of each file is passed to the report as soon as the file is
+     * verified, i.e. in the order the files are done, on the calling thread.
+     *
+     * @param manifest      manifest of the files.
+     * @param directory     directory the paths of the manifest are relative to.
+     * @param maxFiles      maximum number of files verified at once, e.g. {@link #FILES_IN_FLIGHT}.
+     * @param stopOnFailure true to stop at the first file that is not verified, i.e. the files not verified by then
+     *                      are not reported.
+     * @param report        receives the result of each file.
+     * @return true if all the files are verified, false otherwise.
+     * @throws IllegalArgumentException if maxFiles is not positive.
+     * @throws Exception if waiting for the files is interrupted.
+     */
+    public boolean verifyAll(Manifest manifest, File directory, int maxFiles, boolean stopOnFailure,
+                             Consumer<FileVerification> report) throws Exception {
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("maxFiles must be positive: " + maxFiles);
+        }
+        List<Manifest.Entry> bySize = new ArrayList<>(manifest.getEntries());
+        Map<String, Long> sizes = new HashMap<>();
+        for (Manifest.Entry entry : bySize) {
+            sizes.put(entry.getPath(), new File(directory, entry.getPath()).length());
+        }
+        bySize.sort(Comparator.comparing((Manifest.Entry entry) -> sizes.get(entry.getPath())).reversed());
+        BlockingQueue<Future<FileVerification>> done = new LinkedBlockingQueue<>();
+        List<Future<FileVerification>> submitted = new ArrayList<>(bySize.size());
+        boolean allVerified = true;
+        try {
+            int next = 0;
+            int inFlight = 0;
+            while (next < bySize.size() || inFlight > 0) {
+                while (next < bySize.size() && inFlight < maxFiles) {
+                    Manifest.Entry entry = bySize.get(next++);
+                    submitted.add(Workers.submit(executor, () -> verifyFileOf(directory, entry), done));
+                    inFlight++;
+                }
+                FileVerification result = done.take().get();
+                inFlight--;
+                report.accept(result);
+                if (!result.isVerified()) {
+                    allVerified = false;
+                    if (stopOnFailure) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            // nothing left running on a failure or an early stop, the executor is shared.
+            for (Future<FileVerification> future : submitted) {
+                future.cancel(true);
+            }
+        }
+        return allVerified;
+    }
+
+    /**
+     * Reads the manifest from the manifestFile and calls
+     * {@link #verifyAll(Manifest, File, int, boolean, Consumer)}.
+     *
+     * @param manifestFile  file containing the manifest.
+     * @param directory     directory the paths of the manifest are relative to.
+     * @param maxFiles      maximum number of files verified at once.
+     * @param stopOnFailure true to stop at the first file that is not verified.
+     * @param report        receives the result of each file.
+     * @return true if all the files are verified, false otherwise.
+     * @throws IOException if the manifest cannot be read.
+     * @throws Exception if waiting for the files is interrupted.
+     */
+    public boolean verifyAll(File manifestFile, File directory, int maxFiles, boolean stopOnFailure,
+                             Consumer<FileVerification> report) throws Exception {
+        return verifyAll(readManifest(manifestFile), directory, maxFiles, stopOnFailure, report);
+    }
+
+    /**
+     * the problems of a file are part of its result, so the other files are still verified.
+     */
+    private FileVerification verifyFileOf(File directory, Manifest.Entry entry) {
+        File file = new File(directory, entry.getPath());
+        if (!file.isFile()) {
+            return new FileVerification(entry.getPath(), FileVerification.Status.MISSING, null);
+        }
+        try {
+            boolean verified = verify(entry.getSignature(), file, Workers.nestedExecutor(executor));
+            return new FileVerification(entry.getPath(),
+                    verified ? FileVerification.Status.VERIFIED : FileVerification.Status.FAILED, null);
+        } catch (FileHashingFailedException e) {
+            return new FileVerification(entry.getPath(), FileVerification.Status.FAILED, e);
+        } catch (Exception e) {
+            return new FileVerification(entry.getPath(), FileVerification.Status.ERROR, e);
+        }
+    }
+
+    /**
+     * Creates a consistency proof between two signatures of a growing log file, i.e. a proof that the file of the
+     * newer signature is the file of the older signature with new lines appended. The proof can be verified with the
+     * signatures only, see {@link #verifyConsistency(Signature, Signature, ConsistencyProof)}. If the older signature
+     * is created with allowAppend set, only the lines appended since are hashed, otherwise the whole file is hashed.
+     *
+     * @param older signature of the file before the lines were appended.
+     * @param newer signature of the file with the lines appended.
+     * @param file  the log file of the newer signature.
+     * @return the consistency proof containing a number of hashes logarithmic in the number of lines.
+     * @throws IllegalArgumentException if the signatures cannot be of the same growing file.
+     * @throws FileHashingFailedException if the file does not match the signatures.
+     * @throws Exception if creating the proof fails.
+     */
+    public ConsistencyProof proveConsistency(Signature older, Signature newer, File file) throws Exception {
+        return ConsistencyProof.create(older, newer, file);
+    }
+
+    /**
+     * Reads the signatures from the files and calls {@link #proveConsistency(Signature, Signature, File)}, persisting
+     * the proof to the proofFile.
+     *
+     * @param olderSignatureFile file containing the older signature pojo.
+     * @param newerSignatureFile file containing the newer signature pojo.
+     * @param file               the log file of the newer signature.
+     * @param proofFile          output file for the consistency proof.
+     * @return the consistency proof.
+     * @throws Exception if creating the proof fails.
+     */
+    public ConsistencyProof proveConsistency(File olderSignatureFile, File newerSignatureFile, File file,
+                                             File proofFile) throws Exception {
+        ConsistencyProof proof = proveConsistency(
+                readSignature(olderSignatureFile), readSignature(newerSignatureFile), file);
+        writeObject(proof, proofFile);
+        return proof;
+    }
+
+    /**
+     * Checks that a log file only grew between two of its signatures, using only the signatures and the proof, i.e.
+     * without the file.
+     *
+     * @param older signature of the file before the lines were appended.
+     * @param newer signature of the file with the lines appended.
+     * @param proof consistency proof created with {@link #proveConsistency(Signature, Signature, File)}.
+     * @return true if the verification succeeds, false otherwise.
+     * @throws Exception if any problem occurs while verifying the proof.
+     */
+    public boolean verifyConsistency(Signature older, Signature newer, ConsistencyProof proof) throws Exception {
+        return proof.getOldEventCount() == older.getEventCount()
+                && proof.getNewEventCount() == newer.getEventCount()
+                && proof.getHashAlgorithm().equals(older.getHashAlgorithm())
+                && proof.getHashAlgorithm().equals(newer.getHashAlgorithm())
+                && proof.verify(older.getFileHash(), newer.getFileHash());
+    }
+
+    /**
+     * Reads the signatures and the proof from the files and calls
+     * {@link #verifyConsistency(Signature, Signature, ConsistencyProof)}.
+     *
+     * @param olderSignatureFile file containing the older signature pojo.
+     * @param newerSignatureFile file containing the newer signature pojo.
+     * @param proofFile          file containing the consistency proof.
+     * @return true if the verification succeeds, false otherwise.
+     * @throws Exception if any problem occurs while verifying the proof.
+     */
+    public boolean verifyConsistency(File olderSignatureFile, File newerSignatureFile, File proofFile)
+            throws Exception {
+        return verifyConsistency(readSignature(olderSignatureFile), readSignature(newerSignatureFile),
+                (ConsistencyProof) readObject(proofFile));
+    }
+
+    private static void writeSignature(Signature signature, File signatureFile) throws IOException {
+        try (SignatureWriter writer = new SignatureWriter(new FileOutputStream(signatureFile))) {
+            writer.write(signature);
+        }
+    }
+
+    /**
+     * reads the signature in the binary format, or the serialized signature written by older versions.
+     */
+    private static Signature readSignature(File signatureFile) throws IOException, ClassNotFoundException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(signatureFile))) {
+            if (BinaryFormat.isSerialized(in)) {
+                return (Signature) new ObjectInputStream(in).readObject();
+            }
+            Signature signature = new SignatureReader(in).read();
+            if (signature == null) {
+                throw new EOFException("No signature in file: " + signatureFile);
+            }
+            return signature;
+        }
+    }
+
+    private static void writeObject(Object object, File file) throws IOException {
+        try(FileOutputStream f = new FileOutputStream(file);
+            ObjectOutputStream o = new ObjectOutputStream(f)) {
+            o.writeObject(object);
+            o.flush();
+        }
+    }
+
+    private static Object readObject(File file) throws IOException, ClassNotFoundException {
+        try(FileInputStream fi = new FileInputStream(file);
             ObjectInputStream oi = new ObjectInputStream(fi)) {
-            Signature signature = (Signature) oi.readObject();
-            return verify(signature, fileToVerify);
+            return oi.readObject();
         }
     }
 
@@ -158,32 +635,232 @@ public final class SignVerify {
      * @throws Exception if event not found or hash chain extraction fails.
      */
     public List<IHash> hashChainForEvent(File file, File outFile, String event, String hashAlgorithm) throws Exception {
-        List<IHash> hashes = new FileHasher(file, hashAlgorithm).getFileHashTree().extractHashChain(event);
-        if (outFile != null) {
-            try(FileOutputStream f = new FileOutputStream(outFile);
-                ObjectOutputStream o = new ObjectOutputStream(f)) {
-                for (IHash hash : hashes) {
-                    o.writeObject(hash);
-                    o.flush();
+        return hashChainForEvent(file, outFile, event, 0, hashAlgorithm);
+    }
+
+    /**
+     * Same as {@link #hashChainForEvent(File, File, String, String)}, but for events that occur more than once in the
+     * file, the hash chain of the n-th occurrence of the event is returned. If the file is indexed (see
+     * {@link #index(File, String)}) and was not changed since, the hash chain is read from the index instead of
+     * hashing the file.
+     *
+     * @param file          log file to check.
+     * @param outFile       output file for the extracted hash chain.
+     * @param event         event/input to check/extract the hash chain for.
+     * @param occurrence    zero based occurrence of the event in the file.
+     * @param hashAlgorithm Hash algorithm used for the hash function.
+     * @return list containing the hash chain to calculate the root hash. In format
+     *         [leafHash, [concat1, concat2, ...], rootHash)
+     * @throws Exception if event not found or hash chain extraction fails.
+     */
+    public List<IHash> hashChainForEvent(File file, File outFile, String event, int occurrence, String hashAlgorithm)
+            throws Exception {
+        List<IHash> hashes;
+        try (ProofIndex index = ProofIndex.openFor(file, hashAlgorithm)) {
+            if (index != null) {
+                hashes = index.extractHashChain(event, occurrence);
+            } else {
+                try (HashTree hashTree = new FileHasher(file, -1, hashAlgorithm, executor).getFileHashTree()) {
+                    hashes = hashTree.extractHashChain(event, occurrence);
                 }
             }
         }
+        writeHashChain(outFile, hashes, hashAlgorithm);
         return hashes;
     }
 
     /**
-     * Reads the hash chain from the provided file assuming the file contains serialized {@link IHash} objects.
+     * Returns the hash chain of the line with the given number, i.e. the event is addressed by its position instead
+     * of its content. If the file is indexed (see {@link #index(File, String)}) and was not changed since, the hash
+     * chain is read from the index by position arithmetic, without hashing or searching anything. If outFile is
+     * provided, the hash chain is written to the provided file.
      *
-     * @param file file containing {@link IHash} objects.
+     * @param file          log file to check.
+     * @param outFile       output file for the extracted hash chain.
+     * @param line          zero based number of the line in the file.
+     * @param hashAlgorithm Hash algorithm used for the hash function.
+     * @return list containing the hash chain to calculate the root hash. In format
+     *         [leafHash, [concat1, concat2, ...], rootHash)
+     * @throws IndexOutOfBoundsException if the file has no such line.
+     * @throws Exception if hash chain extraction fails.
+     */
+    public List<IHash> hashChainForLine(File file, File outFile, long line, String hashAlgorithm) throws Exception {
+        List<IHash> hashes;
+        try (ProofIndex index = ProofIndex.openFor(file, hashAlgorithm)) {
+            if (index != null) {
+                hashes = index.extractHashChain(line);
+            } else {
+                try (HashTree hashTree = new FileHasher(file, -1, hashAlgorithm, executor).getFileHashTree()) {
+                    hashes = hashTree.extractHashChain(line);
+                }
+            }
+        }
+        writeHashChain(outFile, hashes, hashAlgorithm);
+        return hashes;
+    }
+
+    /**
+     * Reads the line with the given number. If the file is indexed (see {@link #index(File, String)}) and was not
+     * changed since, the line is read at its offset in the file, otherwise the lines before it are scanned.
+     *
+     * @param file          log file to read.
+     * @param line          zero based number of the line in the file.
+     * @param hashAlgorithm Hash algorithm of the index to use.
+     * @return the line, without its terminator.
+     * @throws IndexOutOfBoundsException if the file has no such line.
+     * @throws Exception if reading the file fails.
+     */
+    public String eventAt(File file, long line, String hashAlgorithm) throws Exception {
+        try (ProofIndex index = ProofIndex.openFor(file, hashAlgorithm)) {
+            if (index != null) {
+                return index.readEvent(file, line);
+            }
+        }
+        String[] event = new String[1];
+        long[] lineNumber = {0};
+        long lineCount = MappedLineScanner.scan(file, (window, start, end) -> {
+            if (lineNumber[0]++ == line) {
+                byte[] bytes = new byte[end - start];
+                window.position(start);
+                window.get(bytes);
+                event[0] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        });
+        if (event[0] == null) {
+            throw new IndexOutOfBoundsException("line: " + line + ", lines: " + lineCount);
+        }
+        return event[0];
+    }
+
+    private static void writeHashChain(File outFile, List<IHash> hashes, String hashAlgorithm) throws IOException {
+        if (outFile != null) {
+            try (HashChainWriter writer = new HashChainWriter(new FileOutputStream(outFile))) {
+                writer.write(hashes, hashAlgorithm);
+            }
+        }
+    }
+
+    /**
+     * Checks if the event is a line of the file, i.e. its hash chain leads to the root hash of the file. If the file is
+     * indexed (see {@link #index(File, String)}) and was not changed since, the hash chain is read from the index
+     * instead of hashing the file.
+     *
+     * @param file          log file to check.
+     * @param event         event/input to check.
+     * @param hashAlgorithm Hash algorithm used for the hash function.
+     * @return true if the event is included in the file, false otherwise.
+     * @throws HashNotFoundException if the event is not found.
+     * @throws Exception if checking the event fails.
+     */
+    public boolean isValidEvent(File file, String event, String hashAlgorithm) throws Exception {
+        try (ProofIndex index = ProofIndex.openFor(file, hashAlgorithm)) {
+            if (index != null) {
+                return index.isValidEvent(event);
+            }
+        }
+        try (HashTree hashTree = new FileHasher(file, -1, hashAlgorithm, executor).getFileHashTree()) {
+            return hashTree.isValidEvent(event);
+        }
+    }
+
+    /**
+     * Calls {@link #index(File, File, String)} with the default index file of the file, i.e. the file path with
+     * <code>.idx</code> appended, which is used by the hash chain queries of the file.
+     */
+    public IHash index(File file, String hashAlgorithm) throws Exception {
+        return index(file, ProofIndex.sidecarOf(file), hashAlgorithm);
+    }
+
+    /**
+     * Persists the hash tree of the file to the indexFile (see {@link ProofIndex}), i.e. the digests of its leaves and
+     * inner nodes along with a lookup table of the leaves, so that hash chains are read from it instead of hashing the
+     * whole file. The index holds the size and the modification time of the file, so it is not used once the file is
+     * changed, e.g. appended to, until the file is indexed again.
+     *
+     * @param file          log file to index.
+     * @param indexFile     output index file.
+     * @param hashAlgorithm Hash algorithm used for the hash function.
+     * @return the root hash of the file.
+     * @throws Exception if indexing fails.
+     */
+    public IHash index(File file, File indexFile, String hashAlgorithm) throws Exception {
+        return ProofIndexWriter.write(file, indexFile, hashAlgorithm);
+    }
+
+    /**
+     * Creates a single inclusion proof for many events of the file, where the nodes shared by the hash chains of the
+     * events appear only once. The file is read twice no matter how many events there are, instead of building the
+     * hash tree for each event. If outFile is provided, the proof is serialized and written to the provided file.
+     *
+     * @param file          log file to check.
+     * @param outFile       output file for the proof.
+     * @param events        events to prove, an event given n times is proven for its first n occurrences.
+     * @param hashAlgorithm Hash algorithm used for the hash function.
+     * @return the proof of the events.
+     * @throws Exception if an event is not found or creating the proof fails.
+     */
+    public MultiProof multiProofForEvents(File file, File outFile, List<String> events, String hashAlgorithm)
+            throws Exception {
+        MultiProof proof = MultiProof.create(file, events, hashAlgorithm);
+        if (outFile != null) {
+            writeObject(proof, outFile);
+        }
+        return proof;
+    }
+
+    /**
+     * Checks that the events of the proof are included in the file of the signature, without the file.
+     *
+     * @param signature signature of the file.
+     * @param proof     proof created with {@link #multiProofForEvents(File, File, List, String)}.
+     * @return true if the verification succeeds, false otherwise.
+     * @throws Exception if any problem occurs while verifying the proof.
+     */
+    public boolean verifyMultiProof(Signature signature, MultiProof proof) throws Exception {
+        return proof.getEventCount() == signature.getEventCount()
+                && proof.getHashAlgorithm().equals(signature.getHashAlgorithm())
+                && proof.verify(signature.getFileHash());
+    }
+
+    /**
+     * Reads the proof written by {@link #multiProofForEvents(File, File, List, String)}.
+     *
+     * @param file file containing the {@link MultiProof} object.
+     * @return the proof.
+     * @throws IOException if file cannot be read.
+     * @throws ClassNotFoundException if the object in file is not of type {@link MultiProof}.
+     */
+    public MultiProof readMultiProofFromFile(File file) throws IOException, ClassNotFoundException {
+        return (MultiProof) readObject(file);
+    }
+
+    /**
+     * Reads the hash chain written by {@link #hashChainForEvent(File, File, String, int, String)}, i.e. in the binary
+     * format of {@link HashChainReader}. The files of serialized {@link IHash} objects written by older versions are
+     * read as well.
+     *
+     * @param file file containing the hash chain.
      * @return list containing the hash chain to calculate the root hash. In format
      *         [leafHash, [concat1, concat2, ...], rootHash)
      * @throws IOException if file cannot be read.
-     * @throws ClassNotFoundException if objects in file is not of type {@link IHash}.
+     * @throws ClassNotFoundException if objects in the serialized file are not of type {@link IHash}.
      */
     public List<IHash> readHashChainFromFile(File file) throws IOException, ClassNotFoundException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (BinaryFormat.isSerialized(in)) {
+                return readSerializedHashChain(in);
+            }
+            List<IHash> hashes = new HashChainReader(in).read();
+            if (hashes == null) {
+                throw new EOFException("No hash chain in file: " + file);
+            }
+            return hashes;
+        }
+    }
+
+    private static List<IHash> readSerializedHashChain(InputStream in) throws IOException, ClassNotFoundException {
         List<IHash> hashes = new ArrayList<>();
-        try(FileInputStream fi = new FileInputStream(file);
-            ObjectInputStream oi = new ObjectInputStream(fi)) {
+        try (ObjectInputStream oi = new ObjectInputStream(in)) {
             for(;;){
                 hashes.add((IHash) oi.readObject());
             }
@@ -219,10 +896,10 @@ public final class SignVerify {
      * @throws Exception if visualization fails.
      */
     public String visualizeHashMap(File file, String hashAlgorithm, int hashLength) throws Exception {
-        HashTree hashTree = new FileHasher(file, hashAlgorithm).getFileHashTree();
-        String visual = hashLength > 0
-                ? hashTree.visualize(hashLength)
-                : hashTree.visualize();
-        return visual;
+        try (HashTree hashTree = new FileHasher(file, -1, hashAlgorithm, executor).getFileHashTree()) {
+            return hashLength > 0
+                    ? hashTree.visualize(hashLength)
+                    : hashTree.visualize();
+        }
     }
 }
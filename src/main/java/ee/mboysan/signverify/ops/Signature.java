@@ -9,6 +9,8 @@ import java.io.Serializable;
  */
 public class Signature implements Serializable {
 
+    private static final long serialVersionUID = 8343667847636447663L;
+
     /**
      * hash of the file.
      */
@@ -25,6 +27,11 @@ public class Signature implements Serializable {
      * Hash algorithm used when creating the file hash.
      */
     private final String hashAlgorithm;
+    /**
+     * For append-only files. State after the last line of the file, to extend the signature with the lines appended
+     * later on without hashing the signed lines again. Null for static files and for the signatures created before.
+     */
+    private final AppendState appendState;
 
     /**
      * @param fileHash see {@link #fileHash}
@@ -33,10 +40,22 @@ public class Signature implements Serializable {
      * @param hashAlgorithm see {@link #hashAlgorithm}
      */
     Signature(IHash fileHash, int eventCount, boolean allowAppend, String hashAlgorithm) {
+        this(fileHash, eventCount, allowAppend, hashAlgorithm, null);
+    }
+
+    /**
+     * @param fileHash see {@link #fileHash}
+     * @param eventCount see {@link #eventCount}
+     * @param allowAppend see {@link #allowAppend}
+     * @param hashAlgorithm see {@link #hashAlgorithm}
+     * @param appendState see {@link #appendState}
+     */
+    Signature(IHash fileHash, int eventCount, boolean allowAppend, String hashAlgorithm, AppendState appendState) {
         this.fileHash = fileHash;
         this.eventCount = eventCount;
         this.allowAppend = allowAppend;
         this.hashAlgorithm = hashAlgorithm;
+        this.appendState = appendState;
     }
 
     /**
@@ -67,6 +86,13 @@ public class Signature implements Serializable {
         return hashAlgorithm;
     }
 
+    /**
+     * @return see {@link #appendState}
+     */
+    AppendState getAppendState() {
+        return appendState;
+    }
+
     @Override
     public String toString() {
         return "Signature{" +
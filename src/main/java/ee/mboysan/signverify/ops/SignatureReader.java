@@ -0,0 +1,75 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.tree.HashFrontier;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reads the signatures written by {@link SignatureWriter} one after the other.
+ * <b>NB! </b> not thread safe.
+ */
+public final class SignatureReader implements Closeable {
+
+    private final DataInputStream in;
+
+    /**
+     * Reads the header of the stream.
+     * @param in stream to read from, closed along with the reader.
+     * @throws IOException if reading fails or the stream is not of signatures.
+     */
+    public SignatureReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+        BinaryFormat.readHeader(this.in, BinaryFormat.SIGNATURES);
+    }
+
+    /**
+     * @return the next signature, null at the end of the stream.
+     * @throws IOException if reading fails or the stream is corrupted.
+     */
+    public Signature read() throws IOException {
+        int algorithmId = in.read();
+        if (algorithmId < 0) {
+            return null;
+        }
+        return readRecord(in, algorithmId);
+    }
+
+    /**
+     * Reads the rest of the record of a signature whose algorithm id is already read, also used within the records
+     * of the {@link Manifest}.
+     */
+    static Signature readRecord(DataInput in, int algorithmId) throws IOException {
+        String hashAlgorithm = BinaryFormat.readAlgorithm(in, algorithmId);
+        int flags = in.readUnsignedByte();
+        int eventCount = in.readInt();
+        try {
+            byte[] digest = new byte[HashEngine.forAlgorithm(hashAlgorithm).getDigestLength()];
+            in.readFully(digest);
+            AppendState state = null;
+            if ((flags & BinaryFormat.HAS_APPEND_STATE) != 0) {
+                int chunkSize = in.readInt();
+                long byteCount = in.readLong();
+                HashFrontier aggregated = HashFrontier.readFrom(in, hashAlgorithm);
+                HashFrontier chunk = HashFrontier.readFrom(in, hashAlgorithm);
+                state = new AppendState(aggregated, chunk, chunkSize, byteCount);
+            }
+            return new Signature(HashUtils.createHashFromDigest(digest, hashAlgorithm), eventCount,
+                    (flags & BinaryFormat.ALLOW_APPEND) != 0, hashAlgorithm, state);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
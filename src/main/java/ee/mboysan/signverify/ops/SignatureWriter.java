@@ -0,0 +1,67 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes signatures one after the other in the compact binary encoding of {@link BinaryFormat}, to be read with
+ * {@link SignatureReader}. The output is buffered, so the writer has to be flushed or closed.
+ * <b>NB! </b> not thread safe.
+ */
+public final class SignatureWriter implements Closeable, Flushable {
+
+    private final DataOutputStream out;
+
+    /**
+     * Writes the header of the stream.
+     * @param out stream to write to, closed along with the writer.
+     * @throws IOException if writing fails.
+     */
+    public SignatureWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        BinaryFormat.writeHeader(this.out, BinaryFormat.SIGNATURES);
+    }
+
+    /**
+     * @param signature signature to write.
+     * @throws IllegalArgumentException if the hash algorithm of the signature is not supported.
+     * @throws IOException if writing fails.
+     */
+    public void write(Signature signature) throws IOException {
+        writeRecord(out, signature);
+    }
+
+    /**
+     * Writes the record of the signature, also used within the records of the {@link Manifest}.
+     */
+    static void writeRecord(DataOutput out, Signature signature) throws IOException {
+        AppendState state = signature.getAppendState();
+        BinaryFormat.writeAlgorithm(out, signature.getHashAlgorithm());
+        out.writeByte((signature.isAppendAllowed() ? BinaryFormat.ALLOW_APPEND : 0)
+                | (state != null ? BinaryFormat.HAS_APPEND_STATE : 0));
+        out.writeInt(signature.getEventCount());
+        HashUtils.writeDigest(signature.getFileHash(), out);
+        if (state != null) {
+            out.writeInt(state.getChunkSize());
+            out.writeLong(state.getByteCount());
+            state.writeFrontiers(out);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,607 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashFrontier;
+import ee.mboysan.signverify.tree.Workers;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates the same file hash as {@link FileHasher} without building the hash tree. The lines are streamed through
+ * {@link HashFrontier}s following the same chunking of {@link FileHasher} (i.e. {@link FileHasher#CHUNK_SIZE} lines per
+ * subtree and the subtree formed at the previous event count), so only a few hashes are kept in memory no matter how
+ * large the file is. Use it when only the file hash is needed, i.e. when no hash chain is extracted.
+ * <p>
+ * Large files are hashed in parallel. The file is split into ranges of whole lines, the lines of each range are
+ * hashed by their own workers into leaf hashes, which are kept until the line numbers of the range are known, i.e. the
+ * lines of the ranges before it are counted. Knowing the line numbers, a worker builds the chunks that lie wholly in
+ * its range out of the leaf hashes, while the leaf hashes of the chunks crossing the range boundaries are kept aside.
+ * The ranges are stitched together in order, so the result is the same as of hashing the lines one by one. Each line
+ * is read once, unless a range has more than {@link #MAX_RANGE_LEAVES} lines: the lines after those are only counted
+ * at first and hashed once the line numbers are known, so the memory needed stays bounded. Only a bounded number of
+ * ranges are in flight at once. The ranges are hashed on a shared executor (see {@link Workers}), so no threads are
+ * started for a file.
+ */
+public class StreamingFileHasher {
+
+    /**
+     * Number of workers the ranges of a file are hashed by at once, on the executor of the hasher.
+     */
+    static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /**
+     * Max number of bytes of a range hashed by a single worker.
+     */
+    static int RANGE_SIZE = 1 << 22;
+    /**
+     * Min number of bytes of a range, so that a small file is scanned by the calling thread instead of being split into
+     * ranges that are hashed by the workers and stitched together.
+     */
+    static int MIN_RANGE_SIZE = 1 << 20;
+    /**
+     * Max number of leaf hashes of a range kept while its line numbers are not known, e.g. 4 MB of SHA-256 digests,
+     * enough for the lines of a whole range unless they are shorter than 32 bytes on average.
+     */
+    static int MAX_RANGE_LEAVES = 1 << 17;
+
+    /**
+     * Executor to hash the ranges of the file on.
+     */
+    private final Executor executor;
+    /**
+     * @see FileHasher#prevEventCount
+     */
+    private final long prevEventCount;
+    /**
+     * Number of lines per chunk, see {@link FileHasher#CHUNK_SIZE}.
+     */
+    private final int chunkSize;
+    /**
+     * Hash algorithm to hash the file with.
+     */
+    private final String hashAlgorithm;
+    /**
+     * @see FileHasher#prevEventsHash
+     */
+    private IHash prevEventsHash;
+    /**
+     * Hash of the file.
+     */
+    private final IHash fileHash;
+    /**
+     * File line count.
+     */
+    private long eventCount;
+    /**
+     * State after the last line of the file, to continue hashing the lines appended to the file later on.
+     */
+    private AppendState appendState;
+
+    /**
+     * @see StreamingFileHasher#StreamingFileHasher(File, long, String)
+     */
+    StreamingFileHasher(File file) throws Exception {
+        this(file, HashUtils.getDefaultHashAlgorithm());
+    }
+
+    /**
+     * @see StreamingFileHasher#StreamingFileHasher(File, long, String)
+     */
+    public StreamingFileHasher(File file, String hashAlgorithm) throws Exception {
+        this(file, -1, hashAlgorithm);
+    }
+
+    /**
+     * @param file file to hash.
+     * @param prevEventCount see {@link #prevEventCount}.
+     * @param hashAlgorithm hash algorithm to use for hashing the file.
+     * @throws Exception if a problem occurs when hashing the file.
+     */
+    public StreamingFileHasher(File file, long prevEventCount, String hashAlgorithm) throws Exception {
+        this(file, prevEventCount, hashAlgorithm, Workers.defaultExecutor());
+    }
+
+    /**
+     * @param file file to hash.
+     * @param prevEventCount see {@link #prevEventCount}.
+     * @param hashAlgorithm hash algorithm to use for hashing the file.
+     * @param executor executor to hash the ranges of a large file on, see {@link Workers}.
+     * @throws Exception if a problem occurs when hashing the file.
+     */
+    public StreamingFileHasher(File file, long prevEventCount, String hashAlgorithm, Executor executor)
+            throws Exception {
+        this.executor = executor;
+        this.prevEventCount = prevEventCount;
+        this.chunkSize = FileHasher.CHUNK_SIZE;
+        this.hashAlgorithm = hashAlgorithm;
+        this.fileHash = hashFile(file, new Aggregation(), null, -1);
+    }
+
+    /**
+     * @see StreamingFileHasher#StreamingFileHasher(File, AppendState, long, Executor)
+     */
+    StreamingFileHasher(File file, AppendState state, long to) throws Exception {
+        this(file, state, to, Workers.defaultExecutor());
+    }
+
+    /**
+     * Continues hashing a file from the state after its last hashed line, i.e. only the lines appended to the file
+     * since then are read. The file hash is the same as of hashing the whole file at once, provided that the hashed
+     * lines are not modified. Apart from the last one, the hashed lines are not read, so such modifications are not
+     * detected here.
+     * @param file  file to hash.
+     * @param state state after the last hashed line of the file.
+     * @param to    offset after the last byte of the file to hash, or -1 to hash the whole file.
+     * @param executor executor to hash the ranges of the appended lines on.
+     * @throws FileHashingFailedException if the file is shorter than it was or its last hashed line is modified.
+     * @throws Exception if a problem occurs when hashing the file.
+     */
+    StreamingFileHasher(File file, AppendState state, long to, Executor executor) throws Exception {
+        this.executor = executor;
+        this.prevEventCount = -1;
+        this.chunkSize = state.getChunkSize();
+        this.hashAlgorithm = state.getHashAlgorithm();
+        this.fileHash = hashFile(file, new Aggregation(state), state, to);
+    }
+
+    private IHash hashFile(File file, Aggregation aggregation, AppendState resumed, long to) throws Exception {
+        long from = 0;
+        List<long[]> ranges;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the file might be appended to while hashing, stick to its size at the beginning.
+            if (to < 0) {
+                to = channel.size();
+            }
+            if (resumed != null) {
+                from = resumeOffset(channel, resumed, to);
+                if (from < 0) {
+                    throw new FileHashingFailedException("The hashed lines of the file were modified: " + file);
+                }
+            }
+            ranges = split(channel, from, to);
+        }
+        if (ranges.size() <= 1 || executor == Workers.callerRuns()) {
+            // no workers to hash the ranges on, e.g. a file hashed within a job of a bounded pool.
+            MappedLineScanner.scan(file, from, to, (window, start, end) -> {
+                window.limit(end);
+                window.position(start);
+                aggregation.appendEvent(window);
+            });
+        } else {
+            hashRanges(file, ranges, aggregation);
+        }
+        eventCount = aggregation.lineN;
+        if (eventCount == 0) {
+            throw new FileHashingFailedException("Cannot hash a file with empty content");
+        }
+        if (prevEventCount <= 0) {
+            appendState = new AppendState(aggregation.aggregated.copy(), aggregation.chunk.copy(), chunkSize, to);
+        }
+        return aggregation.getRoot();
+    }
+
+    /**
+     * Finds where the lines appended after the given state start. The last hashed line might have been unterminated,
+     * it is then followed by a terminator if and only if it is not modified. A CR terminating the last hashed line
+     * might be followed by an LF appended later on, which makes up a single terminator with it.
+     * @return offset of the first appended line, or -1 if the file is shorter than it was or its last hashed line is
+     *         modified.
+     */
+    static long resumeOffset(FileChannel channel, AppendState state, long to) throws Exception {
+        long hashed = state.getByteCount();
+        if (hashed > to) {
+            return -1;
+        }
+        if (hashed == to) {
+            return to;
+        }
+        // the last hashed byte and the first appended one.
+        ByteBuffer bytes = ByteBuffer.allocate(2);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, hashed - 1 + bytes.position()) < 0) {
+                return -1;
+            }
+        }
+        if (isTerminator(bytes.get(0))) {
+            return Math.min(MappedLineScanner.lineStartFrom(channel, hashed), to);
+        }
+        return isTerminator(bytes.get(1)) ? Math.min(MappedLineScanner.lineStartFrom(channel, hashed + 1), to) : -1;
+    }
+
+    private static boolean isTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * splits the given part of the file into ranges of whole lines, of at least {@link #MIN_RANGE_SIZE} bytes.
+     */
+    static List<long[]> split(FileChannel channel, long from, long to) throws Exception {
+        List<long[]> ranges = new ArrayList<>();
+        long rangeSize = Math.max(1, Math.max(MIN_RANGE_SIZE,
+                Math.min(RANGE_SIZE, (to - from + PARALLELISM - 1) / Math.max(1, PARALLELISM))));
+        while (from < to) {
+            long end = to - from <= rangeSize
+                    ? to
+                    : Math.min(MappedLineScanner.lineStartFrom(channel, from + rangeSize), to);
+            ranges.add(new long[]{from, end});
+            from = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * hashes the lines of the ranges in parallel and stitches them together in order.
+     */
+    private void hashRanges(File file, List<long[]> ranges, Aggregation aggregation) throws Exception {
+        List<Future<?>> submitted = new ArrayList<>();
+        boolean done = false;
+        try {
+            int inFlight = 2 * PARALLELISM;
+            List<Future<RangeLeaves>> leaves = new ArrayList<>();
+            Deque<Future<RangeHash>> hashes = new ArrayDeque<>();
+            long firstLine = aggregation.lineN;
+            for (int i = 0; i < ranges.size(); i++) {
+                while (leaves.size() < ranges.size() && leaves.size() <= i + inFlight) {
+                    leaves.add(Workers.submit(executor, new RangeLeavesJob(file, ranges.get(leaves.size()))));
+                    submitted.add(leaves.get(leaves.size() - 1));
+                }
+                RangeLeaves rangeLeaves = get(leaves.get(i));
+                leaves.set(i, null);
+                hashes.add(Workers.submit(executor, new RangeHashJob(file, ranges.get(i), rangeLeaves, firstLine)));
+                submitted.add(hashes.peekLast());
+                firstLine += rangeLeaves.lineCount;
+                if (hashes.size() > inFlight) {
+                    get(hashes.poll()).stitchTo(aggregation);
+                }
+            }
+            while (!hashes.isEmpty()) {
+                get(hashes.poll()).stitchTo(aggregation);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // the executor is shared, only stop the jobs of this file.
+                for (Future<?> future : submitted) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return Workers.await(future);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @return the first line of the chunk after the one that the given line belongs to, i.e. the chunks are
+     *         {@link #chunkSize} lines long and a new one is started after the previous event count.
+     */
+    private long nextChunkStart(long line) {
+        long size = Math.max(1, chunkSize);
+        if (prevEventCount > 0 && line < prevEventCount) {
+            return Math.min((line / size + 1) * size, prevEventCount);
+        }
+        long base = prevEventCount > 0 ? prevEventCount : 0;
+        return base + ((line - base) / size + 1) * size;
+    }
+
+    /**
+     * @return see {@link #fileHash}.
+     */
+    public IHash getFileHash() {
+        return fileHash;
+    }
+
+    /**
+     * @return see {@link #prevEventsHash}.
+     */
+    public IHash getPrevEventsHash() {
+        return prevEventsHash;
+    }
+
+    /**
+     * @return see {@link #eventCount}.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return see {@link #appendState}, null if the file is hashed with a previous event count.
+     */
+    AppendState getAppendState() {
+        return appendState;
+    }
+
+    /**
+     * Folds the lines into chunks and the chunks into the file hash, the same way as {@link FileHasher} does.
+     */
+    private class Aggregation {
+        final HashFrontier aggregated;
+        final HashFrontier chunk;
+        long lineN;
+
+        Aggregation() throws Exception {
+            this.aggregated = new HashFrontier(hashAlgorithm);
+            this.chunk = new HashFrontier(hashAlgorithm);
+            this.lineN = 0;
+        }
+
+        /**
+         * continues the aggregation from the given state.
+         */
+        Aggregation(AppendState state) {
+            this.aggregated = state.getAggregated();
+            this.chunk = state.getChunk();
+            this.lineN = state.getEventCount();
+        }
+
+        void appendEvent(ByteBuffer event) throws Exception {
+            chunk.appendEvent(event);
+            lineAppended();
+        }
+
+        void appendLeafDigest(byte[] digest, int offset) throws Exception {
+            chunk.appendLeafDigest(digest, offset);
+            lineAppended();
+        }
+
+        private void lineAppended() throws Exception {
+            if (++lineN == prevEventCount) {
+                // same as ending the aggregation of the previous events in FileHasher.
+                aggregated.append(chunk);
+                aggregated.fold();
+                prevEventsHash = aggregated.getRoot();
+            }
+            if (!chunk.isEmpty() && chunk.getLeafCount() >= chunkSize) {
+                aggregated.append(chunk);
+            }
+        }
+
+        /**
+         * appends a whole chunk built elsewhere.
+         */
+        void appendChunk(byte[] digest, int offset, int depth, int leafCount) throws Exception {
+            aggregated.appendSubtree(digest, offset, depth, leafCount);
+            lineN += leafCount;
+            if (lineN == prevEventCount) {
+                aggregated.fold();
+                prevEventsHash = aggregated.getRoot();
+            }
+        }
+
+        /**
+         * @return the root of the lines aggregated so far, the aggregation itself is not modified.
+         */
+        IHash getRoot() throws Exception {
+            if (chunk.isEmpty()) {
+                return aggregated.getRoot();
+            }
+            HashFrontier root = aggregated.copy();
+            root.append(chunk.copy());
+            return root.getRoot();
+        }
+    }
+
+    /**
+     * Hashes the lines of a range into leaf hashes, up to {@link #MAX_RANGE_LEAVES} lines, and counts the rest.
+     */
+    private class RangeLeavesJob implements Callable<RangeLeaves> {
+        private final File file;
+        private final long[] range;
+
+        RangeLeavesJob(File file, long[] range) {
+            this.file = file;
+            this.range = range;
+        }
+
+        @Override
+        public RangeLeaves call() throws Exception {
+            HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+            RangeLeaves result = new RangeLeaves(engine.getDigestLength());
+            result.lineCount = MappedLineScanner.scan(file, range[0], range[1], new MappedLineScanner.LineHandler() {
+                long windowOffset;
+                @Override
+                public void onWindow(long offset) {
+                    windowOffset = offset;
+                }
+                @Override
+                public void onLine(ByteBuffer window, int start, int end) {
+                    if (result.leaves.size < MAX_RANGE_LEAVES) {
+                        window.limit(end);
+                        window.position(start);
+                        engine.hash(window, result.leaves.next(), result.leaves.offset());
+                        result.leaves.add(0, 1);
+                    } else if (result.restFrom < 0) {
+                        result.restFrom = windowOffset + start;
+                    }
+                }
+            });
+            return result;
+        }
+    }
+
+    /**
+     * Leaf hashes of a range, see {@link RangeLeavesJob}.
+     */
+    private static class RangeLeaves {
+        final Subtrees leaves;
+        long lineCount;
+        /** offset of the first line that is counted only, -1 if all the lines are hashed. */
+        long restFrom = -1;
+
+        RangeLeaves(int digestLength) {
+            this.leaves = new Subtrees(digestLength);
+        }
+    }
+
+    /**
+     * Builds the hash of a range out of its leaf hashes. The leaves of the chunks that cross the range boundaries are
+     * kept as they are in {@link RangeHash#head} and {@link RangeHash#tail}, the rest of the chunks are built.
+     */
+    private class RangeHashJob implements Callable<RangeHash> {
+        private final File file;
+        private final long[] range;
+        private final RangeLeaves leaves;
+        private final long firstLine;
+        private final long endLine;
+        private long builtFrom;
+        private long builtEnd;
+        private long chunkEnd;
+        private long line;
+        private RangeHash result;
+        private HashFrontier chunk;
+
+        RangeHashJob(File file, long[] range, RangeLeaves leaves, long firstLine) {
+            this.file = file;
+            this.range = range;
+            this.leaves = leaves;
+            this.firstLine = firstLine;
+            this.endLine = firstLine + leaves.lineCount;
+        }
+
+        @Override
+        public RangeHash call() throws Exception {
+            HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+            int digestLength = engine.getDigestLength();
+            // the built chunks are the ones between the first and the last chunk start in the range.
+            builtFrom = firstLine == 0 || nextChunkStart(firstLine - 1) == firstLine
+                    ? firstLine
+                    : Math.min(nextChunkStart(firstLine), endLine);
+            long builtTo = builtFrom;
+            while (builtTo < endLine && nextChunkStart(builtTo) <= endLine) {
+                builtTo = nextChunkStart(builtTo);
+            }
+            builtEnd = builtTo;
+            chunkEnd = builtFrom < builtEnd ? nextChunkStart(builtFrom) : -1;
+            line = firstLine;
+            result = new RangeHash(digestLength);
+            chunk = new HashFrontier(hashAlgorithm);
+
+            for (int i = 0; i < leaves.leaves.size; i++) {
+                onLeaf(leaves.leaves.digests, i * digestLength);
+            }
+            if (leaves.restFrom >= 0) {
+                byte[] digest = new byte[digestLength];
+                MappedLineScanner.scan(file, leaves.restFrom, range[1], (window, start, end) -> {
+                    window.limit(end);
+                    window.position(start);
+                    engine.hash(window, digest, 0);
+                    onLeaf(digest, 0);
+                });
+                if (line != endLine) {
+                    throw new FileHashingFailedException("File changed while hashing: " + file);
+                }
+            }
+            return result;
+        }
+
+        private void onLeaf(byte[] digest, int offset) throws Exception {
+            if (line < builtFrom) {
+                addLeaf(result.head, digest, offset);
+            } else if (line < builtEnd) {
+                chunk.appendLeafDigest(digest, offset);
+                if (line + 1 == chunkEnd) {
+                    int leafCount = (int) chunk.getLeafCount();
+                    int depth = chunk.takeRoot(result.chunks.next(), result.chunks.offset());
+                    result.chunks.add(depth, leafCount);
+                    chunkEnd = nextChunkStart(chunkEnd);
+                }
+            } else {
+                addLeaf(result.tail, digest, offset);
+            }
+            line++;
+        }
+
+        private void addLeaf(Subtrees subtrees, byte[] digest, int offset) {
+            System.arraycopy(digest, offset, subtrees.next(), subtrees.offset(), subtrees.digestLength);
+            subtrees.add(0, 1);
+        }
+    }
+
+    /**
+     * Hash of a range, see {@link RangeHashJob}.
+     */
+    private static class RangeHash {
+        final Subtrees head;
+        final Subtrees chunks;
+        final Subtrees tail;
+
+        RangeHash(int digestLength) {
+            this.head = new Subtrees(digestLength);
+            this.chunks = new Subtrees(digestLength);
+            this.tail = new Subtrees(digestLength);
+        }
+
+        void stitchTo(Aggregation aggregation) throws Exception {
+            for (int i = 0; i < head.size; i++) {
+                aggregation.appendLeafDigest(head.digests, i * head.digestLength);
+            }
+            for (int i = 0; i < chunks.size; i++) {
+                aggregation.appendChunk(chunks.digests, i * chunks.digestLength, chunks.depths[i], chunks.leafCounts[i]);
+            }
+            for (int i = 0; i < tail.size; i++) {
+                aggregation.appendLeafDigest(tail.digests, i * tail.digestLength);
+            }
+        }
+    }
+
+    /**
+     * Root digests, depths and leaf counts of subtrees in order.
+     */
+    private static class Subtrees {
+        final int digestLength;
+        byte[] digests;
+        int[] depths = new int[16];
+        int[] leafCounts = new int[16];
+        int size = 0;
+
+        Subtrees(int digestLength) {
+            this.digestLength = digestLength;
+            this.digests = new byte[16 * digestLength];
+        }
+
+        /**
+         * @return the array to write the digest of the next subtree to, at {@link #offset()}.
+         */
+        byte[] next() {
+            if (size == depths.length) {
+                digests = Arrays.copyOf(digests, size * 2 * digestLength);
+                depths = Arrays.copyOf(depths, size * 2);
+                leafCounts = Arrays.copyOf(leafCounts, size * 2);
+            }
+            return digests;
+        }
+
+        int offset() {
+            return size * digestLength;
+        }
+
+        /**
+         * adds the subtree whose digest is written to {@link #next()}.
+         */
+        void add(int depth, int leafCount) {
+            depths[size] = depth;
+            leafCounts[size] = leafCount;
+            size++;
+        }
+    }
+}
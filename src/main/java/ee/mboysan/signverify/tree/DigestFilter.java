@@ -0,0 +1,71 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+/**
+ * Bloom filter of hashes, i.e. a set that might answer that it contains a hash that was never added, but never answers
+ * that it does not contain a hash that was added. With {@link #BITS_PER_HASH} bits per hash and {@link #PROBES}
+ * probes, about 1% of the hashes that were not added are reported to be contained.
+ * <p>
+ * The digests are uniformly distributed already, so the probed bits are taken from the leading bits of the digest
+ * (see {@link HashUtils#leadingBits(IHash)}) by double hashing instead of hashing the digest again.
+ */
+final class DigestFilter {
+
+    static final int BITS_PER_HASH = 10;
+    static final int PROBES = 7;
+
+    private final long[] words;
+    private final long bitCount;
+
+    /**
+     * @param expectedCount number of hashes to be added.
+     */
+    DigestFilter(long expectedCount) {
+        this(expectedCount, BITS_PER_HASH);
+    }
+
+    /**
+     * @param expectedCount number of hashes to be added.
+     * @param bitsPerHash   bits of the filter per hash, more bits give fewer false positives.
+     */
+    DigestFilter(long expectedCount, int bitsPerHash) {
+        long wordCount = Math.max(1, (Math.max(1, expectedCount) * bitsPerHash + Long.SIZE - 1) / Long.SIZE);
+        this.words = new long[Math.toIntExact(wordCount)];
+        this.bitCount = wordCount * Long.SIZE;
+    }
+
+    void add(IHash hash) {
+        long bits = HashUtils.leadingBits(hash);
+        long h1 = bits >>> 32;
+        long h2 = (bits & 0xFFFFFFFFL) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the hash was not added for sure, true if it might have been added.
+     */
+    boolean mightContain(IHash hash) {
+        long bits = HashUtils.leadingBits(hash);
+        long h1 = bits >>> 32;
+        long h2 = (bits & 0xFFFFFFFFL) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the filter in bytes.
+     */
+    long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,299 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.TreeConstructionFailedException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Calculates the root hash of a tree without building the tree. Only the frontier, i.e. the node stack of
+ * {@link HashTree} holding the roots of the dangling subtrees, is kept, so the memory needed is logarithmic in the
+ * number of leaves. The rules of the node stack are the same as of {@link HashTree}, hence the calculated root is the
+ * same as the root of the equivalent tree.
+ * <p>
+ * The frontier is serializable, so that appending to a tree can be continued later on, e.g. for the lines appended to
+ * a signed file.
+ * <b>NB! </b> not thread safe.
+ */
+public final class HashFrontier implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String hashAlgorithm;
+    /** restored from the {@link #hashAlgorithm} on deserialization. */
+    private transient HashEngine engine;
+    private final int digestLength;
+
+    /** digests of the subtree roots in the stack, one after the other. */
+    private byte[] digests;
+    /** depths of the subtree roots in the stack. */
+    private int[] depths;
+    private int size = 0;
+
+    /** number of leaves/events. */
+    private long leafCount = 0;
+
+    /**
+     * @param hashAlgorithm hash algorithm for hashing the events and merging the nodes.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     */
+    public HashFrontier(String hashAlgorithm) throws NoSuchAlgorithmException {
+        this.hashAlgorithm = hashAlgorithm;
+        this.engine = HashEngine.forAlgorithm(hashAlgorithm);
+        this.digestLength = engine.getDigestLength();
+        this.digests = new byte[16 * digestLength];
+        this.depths = new int[16];
+    }
+
+    /**
+     * @return a copy of this frontier that can be appended to independently of this one.
+     */
+    public HashFrontier copy() {
+        try {
+            HashFrontier copy = new HashFrontier(hashAlgorithm);
+            copy.digests = Arrays.copyOf(digests, digests.length);
+            copy.depths = Arrays.copyOf(depths, depths.length);
+            copy.size = size;
+            copy.leafCount = leafCount;
+            return copy;
+        } catch (NoSuchAlgorithmException e) {
+            // cannot happen, the engine of this frontier was created with the same algorithm.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes the event and appends it as a new leaf.
+     * @param event event to append.
+     */
+    public void appendEvent(String event) {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity();
+        engine.hash(bytes, 0, bytes.length, digests, size * digestLength);
+        leafCount++;
+        push(0);
+    }
+
+    /**
+     * Hashes the remaining bytes of the event as they are (i.e. without decoding) and appends it as a new leaf. The
+     * position of the buffer is moved to its limit.
+     * @param event raw bytes of the event.
+     */
+    public void appendEvent(ByteBuffer event) {
+        ensureCapacity();
+        engine.hash(event, digests, size * digestLength);
+        leafCount++;
+        push(0);
+    }
+
+    /**
+     * Appends a new leaf with an already calculated digest.
+     * @param digest array containing the digest of the event.
+     * @param offset offset of the digest in the array.
+     */
+    public void appendLeafDigest(byte[] digest, int offset) {
+        appendSubtree(digest, offset, 0, 1);
+    }
+
+    /**
+     * Appends an already calculated subtree, i.e. the same as merging a constructed tree into the tree being built.
+     * @param digest    array containing the root digest of the subtree.
+     * @param offset    offset of the digest in the array.
+     * @param depth     depth of the subtree.
+     * @param leafCount number of leaves of the subtree.
+     */
+    public void appendSubtree(byte[] digest, int offset, int depth, long leafCount) {
+        ensureCapacity();
+        System.arraycopy(digest, offset, digests, size * digestLength, digestLength);
+        this.leafCount += leafCount;
+        push(depth);
+    }
+
+    /**
+     * Appends all the leaves of the other frontier as a single subtree, i.e. the same as merging a constructed tree
+     * into the tree being built. The other frontier is reset afterwards.
+     * @param other frontier to append.
+     * @throws TreeConstructionFailedException if the other frontier is empty.
+     */
+    public void append(HashFrontier other) throws TreeConstructionFailedException {
+        if (other.engine != engine) {
+            throw new IllegalArgumentException("Append failed: hash algorithms do not match: " + other.hashAlgorithm);
+        }
+        ensureCapacity();
+        long otherLeafCount = other.leafCount;
+        int depth = other.takeRoot(digests, size * digestLength);
+        leafCount += otherLeafCount;
+        push(depth);
+    }
+
+    /**
+     * Folds the frontier (see {@link #fold()}) and moves the root out of it, i.e. the frontier is reset afterwards.
+     * @param out       array to write the root digest to.
+     * @param outOffset offset of the digest in the array.
+     * @return depth of the root.
+     * @throws TreeConstructionFailedException if there are no items in the frontier.
+     */
+    public int takeRoot(byte[] out, int outOffset) throws TreeConstructionFailedException {
+        fold();
+        System.arraycopy(digests, 0, out, outOffset, digestLength);
+        int depth = depths[0];
+        reset();
+        return depth;
+    }
+
+    /**
+     * merges the node written at the top of the stack with the ones below while they are of equal depth.
+     */
+    private void push(int depth) {
+        while (size > 0 && depths[size - 1] == depth) {
+            int left = (size - 1) * digestLength;
+            engine.merge(digests, left, digests, left + digestLength, digests, left);
+            size--;
+            depth++;
+        }
+        depths[size++] = depth;
+    }
+
+    private void ensureCapacity() {
+        if (size == depths.length) {
+            depths = Arrays.copyOf(depths, size * 2);
+            digests = Arrays.copyOf(digests, size * 2 * digestLength);
+        }
+    }
+
+    /**
+     * Merges the dangling subtrees into a single one, the same as constructing the tree. Later appends are merged into
+     * this subtree just like merging the constructed tree into a new tree.
+     * @throws TreeConstructionFailedException if there are no items in the frontier.
+     */
+    public void fold() throws TreeConstructionFailedException {
+        if (size == 0) {
+            throw new TreeConstructionFailedException("Construction failed: There are no items in the tree.");
+        }
+        while (size > 1) {
+            int left = (size - 2) * digestLength;
+            engine.merge(digests, left, digests, left + digestLength, digests, left);
+            depths[size - 2] = Math.max(depths[size - 2], depths[size - 1]) + 1;
+            size--;
+        }
+    }
+
+    /**
+     * @return the root hash of the tree formed by the leaves appended so far. The frontier itself is not modified.
+     * @throws TreeConstructionFailedException if there are no items in the frontier.
+     */
+    public IHash getRoot() throws TreeConstructionFailedException {
+        if (size == 0) {
+            throw new TreeConstructionFailedException("Construction failed: There are no items in the tree.");
+        }
+        byte[] root = Arrays.copyOfRange(digests, (size - 1) * digestLength, size * digestLength);
+        for (int i = size - 2; i >= 0; i--) {
+            engine.merge(digests, i * digestLength, root, 0, root, 0);
+        }
+        return HashUtils.createHashFromDigest(root, hashAlgorithm);
+    }
+
+    /**
+     * @return the roots of the dangling subtrees from the left, i.e. the nodes of the tree covering all the leaves
+     *         appended so far.
+     */
+    public List<IHash> getSubtreeRoots() {
+        List<IHash> roots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            roots.add(HashUtils.createHashFromDigest(digests, i * digestLength, digestLength, hashAlgorithm));
+        }
+        return roots;
+    }
+
+    /**
+     * @return hash algorithm for hashing the events and merging the nodes.
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @return number of leaves appended so far.
+     */
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return true if nothing is appended since the creation or the last reset.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Discards everything appended so far.
+     */
+    public void reset() {
+        size = 0;
+        leafCount = 0;
+    }
+
+    /**
+     * Writes the frontier in a compact binary form: the leaf count, the number of subtree roots and then the depth and
+     * the digest of each root, from the left. The hash algorithm is not written, it is up to the caller to keep it.
+     * @param out output to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(leafCount);
+        out.writeShort(size);
+        for (int i = 0; i < size; i++) {
+            out.writeShort(depths[i]);
+            out.write(digests, i * digestLength, digestLength);
+        }
+    }
+
+    /**
+     * Reads a frontier written with {@link #writeTo(DataOutput)}.
+     * @param in            input to read from.
+     * @param hashAlgorithm hash algorithm of the frontier.
+     * @return the frontier read.
+     * @throws IOException if reading fails or the input is not a frontier.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     */
+    public static HashFrontier readFrom(DataInput in, String hashAlgorithm) throws IOException,
+            NoSuchAlgorithmException {
+        HashFrontier frontier = new HashFrontier(hashAlgorithm);
+        long leafCount = in.readLong();
+        int size = in.readUnsignedShort();
+        if (leafCount < 0 || (size == 0) != (leafCount == 0)) {
+            throw new IOException("Corrupted frontier: " + size + " subtrees of " + leafCount + " leaves");
+        }
+        frontier.depths = new int[Math.max(16, size)];
+        frontier.digests = new byte[frontier.depths.length * frontier.digestLength];
+        for (int i = 0; i < size; i++) {
+            frontier.depths[i] = in.readUnsignedShort();
+            in.readFully(frontier.digests, i * frontier.digestLength, frontier.digestLength);
+        }
+        frontier.size = size;
+        frontier.leafCount = leafCount;
+        return frontier;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        try {
+            engine = HashEngine.forAlgorithm(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
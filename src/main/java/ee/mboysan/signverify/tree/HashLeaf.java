@@ -1,5 +1,7 @@
 package ee.mboysan.signverify.tree;
 
+import ee.mboysan.signverify.hashing.IHash;
+
 /**
  * Represents a leaf of the tree.
  */
@@ -8,4 +10,8 @@ class HashLeaf extends HashNode {
     HashLeaf(String event, String hashAlgorithm) throws Exception {
         super(event, hashAlgorithm);
     }
+
+    HashLeaf(IHash hash) {
+        super(hash);
+    }
 }
@@ -22,6 +22,11 @@ public class HashNode {
      */
     private int depth = 0;
 
+    /**
+     * number of leaves of the subtree of this node, so that a leaf is found by its position in logarithmic time.
+     */
+    private int leafCount = 1;
+
     /**
      * The node's hash.
      */
@@ -37,6 +42,15 @@ public class HashNode {
         this.hash = HashUtils.createHash(event, hashAlgorithm);
     }
 
+    /**
+     * Constructs a detached node (i.e. without parent and children) that only carries the given hash. Used by the tree
+     * implementations that do not keep node objects.
+     * @param hash hash of the node.
+     */
+    HashNode(IHash hash) {
+        this.hash = hash;
+    }
+
     /**
      * Constructs a parent node from the given nodes. This has a side effect of modifying the provided nodes' parent
      * to this node. The parent node's hash is calculated by concatenating the hashes like
@@ -51,6 +65,7 @@ public class HashNode {
         leftNode.parentNode = this;
         rightNode.parentNode = this;
         this.depth = Math.max(leftNode.getDepth(), rightNode.getDepth()) + 1;
+        this.leafCount = leftNode.leafCount + rightNode.leafCount;
 
         this.hash = HashUtils.mergeHashes(leftNode.hash, rightNode.hash);
 
@@ -84,6 +99,13 @@ public class HashNode {
         return depth;
     }
 
+    /**
+     * @return see {@link #leafCount}.
+     */
+    int getLeafCount() {
+        return leafCount;
+    }
+
     /**
      * @return see {@link #hash}.
      */
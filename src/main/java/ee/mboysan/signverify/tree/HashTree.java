@@ -4,18 +4,21 @@ import ee.mboysan.signverify.exceptions.HashNotFoundException;
 import ee.mboysan.signverify.exceptions.TreeConstructionFailedException;
 import ee.mboysan.signverify.hashing.HashUtils;
 import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.hashing.ProofVerifier;
 
 import java.util.*;
 
 /**
  * Merkle Tree / Binary Hash tree implementation.
  */
-public abstract class HashTree {
+public abstract class HashTree implements AutoCloseable {
 
     /**
      * Determines the operation mode of the tree.
      * @see HashTreeCpuImpl
      * @see HashTreeMemImpl
+     * @see HashTreeFlatImpl
+     * @see HashTreeMappedImpl
      * @see OperationMode
      */
     public static OperationMode OPERATION_MODE = OperationMode.MEM;
@@ -36,6 +39,35 @@ public abstract class HashTree {
         this.hashAlgorithm = hashAlgorithm;
     }
 
+    /**
+     * @return see {@link #hashAlgorithm}.
+     */
+    String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * hashes the event and adds it to the tree being built as a new leaf.
+     */
+    void appendEvent(String event) throws Exception {
+        addNode(new HashLeaf(event, hashAlgorithm));
+    }
+
+    /**
+     * adds a new leaf with the already calculated digest of an event to the tree being built.
+     * @param digest digest of the event. The array is not kept by the tree, so it can be reused by the caller.
+     */
+    void appendLeafDigest(byte[] digest) throws Exception {
+        addNode(new HashLeaf(HashUtils.createHashFromDigest(digest, hashAlgorithm)));
+    }
+
+    /**
+     * tells the number of leaves the tree being built will have, so that it can be prepared for them. Ignored by
+     * default.
+     */
+    void expectLeafCount(long leafCount) {
+    }
+
     /**
      * adds a new node to the tree being built.
      */
@@ -78,7 +110,7 @@ public abstract class HashTree {
     /**
      * constructs a hash tree from the {@link #nodeStack}.
      */
-    private HashTree construct() throws Exception {
+    HashTree construct() throws Exception {
         if (nodeStack.isEmpty()) {
             throw new TreeConstructionFailedException("Construction failed: There are no items in the tree.");
         }
@@ -97,13 +129,66 @@ public abstract class HashTree {
     }
 
     /**
-     * Finds a node that represents the given hash.
+     * Finds a node that represents the given hash. In all the operation modes, any node of the tree is found, a leaf
+     * or an inner node, so that the hash chain of a subtree can be extracted as well.
      * @param hash hash to search.
      * @return node representing the hash.
-     * @throws HashNotFoundException if node not found.
+     * @throws HashNotFoundException if no node of the tree has the hash.
      */
     abstract HashNode findNode(IHash hash) throws HashNotFoundException;
 
+    /**
+     * Finds the n-th leaf (in the order of the events) that represents the given hash. By default, the leaves are
+     * visited in order.
+     * @param hash       hash to search.
+     * @param occurrence zero based occurrence of the hash among the leaves, for events that occur more than once.
+     * @return the leaf representing the hash.
+     * @throws HashNotFoundException if the leaf is not found.
+     */
+    HashNode findLeaf(IHash hash, int occurrence) throws HashNotFoundException {
+        Deque<HashNode> toVisit = new ArrayDeque<>();
+        if (getRoot() != null) {
+            toVisit.push(getRoot());
+        }
+        int found = 0;
+        while (!toVisit.isEmpty()) {
+            HashNode node = toVisit.pop();
+            if (node.getLeftNode() == null && node.getRightNode() == null) {
+                if (node.getHash().equals(hash) && found++ == occurrence) {
+                    return node;
+                }
+                continue;
+            }
+            if (node.getRightNode() != null) {
+                toVisit.push(node.getRightNode());
+            }
+            if (node.getLeftNode() != null) {
+                toVisit.push(node.getLeftNode());
+            }
+        }
+        throw new HashNotFoundException("[" + hash + "](" + occurrence + ")");
+    }
+
+    /**
+     * Finds the leaf of the event with the given position. By default, the tree is walked down from the root by the
+     * leaf counts of the left subtrees, i.e. in time proportional to the depth of the tree.
+     * @param leafIndex zero based position of the leaf, checked by the caller.
+     * @return the leaf.
+     */
+    HashNode leafAt(long leafIndex) {
+        HashNode node = getRoot();
+        while (node.getLeftNode() != null) {
+            int leftLeaves = node.getLeftNode().getLeafCount();
+            if (leafIndex < leftLeaves) {
+                node = node.getLeftNode();
+            } else {
+                leafIndex -= leftLeaves;
+                node = node.getRightNode();
+            }
+        }
+        return node;
+    }
+
     /**
      * add hashes of the siblings starting from the leaf.
      */
@@ -134,13 +219,49 @@ public abstract class HashTree {
     }
 
     /**
-     * Extracts the hash chain for a given event.
+     * Extracts the hash chain for a given event, or for an inner node of the tree, see {@link #findNode(IHash)}.
      * @param eventHash leaf/node hash to extract hash chain for.
      * @return a list of hashes from leaf hash to root hash. [leafHash, [c1,[c2,...]], rootHash]
      * @throws HashNotFoundException if hash is not found.
      */
     public List<IHash> extractHashChain(IHash eventHash) throws HashNotFoundException {
-        HashNode node = findNode(eventHash);
+        return extractHashChain(eventHash, findNode(eventHash));
+    }
+
+    /**
+     * Hashes the eventToCheck and calls {@link #extractHashChain(IHash, int)}.
+     */
+    public List<IHash> extractHashChain(String eventToCheck, int occurrence) throws HashNotFoundException, Exception {
+        return extractHashChain(HashUtils.createHash(eventToCheck, hashAlgorithm), occurrence);
+    }
+
+    /**
+     * Extracts the hash chain for the n-th occurrence of an event that is logged more than once.
+     * @param eventHash  leaf hash to extract hash chain for.
+     * @param occurrence zero based occurrence of the event.
+     * @return a list of hashes from leaf hash to root hash. [leafHash, [c1,[c2,...]], rootHash]
+     * @throws HashNotFoundException if the n-th occurrence of the hash is not found.
+     */
+    public List<IHash> extractHashChain(IHash eventHash, int occurrence) throws HashNotFoundException {
+        return extractHashChain(eventHash, findLeaf(eventHash, occurrence));
+    }
+
+    /**
+     * Extracts the hash chain of the event with the given position, i.e. of the line with the given number, without
+     * hashing the event or searching its hash.
+     * @param leafIndex zero based position of the event.
+     * @return a list of hashes from leaf hash to root hash. [leafHash, [c1,[c2,...]], rootHash]
+     * @throws IndexOutOfBoundsException if there is no event at the position.
+     */
+    public List<IHash> extractHashChain(long leafIndex) {
+        if (getRoot() == null || leafIndex < 0 || leafIndex >= getLeafCount()) {
+            throw new IndexOutOfBoundsException("leaf: " + leafIndex + ", leaves: " + getLeafCount());
+        }
+        HashNode leaf = leafAt(leafIndex);
+        return extractHashChain(leaf.getHash(), leaf);
+    }
+
+    private List<IHash> extractHashChain(IHash eventHash, HashNode node) {
         List<IHash> hashes = new ArrayList<>();
         _extractHashChain(node, hashes);
         hashes.add(0, eventHash);   // include leaf's hash as the first element
@@ -156,7 +277,8 @@ public abstract class HashTree {
     }
 
     /**
-     * Checks if a given eventHash is a member of the hash tree.
+     * Checks if a given eventHash is a member of the hash tree, i.e. the hash of a leaf or of an inner node (see
+     * {@link #findNode(IHash)}).
      * @param eventHash hash of the event to check for validity.
      * @return true if event is included in the tree, false otherwise.
      * @throws Exception if hash not found or a problem occurs while checking for validity of the event.
@@ -166,14 +288,7 @@ public abstract class HashTree {
         if (hashChain == null || hashChain.get(0) == null || !hashChain.get(0).equals(eventHash)) {
             throw new HashNotFoundException("Hash is invalid: [" + eventHash + "]");
         }
-        IHash mergedHash = hashChain.remove(0); // leaf's hash
-        IHash rootHash = hashChain.remove(hashChain.size() - 1);
-        for (IHash iHash : hashChain) {
-            mergedHash = iHash.getPosition() == IHash.Position.RIGHT
-                    ? HashUtils.mergeHashes(mergedHash, iHash)
-                    : HashUtils.mergeHashes(iHash, mergedHash);
-        }
-        return getRoot().getHash().equals(rootHash) && getRoot().getHash().equals(mergedHash);
+        return ProofVerifier.verify(hashChain, hashAlgorithm, getRoot().getHash());
     }
 
 
@@ -217,6 +332,14 @@ public abstract class HashTree {
         visualize(leftNode, distFromRoot + 1, sb, hashStrLength);
     }
 
+    /**
+     * Releases the resources held by the tree, if any. The tree is not guaranteed to be usable afterwards.
+     */
+    @Override
+    public void close() {
+        // nothing to release by default.
+    }
+
     public String visualize() throws Exception {
         String testHashStr = HashUtils.createHash("test", hashAlgorithm).toString();
         return visualize(testHashStr.length());
@@ -239,7 +362,14 @@ public abstract class HashTree {
      * @return a new hash tree builder with the provided hash algorithm.
      */
     static HashTreeBuilder builder(String hashAlgorithm) {
-        return new HashTreeBuilder(hashAlgorithm);
+        return builder(hashAlgorithm, OPERATION_MODE);
+    }
+
+    /**
+     * @return a new hash tree builder with the provided hash algorithm, building a tree of the given operation mode.
+     */
+    static HashTreeBuilder builder(String hashAlgorithm, OperationMode operationMode) {
+        return new HashTreeBuilder(hashAlgorithm, operationMode);
     }
 
     static class HashTreeBuilder {
@@ -247,22 +377,40 @@ public abstract class HashTree {
         private HashTree hashTree;
         private boolean isBuilt = false;
 
-        private HashTreeBuilder(String hashAlgorithm){
-            switch (OPERATION_MODE) {
+        private HashTreeBuilder(String hashAlgorithm, OperationMode operationMode){
+            switch (operationMode) {
                 case CPU:
                     this.hashTree = new HashTreeCpuImpl(hashAlgorithm);
                     return;
                 case MEM:
                     this.hashTree = new HashTreeMemImpl(hashAlgorithm);
                     return;
+                case FLAT:
+                    this.hashTree = new HashTreeFlatImpl(hashAlgorithm);
+                    return;
+                case MMAP:
+                    this.hashTree = new HashTreeMappedImpl(hashAlgorithm);
+                    return;
                 default:
                     throw new IllegalArgumentException("Operation mode not recognized!");
             }
         }
 
+        HashTreeBuilder expectLeafCount(long leafCount) {
+            validateAction();
+            hashTree.expectLeafCount(leafCount);
+            return this;
+        }
+
         HashTreeBuilder appendEvent(String event) throws Exception {
             validateAction();
-            hashTree.addNode(new HashLeaf(event, hashTree.hashAlgorithm));
+            hashTree.appendEvent(event);
+            return this;
+        }
+
+        HashTreeBuilder appendLeafDigest(byte[] digest) throws Exception {
+            validateAction();
+            hashTree.appendLeafDigest(digest);
             return this;
         }
 
@@ -291,6 +439,21 @@ public abstract class HashTree {
         MEM,
 
         /** CPU intensive. */
-        CPU
+        CPU,
+
+        /** Compact, node digests are kept in large arrays instead of node objects. */
+        FLAT,
+
+        /** Off-heap, same as {@link #FLAT} but node digests are kept in memory-mapped files. */
+        MMAP;
+
+        /**
+         * @return the operation mode of the small trees that are built separately and then merged into a tree of
+         *         this mode.
+         */
+        OperationMode subtreeMode() {
+            // no need to map a file for every small subtree, they are copied to the mapped file when merged.
+            return this == MMAP ? FLAT : this;
+        }
     }
 }
@@ -1,47 +1,124 @@
 package ee.mboysan.signverify.tree;
 
+import ee.mboysan.signverify.hashing.HashEngine;
 import ee.mboysan.signverify.hashing.HashUtils;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 /**
- * Builds and aggregates trees.
+ * Builds and aggregates trees. The trees are built in parallel and merged in order as soon as they are built, so only
+ * a bounded number of event lists and trees are pending at once (see {@link #maxInFlight}). When the limit is reached,
+ * adding more events blocks until the oldest tree is built. The trees are built on the given executor, by default on the
+ * pool shared by the process (see {@link Workers}), which is not shut down with the aggregator.
  * <b>NB! </b> not thread safe. Protect it on your own.
  */
 public class HashTreeAggregator implements AutoCloseable {
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-    private final List<Future<HashTree>> hashTreeFutures = new ArrayList<>();
+    private final Executor executor;
+    /** trees being built, in the order of the events. */
+    private final Deque<Future<HashTree>> hashTreeFutures = new ArrayDeque<>();
+    /** max number of trees being built at once. */
+    private final int maxInFlight;
 
     private final String hashAlgorithm;
+    private final HashTree.OperationMode operationMode = HashTree.OPERATION_MODE;
 
     /** the final tree representing all the merged trees */
     private HashTree aggregatedTree = null;
+    /** builder of the next {@link #aggregatedTree} that the built trees are merged into, null if nothing is merged. */
+    private HashTree.HashTreeBuilder treeBuilder = null;
 
     public HashTreeAggregator() {
         this(HashUtils.getDefaultHashAlgorithm());
     }
 
     public HashTreeAggregator(String hashAlgorithm) {
+        this(hashAlgorithm, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param hashAlgorithm hash algorithm for building the trees.
+     * @param maxInFlight   see {@link #maxInFlight}.
+     */
+    public HashTreeAggregator(String hashAlgorithm, int maxInFlight) {
+        this(hashAlgorithm, maxInFlight, Workers.defaultExecutor());
+    }
+
+    /**
+     * @param hashAlgorithm hash algorithm for building the trees.
+     * @param executor      executor to build the trees on.
+     */
+    public HashTreeAggregator(String hashAlgorithm, Executor executor) {
+        this(hashAlgorithm, 2 * Runtime.getRuntime().availableProcessors(), executor);
+    }
+
+    /**
+     * @param hashAlgorithm hash algorithm for building the trees.
+     * @param maxInFlight   see {@link #maxInFlight}.
+     * @param executor      executor to build the trees on.
+     */
+    public HashTreeAggregator(String hashAlgorithm, int maxInFlight, Executor executor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
         this.hashAlgorithm = hashAlgorithm;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
     }
 
     /**
-     * Creates a tree build job with the given list of events.
+     * Creates a tree build job with the given list of events. Blocks while {@link #maxInFlight} trees are being built.
      * @param events list of events for building a single tree.
      * @return this
+     * @throws Exception if building or merging a previous tree fails.
      */
-    public HashTreeAggregator aggregateEvents(List<String> events) {
-        Future<HashTree> f = executor.submit(new TreeBuildJob(events));
-        hashTreeFutures.add(f);
+    public HashTreeAggregator aggregateEvents(List<String> events) throws Exception {
+        return submit(new TreeBuildJob(events));
+    }
+
+    /**
+     * Creates a tree build job with the given events, hashing the raw bytes of each event. Blocks while
+     * {@link #maxInFlight} trees are being built.
+     * @param events events for building a single tree.
+     * @return this
+     * @throws Exception if building or merging a previous tree fails.
+     */
+    public HashTreeAggregator aggregateRawEvents(RawEvents events) throws Exception {
+        return submit(new RawTreeBuildJob(events));
+    }
+
+    private HashTreeAggregator submit(Callable<HashTree> job) throws Exception {
+        // merge the trees already built, then wait for the oldest ones if there are too many pending.
+        while (!hashTreeFutures.isEmpty() && hashTreeFutures.peek().isDone()) {
+            mergeOldest();
+        }
+        while (hashTreeFutures.size() >= maxInFlight) {
+            mergeOldest();
+        }
+        hashTreeFutures.add(Workers.submit(executor, job));
         return this;
     }
 
+    /**
+     * waits for the oldest tree to be built and merges it.
+     */
+    private void mergeOldest() throws Exception {
+        HashTree ht = Workers.await(hashTreeFutures.poll());
+        if (treeBuilder == null) {
+            treeBuilder = HashTree.builder(hashAlgorithm, operationMode);
+            treeBuilder.mergeTree(aggregatedTree);
+        }
+        treeBuilder.mergeTree(ht);
+    }
+
     /**
      * Ends the current tree build jobs, collects the built trees and merges them. Note that you can still continue
      * using {@link #aggregateEvents(List)} after calling this method.
@@ -49,14 +126,15 @@ public class HashTreeAggregator implements AutoCloseable {
      * @throws Exception if aggregation fails.
      */
     public HashTreeAggregator endAggregation() throws Exception {
-        HashTree.HashTreeBuilder treeBuilder = HashTree.builder(hashAlgorithm);
-        treeBuilder.mergeTree(aggregatedTree);
-        for (Future<HashTree> htf : hashTreeFutures) {
-            HashTree ht = htf.get();
-            treeBuilder.mergeTree(ht);
+        while (!hashTreeFutures.isEmpty()) {
+            mergeOldest();
+        }
+        if (treeBuilder == null) {
+            treeBuilder = HashTree.builder(hashAlgorithm, operationMode);
+            treeBuilder.mergeTree(aggregatedTree);
         }
         aggregatedTree = treeBuilder.build();
-        hashTreeFutures.clear();
+        treeBuilder = null;
         return this;
     }
 
@@ -69,8 +147,11 @@ public class HashTreeAggregator implements AutoCloseable {
 
     @Override
     public void close() {
-        // stop accepting new requests.
-        executor.shutdown();
+        // the executor is shared, only drop the trees still being built.
+        for (Future<HashTree> future : hashTreeFutures) {
+            future.cancel(false);
+        }
+        hashTreeFutures.clear();
     }
 
     /**
@@ -85,7 +166,8 @@ public class HashTreeAggregator implements AutoCloseable {
 
         @Override
         public HashTree call() throws Exception {
-            HashTree.HashTreeBuilder tb = HashTree.builder(hashAlgorithm);
+            HashTree.HashTreeBuilder tb = HashTree.builder(hashAlgorithm, operationMode.subtreeMode())
+                    .expectLeafCount(events.size());
             for (String event : events) {
                 tb.appendEvent(event);
             }
@@ -93,4 +175,31 @@ public class HashTreeAggregator implements AutoCloseable {
         }
     }
 
+    /**
+     * Same as {@link TreeBuildJob}, but for events given as raw bytes.
+     */
+    private class RawTreeBuildJob implements Callable<HashTree> {
+        private final RawEvents events;
+
+        private RawTreeBuildJob(RawEvents events) {
+            this.events = events;
+        }
+
+        @Override
+        public HashTree call() throws Exception {
+            HashEngine engine = HashEngine.forAlgorithm(hashAlgorithm);
+            int digestLength = engine.getDigestLength();
+            byte[] digests = new byte[events.size() * digestLength];
+            events.hashAll(engine, digests);
+            byte[] digest = new byte[digestLength];
+            HashTree.HashTreeBuilder tb = HashTree.builder(hashAlgorithm, operationMode.subtreeMode())
+                    .expectLeafCount(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                System.arraycopy(digests, i * digestLength, digest, 0, digestLength);
+                tb.appendLeafDigest(digest);
+            }
+            return tb.build();
+        }
+    }
+
 }
@@ -3,39 +3,292 @@ package ee.mboysan.signverify.tree;
 import ee.mboysan.signverify.exceptions.HashNotFoundException;
 import ee.mboysan.signverify.hashing.IHash;
 
-import java.util.Optional;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Performs CPU intensive tree operations.
- * @see #_findNode(HashNode, IHash)
+ * Performs CPU intensive tree operations. Nothing but the nodes is kept, apart from a Bloom filter of the hashes of
+ * the nodes (see {@link ScalableDigestFilter}), at about 2.5 bytes per leaf if the number of leaves is known in
+ * advance and up to about twice that otherwise, which rejects most of the hashes that are not in the tree without
+ * searching it.
+ * <p>
+ * The filter is built as the nodes are added. The filter of a merged tree is taken over if the tree is at least as
+ * large as this one, otherwise the hashes of its nodes are added while they are still in the cache. Only if the filter
+ * grows too many stages, or a large tree without a filter is merged, is it dropped and built with a traversal of the
+ * tree on the next lookup.
+ * <p>
+ * The nodes are searched in parallel on the shared pool (see {@link Workers#pool()}), see {@link FindTask}.
  */
 class HashTreeCpuImpl extends HashTree {
 
+    /** subtrees of at most this height (i.e. of at most 2^height leaves) are searched sequentially. */
+    static int SEQUENTIAL_HEIGHT = 12;
+    /** height up to which the pre-order keys of the nodes fit in a long, higher trees are searched sequentially. */
+    private static final int MAX_KEYED_HEIGHT = 63;
+
+    /** above this many stages, the filter is built again with a single stage on the next lookup. */
+    static int MAX_STAGES = 24;
+
+    /** filter of the hashes of all the nodes, null if it is to be built with a traversal on the next lookup. */
+    private volatile ScalableDigestFilter filter = new ScalableDigestFilter(ScalableDigestFilter.INITIAL_CAPACITY);
+    /** above zero while adding a node whose descendants are in the filter already. */
+    private int childrenInFilter;
 
     HashTreeCpuImpl(String hashAlgorithm) {
         super(hashAlgorithm);
     }
 
+    @Override
+    void expectLeafCount(long leafCount) {
+        ScalableDigestFilter current = filter;
+        if (current != null && current.count() == 0) {
+            filter = new ScalableDigestFilter(2 * leafCount - 1);
+        }
+    }
+
+    @Override
+    void addNode(HashNode node) throws Exception {
+        ScalableDigestFilter current = filter;
+        if (current != null) {
+            if (childrenInFilter > 0) {
+                current.add(node.getHash());
+            } else {
+                addAll(current, node);
+            }
+        }
+        // the parents created by merging the nodes are added through here, their children are in the filter.
+        childrenInFilter++;
+        try {
+            super.addNode(node);
+        } finally {
+            childrenInFilter--;
+        }
+    }
+
+    @Override
+    void merge(HashTree other) throws Exception {
+        ScalableDigestFilter current = filter;
+        if (other == null || other.getRoot() == null || current == null) {
+            super.merge(other);
+            return;
+        }
+        ScalableDigestFilter otherFilter = other instanceof HashTreeCpuImpl ? ((HashTreeCpuImpl) other).filter : null;
+        if (otherFilter != null && otherFilter.count() >= current.count()) {
+            current.addAll(otherFilter);
+            if (current.stageCount() > MAX_STAGES) {
+                filter = null;
+            }
+        } else if (otherFilter == null && other.getLeafCount() >= getLeafCount()) {
+            filter = null;
+        } else {
+            // the nodes of the other tree are added with addNode().
+            super.merge(other);
+            return;
+        }
+        childrenInFilter++;
+        try {
+            super.merge(other);
+        } finally {
+            childrenInFilter--;
+        }
+    }
+
+    @Override
+    HashTree construct() throws Exception {
+        super.construct();
+        ScalableDigestFilter current = filter;
+        if (current != null) {
+            // the parents of the dangling nodes form the right edge of the tree, down to the first full subtree.
+            HashNode node = getRoot();
+            while (node.getLeafCount() != 1L << node.getDepth()) {
+                current.add(node.getHash());
+                node = node.getRightNode();
+            }
+        }
+        return this;
+    }
+
     @Override
     HashNode findNode(IHash hash) throws HashNotFoundException {
-        if (getRoot() == null) {
+        if (getRoot() == null || !filter().mightContain(hash)) {
             throw new HashNotFoundException("[" + hash + "](1)");
         }
-        return _findNode(getRoot(), hash).orElseThrow(() -> new HashNotFoundException("[" + hash + "](2)"));
+        HashNode root = getRoot();
+        HashNode found = root.getDepth() <= SEQUENTIAL_HEIGHT || root.getDepth() > MAX_KEYED_HEIGHT
+                ? FindTask.scan(root, 0, 0, hash, null)
+                : Workers.pool().invoke(new FindTask(root, 0, 0, hash, new AtomicLong(Long.MAX_VALUE)));
+        if (found == null) {
+            throw new HashNotFoundException("[" + hash + "](2)");
+        }
+        return found;
+    }
+
+    @Override
+    HashNode findLeaf(IHash hash, int occurrence) throws HashNotFoundException {
+        if (getRoot() != null && !filter().mightContain(hash)) {
+            throw new HashNotFoundException("[" + hash + "](" + occurrence + ")");
+        }
+        return super.findLeaf(hash, occurrence);
     }
 
     /**
-     * depth-first search.
+     * @return true if the filter is built, i.e. the next lookup does not need a traversal of the tree.
      */
-    private Optional<HashNode> _findNode(HashNode node, IHash hashToFind) {
-        if (node == null) {
-            return Optional.empty();
+    boolean isFilterBuilt() {
+        return filter != null;
+    }
+
+    /**
+     * @return the filter of the hashes of the nodes, built with a traversal of the tree if it was dropped.
+     */
+    ScalableDigestFilter filter() {
+        ScalableDigestFilter result = filter;
+        if (result == null) {
+            synchronized (this) {
+                result = filter;
+                if (result == null) {
+                    result = new ScalableDigestFilter(2L * getLeafCount() - 1);
+                    addAll(result, getRoot());
+                    filter = result;
+                }
+            }
         }
-        if (node.getHash().equals(hashToFind)) {
-            return Optional.of(node);
+        return result;
+    }
+
+    /**
+     * adds the hashes of the nodes of the subtree to the filter.
+     */
+    private static void addAll(ScalableDigestFilter filter, HashNode subtreeRoot) {
+        Deque<HashNode> toVisit = new ArrayDeque<>();
+        toVisit.push(subtreeRoot);
+        while (!toVisit.isEmpty()) {
+            HashNode node = toVisit.pop();
+            filter.add(node.getHash());
+            if (node.getLeftNode() != null) {
+                toVisit.push(node.getLeftNode());
+            }
+            if (node.getRightNode() != null) {
+                toVisit.push(node.getRightNode());
+            }
+        }
+    }
+
+    /**
+     * Finds the first node of the hash in pre-order, i.e. the same node as a sequential depth-first search that visits
+     * a node before its children and the left child before the right one. The subtrees are searched in parallel down
+     * to {@link #SEQUENTIAL_HEIGHT}, below which they are scanned iteratively.
+     * <p>
+     * The nodes are ordered by their key, the path from the root as bits (left = 0, right = 1) starting from the
+     * highest bit below the sign bit, which follows the pre-order of nodes that do not descend from one another. The
+     * smallest key of a match found so far is shared by the tasks, so a task, or a scan, stops as soon as a match before
+     * all of its nodes is found: on a match, all the nodes to the right of it are skipped. A node is checked before its
+     * subtree is searched, so a node and its descendant never both match.
+     */
+    private static final class FindTask extends RecursiveTask<HashNode> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HashNode node;
+        /** distance of the node from the root. */
+        private final int level;
+        private final long key;
+        private final IHash hash;
+        /** smallest key of a match found so far, Long.MAX_VALUE if none. */
+        private final AtomicLong best;
+
+        FindTask(HashNode node, int level, long key, IHash hash, AtomicLong best) {
+            this.node = node;
+            this.level = level;
+            this.key = key;
+            this.hash = hash;
+            this.best = best;
+        }
+
+        @Override
+        protected HashNode compute() {
+            if (best.get() < key) {
+                return null;
+            }
+            if (node.getDepth() <= SEQUENTIAL_HEIGHT) {
+                return scan(node, level, key, hash, best);
+            }
+            if (node.getHash().equals(hash)) {
+                found(best, key);
+                return node;
+            }
+            FindTask right = new FindTask(node.getRightNode(), level + 1, key | childBit(level), hash, best);
+            right.fork();
+            HashNode found = new FindTask(node.getLeftNode(), level + 1, key, hash, best).compute();
+            if (found != null) {
+                // the right subtree stops on its own as it only has greater keys.
+                right.cancel(false);
+                return found;
+            }
+            return right.join();
+        }
+
+        /**
+         * iterative depth-first search of the subtree of the node.
+         * @param best smallest key of a match found by the other tasks, null if there are no other tasks.
+         * @return the first node of the hash in pre-order, null if not found or a match before the subtree is found.
+         */
+        static HashNode scan(HashNode start, int level, long key, IHash hash, AtomicLong best) {
+            // a node is replaced by its children, so there is at most one node per level in the stack, plus one.
+            int capacity = start.getDepth() + 2;
+            HashNode[] nodes = new HashNode[capacity];
+            long[] keys = new long[capacity];
+            int[] levels = new int[capacity];
+            nodes[0] = start;
+            keys[0] = key;
+            levels[0] = level;
+            int size = 1;
+            while (size > 0) {
+                size--;
+                HashNode node = nodes[size];
+                nodes[size] = null;
+                long nodeKey = keys[size];
+                int nodeLevel = levels[size];
+                if (best != null && best.get() < nodeKey) {
+                    // the keys only grow from here.
+                    return null;
+                }
+                if (node.getHash().equals(hash)) {
+                    if (best != null) {
+                        found(best, nodeKey);
+                    }
+                    return node;
+                }
+                if (node.getRightNode() != null) {
+                    nodes[size] = node.getRightNode();
+                    keys[size] = best != null ? nodeKey | childBit(nodeLevel) : 0;
+                    levels[size++] = nodeLevel + 1;
+                }
+                if (node.getLeftNode() != null) {
+                    nodes[size] = node.getLeftNode();
+                    keys[size] = nodeKey;
+                    levels[size++] = nodeLevel + 1;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the bit of the key of the right child of a node at the given level.
+         */
+        private static long childBit(int level) {
+            return 1L << (MAX_KEYED_HEIGHT - 1 - level);
+        }
+
+        private static void found(AtomicLong best, long key) {
+            long current;
+            while (key < (current = best.get())) {
+                if (best.compareAndSet(current, key)) {
+                    return;
+                }
+            }
         }
-        Optional<HashNode> op1 = _findNode(node.getLeftNode(), hashToFind);
-        Optional<HashNode> op2 = _findNode(node.getRightNode(), hashToFind);
-        return op1.isPresent() ? op1 : op2;
     }
 }
@@ -0,0 +1,375 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.exceptions.TreeConstructionFailedException;
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact tree that keeps no node objects. Every node is a fixed length record <code>[digest | leafCount]</code> kept
+ * in a {@link NodeStore} (by default a few large byte arrays, see {@link HeapNodeStore}) in the order the nodes are
+ * created. Since a parent is always created right after its right subtree, which in turn is created right after its
+ * left subtree, this is the post-order of the tree, so the children of the node at index <code>i</code> are found by
+ * index arithmetic:
+ * <pre>
+ *     right child = i - 1
+ *     left child  = i - 1 - (2 * leafCount(right child) - 1)
+ * </pre>
+ * The construction follows exactly the same rules (i.e. the node stack) of {@link HashTree}, so the produced root
+ * hashes are the same as of the other operation modes.
+ */
+class HashTreeFlatImpl extends HashTree {
+
+    private final HashEngine engine;
+    private final int digestLength;
+
+    /** node records, created lazily so that the store of the first merged tree can be taken over. */
+    private NodeStore store;
+    /** false if the store was taken over by another tree. */
+    private boolean ownsStore = true;
+
+    /** number of records that belong to this tree. */
+    private long nodeCount = 0;
+
+    /** record indexes and depths of the dangling subtree roots, i.e. the node stack. */
+    private long[] stackNodes = new long[16];
+    private int[] stackDepths = new int[16];
+    private int stackSize = 0;
+
+    /** number of leaves/events. */
+    private long leafCount = 0;
+
+    /** record index and depth of the root, set once the tree is constructed. */
+    private long rootIndex = -1;
+    private int rootDepth;
+    private HashNode root;
+
+    /** scratch buffers for hashing. */
+    private final byte[] leftDigest;
+    private final byte[] rightDigest;
+    private final byte[] outDigest;
+
+    HashTreeFlatImpl(String hashAlgorithm) {
+        super(hashAlgorithm);
+        try {
+            this.engine = HashEngine.forAlgorithm(hashAlgorithm);
+        } catch (Exception e) {
+            throw new IllegalStateException("Hash algorithm not recognized: " + hashAlgorithm, e);
+        }
+        this.digestLength = engine.getDigestLength();
+        this.leftDigest = new byte[digestLength];
+        this.rightDigest = new byte[digestLength];
+        this.outDigest = new byte[digestLength];
+    }
+
+    /**
+     * @return a new, empty store for the records of this tree.
+     */
+    NodeStore createStore(int digestLength) {
+        return new HeapNodeStore(digestLength);
+    }
+
+    /**
+     * @return true if this tree can keep its records in the given store, i.e. it can take over the store of a tree
+     *         merged into this one instead of copying the records.
+     */
+    boolean canAdopt(NodeStore store) {
+        return store instanceof HeapNodeStore;
+    }
+
+    private NodeStore store() {
+        if (store == null) {
+            store = createStore(digestLength);
+        }
+        return store;
+    }
+
+    @Override
+    void appendEvent(String event) {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        engine.hash(bytes, 0, bytes.length, outDigest, 0);
+        appendLeafDigest(outDigest);
+    }
+
+    @Override
+    void appendLeafDigest(byte[] digest) {
+        long index = newRecord(digest, 1);
+        leafCount++;
+        push(index, 0);
+    }
+
+    /**
+     * The subtree of the node is copied as records in post-order, i.e. the same records as if its leaves were appended
+     * one by one, so a node of one of the trees of node objects can be added as well.
+     */
+    @Override
+    void addNode(HashNode node) {
+        leafCount += appendRecords(node);
+        push(nodeCount - 1, node.getDepth());
+    }
+
+    /**
+     * appends the records of the subtree of the node in post-order.
+     * @return the number of leaves of the subtree.
+     */
+    private long appendRecords(HashNode node) {
+        long leaves = node.getLeftNode() == null
+                ? 1
+                : appendRecords(node.getLeftNode()) + appendRecords(node.getRightNode());
+        newRecord(node.getHash().toByteArray(), leaves);
+        return leaves;
+    }
+
+    @Override
+    void merge(HashTree other) throws Exception {
+        if (other == null) {
+            return;
+        }
+        if (!(other instanceof HashTreeFlatImpl)) {
+            throw new IllegalArgumentException("Merge failed: tree classes do not match: " + other.getClass());
+        }
+        HashTreeFlatImpl toMerge = (HashTreeFlatImpl) other;
+        if (toMerge.rootIndex < 0) {
+            throw new TreeConstructionFailedException("Merge failed: the tree to merge is not constructed.");
+        }
+        long base = nodeCount;
+        if (store == null && toMerge.ownsStore && toMerge.nodeCount == toMerge.store.size() && canAdopt(toMerge.store)) {
+            // take over the records instead of copying them. The other tree stays readable since records are only
+            // appended after its own ones.
+            store = toMerge.store;
+            toMerge.ownsStore = false;
+        } else {
+            store().appendAll(toMerge.store);
+        }
+        nodeCount += toMerge.nodeCount;
+        leafCount += toMerge.leafCount;
+        push(base + toMerge.rootIndex, toMerge.rootDepth);
+    }
+
+    /**
+     * pushes a subtree root to the node stack, merging it with the top of the stack while they are of equal depth.
+     */
+    private void push(long index, int depth) {
+        while (stackSize > 0 && stackDepths[stackSize - 1] == depth) {
+            long left = stackNodes[--stackSize];
+            index = newParent(left, index);
+            depth++;
+        }
+        if (stackSize == stackNodes.length) {
+            stackNodes = Arrays.copyOf(stackNodes, stackSize * 2);
+            stackDepths = Arrays.copyOf(stackDepths, stackSize * 2);
+        }
+        stackNodes[stackSize] = index;
+        stackDepths[stackSize] = depth;
+        stackSize++;
+    }
+
+    @Override
+    HashTree construct() throws Exception {
+        if (stackSize == 0) {
+            throw new TreeConstructionFailedException("Construction failed: There are no items in the tree.");
+        }
+        // merge dangling nodes
+        while (stackSize > 1) {
+            long right = stackNodes[--stackSize];
+            int rightDepth = stackDepths[stackSize];
+            long left = stackNodes[stackSize - 1];
+            int leftDepth = stackDepths[stackSize - 1];
+            stackNodes[stackSize - 1] = newParent(left, right);
+            stackDepths[stackSize - 1] = Math.max(leftDepth, rightDepth) + 1;
+        }
+        stackSize = 0;
+        rootIndex = stackNodes[0];
+        rootDepth = stackDepths[0];
+        root = new HashNode(hashAt(rootIndex));
+        return this;
+    }
+
+    private long newParent(long left, long right) {
+        store.readDigest(left, leftDigest, 0);
+        store.readDigest(right, rightDigest, 0);
+        engine.merge(leftDigest, 0, rightDigest, 0, outDigest, 0);
+        return newRecord(outDigest, store.readLeafCount(left) + store.readLeafCount(right));
+    }
+
+    private long newRecord(byte[] digest, long recordLeafCount) {
+        long index = store().append(digest, 0, recordLeafCount);
+        nodeCount++;
+        return index;
+    }
+
+    @Override
+    HashNode findNode(IHash hash) throws HashNotFoundException {
+        return new HashNode(hashAt(indexOf(hash)));
+    }
+
+    @Override
+    HashNode findLeaf(IHash hash, int occurrence) throws HashNotFoundException {
+        return new HashNode(hashAt(leafIndexOf(hash, occurrence)));
+    }
+
+    /**
+     * linear scan over the leaf records, which are in the order of the events.
+     */
+    private long leafIndexOf(IHash hash, int occurrence) throws HashNotFoundException {
+        byte[] digest = hash.toByteArray();
+        if (digest.length == digestLength) {
+            int found = 0;
+            for (long i = 0; i < nodeCount; i++) {
+                if (store.readLeafCount(i) == 1 && store.digestEquals(i, digest) && found++ == occurrence) {
+                    return i;
+                }
+            }
+        }
+        throw new HashNotFoundException("[" + hash + "](" + occurrence + ")");
+    }
+
+    /**
+     * linear scan over the records.
+     */
+    private long indexOf(IHash hash) throws HashNotFoundException {
+        byte[] digest = hash.toByteArray();
+        if (digest.length == digestLength) {
+            for (long i = 0; i < nodeCount; i++) {
+                if (store.digestEquals(i, digest)) {
+                    return i;
+                }
+            }
+        }
+        throw new HashNotFoundException("[" + hash + "]");
+    }
+
+    @Override
+    public List<IHash> extractHashChain(IHash eventHash) throws HashNotFoundException {
+        return extractHashChain(eventHash, indexOf(eventHash));
+    }
+
+    @Override
+    public List<IHash> extractHashChain(IHash eventHash, int occurrence) throws HashNotFoundException {
+        return extractHashChain(eventHash, leafIndexOf(eventHash, occurrence));
+    }
+
+    /**
+     * The record of the leaf is found by walking down the leaf counts of the records from the root.
+     */
+    @Override
+    public List<IHash> extractHashChain(long leafIndex) {
+        if (rootIndex < 0 || leafIndex < 0 || leafIndex >= leafCount) {
+            throw new IndexOutOfBoundsException("leaf: " + leafIndex + ", leaves: " + leafCount);
+        }
+        long node = rootIndex;
+        while (leafCountAt(node) > 1) {
+            long right = node - 1;
+            long left = right - subtreeSize(right);
+            long leftLeaves = leafCountAt(left);
+            if (leafIndex < leftLeaves) {
+                node = left;
+            } else {
+                leafIndex -= leftLeaves;
+                node = right;
+            }
+        }
+        return extractHashChain(hashAt(node), node);
+    }
+
+    private List<IHash> extractHashChain(IHash eventHash, long target) {
+        List<IHash> hashes = new ArrayList<>();
+        // descend from the root to the target collecting the siblings, then reverse to get them from the leaf.
+        long node = rootIndex;
+        while (node != target) {
+            long right = node - 1;
+            long left = right - subtreeSize(right);
+            IHash sibling;
+            if (target > left) {
+                sibling = hashAt(left);
+                sibling.setPosition(IHash.Position.LEFT);
+                node = right;
+            } else {
+                sibling = hashAt(right);
+                sibling.setPosition(IHash.Position.RIGHT);
+                node = left;
+            }
+            hashes.add(sibling);
+        }
+        Collections.reverse(hashes);
+        hashes.add(0, eventHash);   // include leaf's hash as the first element
+        hashes.add(getRoot().getHash());   // include root's hash as the last element
+        return hashes;
+    }
+
+    @Override
+    public HashNode getRoot() {
+        return root;
+    }
+
+    @Override
+    public int getLeafCount() {
+        return Math.toIntExact(leafCount);
+    }
+
+    @Override
+    public String visualize(int hashStrLength) {
+        StringBuilder sb = new StringBuilder();
+        if (rootIndex >= 0) {
+            visualize(rootIndex, 1, sb, hashStrLength);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * same as the {@link HashTree} visualization, only the children are found by index.
+     */
+    private void visualize(long node, int distFromRoot, StringBuilder sb, int hashStrLength) {
+        if (distFromRoot == 1) {
+            sb.append(hashAt(node).toString(), 0, hashStrLength);
+        }
+        if (leafCountAt(node) == 1) {
+            sb.append(String.format("%n"));
+            return;
+        }
+        long right = node - 1;
+        long left = right - subtreeSize(right);
+        sb.append("-").append(hashAt(right).toString(), 0, hashStrLength);
+        visualize(right, distFromRoot + 1, sb, hashStrLength);
+        for (int i = 0; i < distFromRoot * hashStrLength; i++) {
+            sb.append(" ");
+        }
+        sb.append("\\");
+        sb.append(hashAt(left).toString(), 0, hashStrLength);
+        visualize(left, distFromRoot + 1, sb, hashStrLength);
+    }
+
+    /**
+     * @return number of records of the subtree rooted at the given node.
+     */
+    private long subtreeSize(long node) {
+        return 2 * leafCountAt(node) - 1;
+    }
+
+    private long leafCountAt(long index) {
+        return store.readLeafCount(index);
+    }
+
+    private IHash hashAt(long index) {
+        byte[] digest = new byte[digestLength];
+        store.readDigest(index, digest, 0);
+        return HashUtils.createHashFromDigest(digest, getHashAlgorithm());
+    }
+
+    /**
+     * Releases the store of the records, unless it was taken over by another tree.
+     */
+    @Override
+    public void close() {
+        if (store != null && ownsStore) {
+            store.close();
+        }
+    }
+}
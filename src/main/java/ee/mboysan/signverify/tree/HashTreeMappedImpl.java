@@ -0,0 +1,23 @@
+package ee.mboysan.signverify.tree;
+
+/**
+ * Same as {@link HashTreeFlatImpl}, but the node records live off-heap in a memory-mapped file (see
+ * {@link MappedNodeStore}), so the size of the tree is not bound by the heap. The OS pages the records in when the
+ * tree is queried.
+ */
+class HashTreeMappedImpl extends HashTreeFlatImpl {
+
+    HashTreeMappedImpl(String hashAlgorithm) {
+        super(hashAlgorithm);
+    }
+
+    @Override
+    NodeStore createStore(int digestLength) {
+        return new MappedNodeStore(digestLength);
+    }
+
+    @Override
+    boolean canAdopt(NodeStore store) {
+        return store instanceof MappedNodeStore;
+    }
+}
@@ -1,26 +1,65 @@
 package ee.mboysan.signverify.tree;
 
 import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashUtils;
 import ee.mboysan.signverify.hashing.IHash;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 
 /**
- * Memory intensive tree operations.
+ * Memory intensive tree operations. The leaves are indexed by their hashes (see {@link LeafIndex}) for fast lookups.
+ * The indexes of the merged trees are added in batches and in parallel. The inner nodes are indexed as well, on the
+ * first lookup of a hash that is not of a leaf, since most lookups are of events.
  */
 class HashTreeMemImpl extends HashTree {
 
-    private Map<String, HashNode> nodeMap = new HashMap<>();
+    /**
+     * Number of leaves of the merged trees to collect before merging their indexes, so that the indexes are merged in
+     * parallel without keeping all of them until the tree is built.
+     */
+    private static final int INDEX_BATCH_SIZE = 1 << 18;
+
+    /** leaves in order, i.e. leaf position -> leaf node. */
+    private HashNode[] leaves = new HashNode[16];
+    private int leafSize = 0;
+
+    private final LeafIndex leafIndex = new LeafIndex(position -> leaves[position].getHash());
+
+    /** inner nodes in pre-order and their index, created on the first lookup of a hash that is not of a leaf. */
+    private HashNode[] innerNodes;
+    private volatile LeafIndex innerIndex;
+
+    /** indexes of the merged trees that are not yet added to {@link #leafIndex} and their leaf offsets. */
+    private final List<LeafIndex> pendingIndexes = new ArrayList<>();
+    private int[] pendingOffsets = new int[16];
+    private int pendingLeafCount = 0;
 
     HashTreeMemImpl(String hashAlgorithm) {
         super(hashAlgorithm);
     }
 
     @Override
-    void addNode(HashNode node) throws Exception {
-        nodeMap.put(node.getHash().toString(), node);
-        super.addNode(node);
+    void appendEvent(String event) throws Exception {
+        appendLeaf(new HashLeaf(event, getHashAlgorithm()));
+    }
+
+    @Override
+    void appendLeafDigest(byte[] digest) throws Exception {
+        appendLeaf(new HashLeaf(HashUtils.createHashFromDigest(digest, getHashAlgorithm())));
+    }
+
+    private void appendLeaf(HashLeaf leaf) throws Exception {
+        // the occurrences of a leaf must be indexed in order.
+        addPendingIndexes();
+        ensureLeafCapacity(leafSize + 1);
+        leaves[leafSize] = leaf;
+        leafIndex.add(leaf.getHash(), leafSize);
+        leafSize++;
+        addNode(leaf);
     }
 
     @Override
@@ -32,14 +71,112 @@ class HashTreeMemImpl extends HashTree {
 
     private void _merge(HashTreeMemImpl other) throws Exception {
         super.merge(other);
-        this.nodeMap.putAll(other.nodeMap);
+        int offset = leafSize;
+        ensureLeafCapacity(leafSize + other.leafSize);
+        System.arraycopy(other.leaves, 0, leaves, offset, other.leafSize);
+        leafSize += other.leafSize;
+        // the indexes are merged in batches, in parallel.
+        if (pendingIndexes.size() == pendingOffsets.length) {
+            pendingOffsets = Arrays.copyOf(pendingOffsets, pendingOffsets.length * 2);
+        }
+        pendingOffsets[pendingIndexes.size()] = offset;
+        pendingIndexes.add(other.leafIndex);
+        pendingLeafCount += other.leafSize;
+        if (pendingLeafCount >= INDEX_BATCH_SIZE) {
+            addPendingIndexes();
+        }
+    }
+
+    @Override
+    HashTree construct() throws Exception {
+        HashTree tree = super.construct();
+        addPendingIndexes();
+        return tree;
+    }
+
+    /**
+     * adds the indexes of the merged trees to {@link #leafIndex}.
+     */
+    private void addPendingIndexes() {
+        if (pendingIndexes.isEmpty()) {
+            return;
+        }
+        leafIndex.addAll(pendingIndexes, pendingOffsets);
+        pendingIndexes.clear();
+        pendingLeafCount = 0;
+    }
+
+    private void ensureLeafCapacity(int capacity) {
+        if (capacity > leaves.length) {
+            leaves = Arrays.copyOf(leaves, Math.max(capacity, leaves.length * 2));
+        }
     }
 
+    /**
+     * Finds the first leaf that represents the given hash, or else the first inner node in pre-order.
+     */
+    @Override
     HashNode findNode(IHash hash) throws HashNotFoundException {
-        HashNode node = nodeMap.get(hash.toString());
-        if (node == null) {
+        int position = leafIndex.find(hash, 0);
+        if (position != LeafIndex.NONE) {
+            return leaves[position];
+        }
+        if (getRoot() != null) {
+            LeafIndex inner = innerIndex();
+            position = inner.find(hash, 0);
+            if (position != LeafIndex.NONE) {
+                return innerNodes[position];
+            }
+        }
+        throw new HashNotFoundException("[" + hash + "]");
+    }
+
+    /**
+     * @return the index of the inner nodes, built with a traversal of the tree on the first call.
+     */
+    private LeafIndex innerIndex() {
+        LeafIndex result = innerIndex;
+        if (result == null) {
+            synchronized (this) {
+                result = innerIndex;
+                if (result == null) {
+                    HashNode[] nodes = new HashNode[Math.max(0, leafSize - 1)];
+                    result = new LeafIndex(position -> innerNodes[position].getHash());
+                    int size = 0;
+                    Deque<HashNode> toVisit = new ArrayDeque<>();
+                    toVisit.push(getRoot());
+                    while (!toVisit.isEmpty()) {
+                        HashNode node = toVisit.pop();
+                        if (node.getLeftNode() == null) {
+                            continue;
+                        }
+                        nodes[size] = node;
+                        size++;
+                        toVisit.push(node.getRightNode());
+                        toVisit.push(node.getLeftNode());
+                    }
+                    innerNodes = nodes;
+                    for (int i = 0; i < size; i++) {
+                        result.add(nodes[i].getHash(), i);
+                    }
+                    innerIndex = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    HashNode findLeaf(IHash hash, int occurrence) throws HashNotFoundException {
+        int position = leafIndex.find(hash, occurrence);
+        if (position == LeafIndex.NONE) {
             throw new HashNotFoundException("[" + hash + "]");
         }
-        return node;
+        return leaves[position];
+    }
+
+    @Override
+    HashNode leafAt(long leafIndex) {
+        return leaves[(int) leafIndex];
     }
 }
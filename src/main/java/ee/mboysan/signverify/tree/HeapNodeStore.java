@@ -0,0 +1,118 @@
+package ee.mboysan.signverify.tree;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the records in a few large byte arrays (pages) on the heap.
+ */
+class HeapNodeStore extends NodeStore {
+
+    /** a page holds at most 2^PAGE_SHIFT records. */
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_RECORDS = 1 << PAGE_SHIFT;
+    private static final long PAGE_MASK = PAGE_RECORDS - 1;
+    /** number of records the first page is created with, it is grown until it reaches {@link #PAGE_RECORDS}. */
+    private static final int INITIAL_RECORDS = 64;
+
+    /** All pages except the last one are full. */
+    private byte[][] pages = new byte[0][];
+    /** number of records the pages can hold. */
+    private long capacity = 0;
+
+    HeapNodeStore(int digestLength) {
+        super(digestLength);
+    }
+
+    private byte[] page(long index) {
+        return pages[(int) (index >>> PAGE_SHIFT)];
+    }
+
+    private int offset(long index) {
+        return (int) (index & PAGE_MASK) * recordLength;
+    }
+
+    @Override
+    void ensureCapacity(long records) {
+        while (capacity < records) {
+            int last = pages.length - 1;
+            if (last >= 0 && pages[last].length < PAGE_RECORDS * recordLength) {
+                // only the first page grows, the rest are allocated with the full size.
+                long required = (records - ((long) last << PAGE_SHIFT)) * recordLength;
+                int newLength = (int) Math.min(Math.max(required, pages[last].length * 2L), PAGE_RECORDS * recordLength);
+                pages[last] = Arrays.copyOf(pages[last], newLength);
+            } else {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[last + 1] = new byte[(last < 0 ? INITIAL_RECORDS : PAGE_RECORDS) * recordLength];
+            }
+            last = pages.length - 1;
+            capacity = ((long) last << PAGE_SHIFT) + pages[last].length / recordLength;
+        }
+    }
+
+    @Override
+    void readDigest(long index, byte[] dst, int dstOffset) {
+        System.arraycopy(page(index), offset(index), dst, dstOffset, digestLength);
+    }
+
+    @Override
+    boolean digestEquals(long index, byte[] digest) {
+        byte[] page = page(index);
+        int offset = offset(index);
+        for (int i = 0; i < digestLength; i++) {
+            if (page[offset + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    long readLeafCount(long index) {
+        byte[] page = page(index);
+        int offset = offset(index) + digestLength;
+        long count = 0;
+        for (int i = 0; i < COUNT_LENGTH; i++) {
+            count = (count << 8) | (page[offset + i] & 0xff);
+        }
+        return count;
+    }
+
+    @Override
+    void writeDigest(long index, byte[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, page(index), offset(index), digestLength);
+    }
+
+    @Override
+    void writeLeafCount(long index, long leafCount) {
+        byte[] page = page(index);
+        int offset = offset(index) + digestLength;
+        for (int i = COUNT_LENGTH - 1; i >= 0; i--) {
+            page[offset + i] = (byte) leafCount;
+            leafCount >>>= 8;
+        }
+    }
+
+    @Override
+    void readRecords(long index, byte[] dst, int count) {
+        int dstOffset = 0;
+        while (count > 0) {
+            int n = (int) Math.min(count, PAGE_RECORDS - (index & PAGE_MASK));
+            System.arraycopy(page(index), offset(index), dst, dstOffset, n * recordLength);
+            index += n;
+            dstOffset += n * recordLength;
+            count -= n;
+        }
+    }
+
+    @Override
+    void writeRecords(long index, byte[] src, int count) {
+        int srcOffset = 0;
+        while (count > 0) {
+            int n = (int) Math.min(count, PAGE_RECORDS - (index & PAGE_MASK));
+            System.arraycopy(src, srcOffset, page(index), offset(index), n * recordLength);
+            index += n;
+            srcOffset += n * recordLength;
+            count -= n;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Open-addressing (linear probing) index from leaf hashes to leaf positions, i.e. the order of the leaves in the tree.
+ * The table is keyed by the leading 64 bits of the digests and the full digests are only compared on a key match, by
+ * looking the leaf up from the {@link LeafSource}. The positions are kept as primitive ints.
+ * <p>
+ * The same event might occur several times in a log, so every key holds the chain of all the positions of the leaf
+ * hash in increasing order, which makes it possible to find the n-th occurrence of an event.
+ * <p>
+ * The table is split into independent shards by the leading bits of the keys, so that the indexes of many trees can
+ * be merged shard by shard in parallel (see {@link #addAll(List, int[])}).
+ */
+class LeafIndex {
+
+    /** Provides the hashes of the indexed leaves for the full digest comparison. */
+    interface LeafSource {
+        /**
+         * @param position position of the leaf.
+         * @return hash of the leaf at the position.
+         */
+        IHash leafHash(int position);
+    }
+
+    /** not found marker. */
+    static final int NONE = -1;
+
+    private static final int SHARD_BITS = 6;
+    private static final int SHARD_COUNT = 1 << SHARD_BITS;
+    private static final int INITIAL_SHARD_CAPACITY = 8;
+    /** min number of leaves to merge for doing it in parallel. */
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final LeafSource source;
+
+    /** shards of the table, created on the first key that falls into them. */
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    /** next[position] is the next position (+1) of the same leaf hash, 0 if there is none. */
+    private int[] next = new int[16];
+    /** number of positions covered, i.e. the last position indexed + 1. */
+    private int positionCount = 0;
+
+    LeafIndex(LeafSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds a leaf to the index. Positions of the same hash must be added in increasing order.
+     * @param hash     hash of the leaf.
+     * @param position position of the leaf.
+     */
+    void add(IHash hash, int position) {
+        ensurePositions(position + 1);
+        long key = HashUtils.leadingBits(hash);
+        shard(key).add(key, hash, position);
+    }
+
+    /**
+     * Adds all the leaves of the other index, shifting their positions by the given offset. The {@link LeafSource}
+     * of this index must already provide the leaves of the other one at the shifted positions.
+     */
+    void addAll(LeafIndex other, int offset) {
+        addAll(Collections.singletonList(other), new int[]{offset});
+    }
+
+    /**
+     * Adds all the leaves of the other indexes, shifting their positions by the corresponding offsets. The indexes
+     * must be given in the order of their positions. Since the shards are independent of each other, large merges are
+     * done in parallel in the shared pool (see {@link Workers#pool()}), each shard merging its part of all the other
+     * indexes.
+     * @param others  indexes to add.
+     * @param offsets offsets of the positions of the other indexes in this one.
+     */
+    void addAll(List<LeafIndex> others, int[] offsets) {
+        long leafCount = 0;
+        int maxPosition = 0;
+        for (int i = 0; i < others.size(); i++) {
+            LeafIndex other = others.get(i);
+            leafCount += other.positionCount;
+            maxPosition = Math.max(maxPosition, offsets[i] + other.positionCount);
+        }
+        // the shards write distinct positions of next, it must not be resized while merging.
+        ensurePositions(maxPosition);
+        ShardMerge merge = new ShardMerge(others, offsets, 0, SHARD_COUNT);
+        if (leafCount < PARALLEL_THRESHOLD) {
+            merge.compute();
+        } else {
+            Workers.pool().invoke(merge);
+        }
+    }
+
+    /**
+     * @param hash       leaf hash to search.
+     * @param occurrence zero based occurrence of the leaf hash.
+     * @return the position of the n-th occurrence of the leaf, or {@link #NONE} if not found.
+     */
+    int find(IHash hash, int occurrence) {
+        long key = HashUtils.leadingBits(hash);
+        Shard shard = shards[shardOf(key)];
+        if (shard == null) {
+            return NONE;
+        }
+        int position = shard.firsts[shard.findSlot(key, hash)];
+        for (int i = 0; i < occurrence && position != 0; i++) {
+            position = next[position - 1];
+        }
+        return position - 1;
+    }
+
+    private void ensurePositions(int positions) {
+        positionCount = Math.max(positionCount, positions);
+        if (positions > next.length) {
+            next = Arrays.copyOf(next, Math.max(positions, next.length * 2));
+        }
+    }
+
+    private Shard shard(long key) {
+        int index = shardOf(key);
+        if (shards[index] == null) {
+            shards[index] = new Shard();
+        }
+        return shards[index];
+    }
+
+    private static int shardOf(long key) {
+        return (int) (key >>> (Long.SIZE - SHARD_BITS));
+    }
+
+    private static int spread(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Merges the given shards of the other indexes, splitting the shards in halves to be merged in parallel.
+     */
+    private class ShardMerge extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<LeafIndex> others;
+        private final int[] offsets;
+        private final int from;
+        private final int to;
+
+        ShardMerge(List<LeafIndex> others, int[] offsets, int from, int to) {
+            this.others = others;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && getPool() != null) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ShardMerge(others, offsets, from, mid), new ShardMerge(others, offsets, mid, to));
+                return;
+            }
+            for (int s = from; s < to; s++) {
+                for (int i = 0; i < others.size(); i++) {
+                    Shard otherShard = others.get(i).shards[s];
+                    if (otherShard != null) {
+                        if (shards[s] == null) {
+                            shards[s] = new Shard();
+                        }
+                        shards[s].addAll(others.get(i), otherShard, offsets[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A part of the table: key, first and last position of the chain. Positions are kept +1, so 0 marks an empty
+     * slot.
+     */
+    private class Shard {
+        private long[] keys = new long[INITIAL_SHARD_CAPACITY];
+        private int[] firsts = new int[INITIAL_SHARD_CAPACITY];
+        private int[] lasts = new int[INITIAL_SHARD_CAPACITY];
+        private int mask = INITIAL_SHARD_CAPACITY - 1;
+        /** number of distinct leaf hashes. */
+        private int size = 0;
+
+        private void add(long key, IHash hash, int position) {
+            next[position] = 0;
+            int slot = findSlot(key, hash);
+            if (firsts[slot] != 0) {
+                // another occurrence of an already indexed leaf.
+                next[lasts[slot] - 1] = position + 1;
+                lasts[slot] = position + 1;
+                return;
+            }
+            keys[slot] = key;
+            firsts[slot] = position + 1;
+            lasts[slot] = position + 1;
+            if (++size > (mask + 1) / 2) {
+                resize();
+            }
+        }
+
+        /**
+         * adds the leaves of the shard of the other index.
+         */
+        private void addAll(LeafIndex other, Shard otherShard, int offset) {
+            for (int slot = 0; slot <= otherShard.mask; slot++) {
+                int position = otherShard.firsts[slot];
+                if (position == 0) {
+                    continue;
+                }
+                long key = otherShard.keys[slot];
+                IHash hash = source.leafHash(position - 1 + offset);
+                while (position != 0) {
+                    add(key, hash, position - 1 + offset);
+                    position = other.next[position - 1];
+                }
+            }
+        }
+
+        /**
+         * @return the slot of the hash, or the empty slot it would be put to.
+         */
+        private int findSlot(long key, IHash hash) {
+            int slot = spread(key) & mask;
+            while (firsts[slot] != 0) {
+                if (keys[slot] == key && source.leafHash(firsts[slot] - 1).equals(hash)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldFirsts = firsts;
+            int[] oldLasts = lasts;
+            int capacity = oldKeys.length * 2;
+            keys = new long[capacity];
+            firsts = new int[capacity];
+            lasts = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldFirsts[i] == 0) {
+                    continue;
+                }
+                // the entries are already distinct, so there is no need to compare the digests.
+                int slot = spread(oldKeys[i]) & mask;
+                while (firsts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                firsts[slot] = oldFirsts[i];
+                lasts[slot] = oldLasts[i];
+            }
+        }
+    }
+}
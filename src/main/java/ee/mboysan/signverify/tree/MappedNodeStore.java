@@ -0,0 +1,218 @@
+package ee.mboysan.signverify.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Keeps the records off-heap, in a memory-mapped temporary file. A single mapping is limited to 2 GB, so the file is
+ * mapped in segments of equal size as the store grows. The last segment is mapped only as far as needed, starting
+ * from {@link #MIN_MAPPED_BYTES} and doubling up to the size of a segment, so a small tree does not map (nor take the
+ * address space of) a whole segment. The OS page cache holds the records instead of the GC heap.
+ * <p>
+ * The JDK has no API to unmap a file: {@link #close()} drops the mappings, which are released once the GC collects
+ * them.
+ * <p>
+ * The file is created in the directory given by the {@link #DIRECTORY_PROPERTY} system property (defaults to
+ * <code>java.io.tmpdir</code>) and is removed as soon as possible, i.e. right after it is opened where the platform
+ * allows it, otherwise on exit.
+ */
+class MappedNodeStore extends NodeStore {
+
+    /** system property for the directory of the mapped files. */
+    static final String DIRECTORY_PROPERTY = "signverify.mmap.dir";
+
+    /** max number of bytes of a segment. */
+    static long MAX_SEGMENT_BYTES = 1L << 30;
+    /** number of bytes the last segment is first mapped with. */
+    private static final long MIN_MAPPED_BYTES = 1L << 16;
+
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long segmentBytes;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    /** the mapped segments, all of them of {@link #segmentBytes} but the last one. */
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /** number of records the last segment is mapped for. */
+    private long lastSegmentRecords = 0;
+    private boolean closed = false;
+
+    MappedNodeStore(int digestLength) {
+        super(digestLength);
+        // largest power of two number of records that fit in a segment.
+        int shift = 0;
+        while (((2L << shift) * recordLength) <= MAX_SEGMENT_BYTES) {
+            shift++;
+        }
+        this.segmentShift = shift;
+        this.segmentMask = (1L << shift) - 1;
+        this.segmentBytes = (1L << shift) * recordLength;
+        try {
+            String dir = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"));
+            File tmp = File.createTempFile("signverify-tree", ".nodes", new File(dir));
+            this.file = new RandomAccessFile(tmp, "rw");
+            this.channel = file.getChannel();
+            try {
+                Files.delete(tmp.toPath());
+            } catch (IOException e) {
+                // the platform does not allow removing an open file.
+                tmp.deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the mapped node store", e);
+        }
+    }
+
+    private MappedByteBuffer segment(long index) {
+        return segments[(int) (index >>> segmentShift)];
+    }
+
+    private int offset(long index) {
+        return (int) (index & segmentMask) * recordLength;
+    }
+
+    @Override
+    void ensureCapacity(long records) {
+        if (records <= 0) {
+            return;
+        }
+        int count = (int) ((records + segmentMask) >>> segmentShift);
+        long lastRecords = records - ((long) (count - 1) << segmentShift);
+        if (count < segments.length || (count == segments.length && lastRecords <= lastSegmentRecords)) {
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("Mapped node store is closed.");
+        }
+        int first = segments.length;
+        long firstRecords = lastSegmentRecords;
+        segments = Arrays.copyOf(segments, count);
+        try {
+            // the segments before the last one are mapped whole, the previous last one is mapped again.
+            for (int i = Math.max(0, first - 1); i < count - 1; i++) {
+                if (i >= first || firstRecords <= segmentMask) {
+                    segments[i] = map(i, segmentMask + 1);
+                }
+            }
+            long mapped = count == first ? firstRecords : 0;
+            long size = Math.max(mapped, Math.max(1, MIN_MAPPED_BYTES / recordLength));
+            while (size < lastRecords) {
+                size *= 2;
+            }
+            size = Math.min(size, segmentMask + 1);
+            segments[count - 1] = map(count - 1, size);
+            lastSegmentRecords = size;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map a new segment of the node store", e);
+        }
+    }
+
+    /**
+     * @return number of bytes of the file mapped so far.
+     */
+    long mappedBytes() {
+        return segments.length == 0 ? 0 : (segments.length - 1) * segmentBytes + lastSegmentRecords * recordLength;
+    }
+
+    /**
+     * maps the given number of records from the start of the segment.
+     */
+    private MappedByteBuffer map(int segment, long records) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentBytes, records * recordLength);
+    }
+
+    @Override
+    void readDigest(long index, byte[] dst, int dstOffset) {
+        MappedByteBuffer segment = segment(index);
+        int offset = offset(index);
+        for (int i = 0; i < digestLength; i++) {
+            dst[dstOffset + i] = segment.get(offset + i);
+        }
+    }
+
+    @Override
+    boolean digestEquals(long index, byte[] digest) {
+        MappedByteBuffer segment = segment(index);
+        int offset = offset(index);
+        for (int i = 0; i < digestLength; i++) {
+            if (segment.get(offset + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    long readLeafCount(long index) {
+        return segment(index).getLong(offset(index) + digestLength);
+    }
+
+    @Override
+    void writeDigest(long index, byte[] src, int srcOffset) {
+        MappedByteBuffer segment = segment(index);
+        int offset = offset(index);
+        for (int i = 0; i < digestLength; i++) {
+            segment.put(offset + i, src[srcOffset + i]);
+        }
+    }
+
+    @Override
+    void writeLeafCount(long index, long leafCount) {
+        segment(index).putLong(offset(index) + digestLength, leafCount);
+    }
+
+    @Override
+    void readRecords(long index, byte[] dst, int count) {
+        int dstOffset = 0;
+        while (count > 0) {
+            int n = (int) Math.min(count, (segmentMask + 1) - (index & segmentMask));
+            ByteBuffer view = segment(index).duplicate();
+            view.position(offset(index));
+            view.get(dst, dstOffset, n * recordLength);
+            index += n;
+            dstOffset += n * recordLength;
+            count -= n;
+        }
+    }
+
+    @Override
+    void writeRecords(long index, byte[] src, int count) {
+        int srcOffset = 0;
+        while (count > 0) {
+            int n = (int) Math.min(count, (segmentMask + 1) - (index & segmentMask));
+            ByteBuffer view = segment(index).duplicate();
+            view.position(offset(index));
+            view.put(src, srcOffset, n * recordLength);
+            index += n;
+            srcOffset += n * recordLength;
+            count -= n;
+        }
+    }
+
+    /**
+     * Closes the file and drops the mappings, so that they can be released by the GC. The store is not usable
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments = new MappedByteBuffer[0];
+        lastSegmentRecords = 0;
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
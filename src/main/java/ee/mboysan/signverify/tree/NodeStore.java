@@ -0,0 +1,108 @@
+package ee.mboysan.signverify.tree;
+
+import java.io.Closeable;
+
+/**
+ * Append-only storage of the fixed length node records <code>[digest | leafCount]</code> of a
+ * {@link HashTreeFlatImpl}. Records are addressed by their index, i.e. the order they were appended.
+ */
+abstract class NodeStore implements Closeable {
+
+    /** a leaf count is stored as a big-endian long after the digest. */
+    static final int COUNT_LENGTH = Long.BYTES;
+
+    /** size of the buffer used when copying records from another store. */
+    private static final int COPY_BUFFER_LENGTH = 1 << 20;
+
+    final int digestLength;
+    final int recordLength;
+
+    /** number of records stored. */
+    private long size = 0;
+
+    NodeStore(int digestLength) {
+        this.digestLength = digestLength;
+        this.recordLength = digestLength + COUNT_LENGTH;
+    }
+
+    /**
+     * @return number of records stored.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends a new record.
+     * @param digest    array containing the digest of the node.
+     * @param offset    offset of the digest in the array.
+     * @param leafCount number of leaves of the subtree the node is the root of.
+     * @return index of the new record.
+     */
+    long append(byte[] digest, int offset, long leafCount) {
+        long index = size;
+        ensureCapacity(index + 1);
+        writeDigest(index, digest, offset);
+        writeLeafCount(index, leafCount);
+        size++;
+        return index;
+    }
+
+    /**
+     * Appends copies of all the records of the other store, keeping their order.
+     * @param other store to copy the records from.
+     */
+    void appendAll(NodeStore other) {
+        if (other.recordLength != recordLength) {
+            throw new IllegalArgumentException("Record lengths do not match: " + other.recordLength + " vs " + recordLength);
+        }
+        int batch = Math.max(1, COPY_BUFFER_LENGTH / recordLength);
+        byte[] buffer = new byte[(int) Math.min(batch, other.size) * recordLength];
+        ensureCapacity(size + other.size);
+        for (long i = 0; i < other.size; i += batch) {
+            int count = (int) Math.min(batch, other.size - i);
+            other.readRecords(i, buffer, count);
+            writeRecords(size, buffer, count);
+            size += count;
+        }
+    }
+
+    /**
+     * copies the digest of the record at the index to the destination array.
+     */
+    abstract void readDigest(long index, byte[] dst, int dstOffset);
+
+    /**
+     * @return true if the digest of the record at the index equals to the given digest.
+     */
+    abstract boolean digestEquals(long index, byte[] digest);
+
+    /**
+     * @return the leaf count of the record at the index.
+     */
+    abstract long readLeafCount(long index);
+
+    /**
+     * makes sure that the store is able to hold the given number of records.
+     */
+    abstract void ensureCapacity(long records);
+
+    abstract void writeDigest(long index, byte[] src, int srcOffset);
+
+    abstract void writeLeafCount(long index, long leafCount);
+
+    /**
+     * copies <code>count</code> whole records starting from the index to the destination array.
+     */
+    abstract void readRecords(long index, byte[] dst, int count);
+
+    /**
+     * writes <code>count</code> whole records from the source array starting from the index.
+     */
+    abstract void writeRecords(long index, byte[] src, int count);
+
+    @Override
+    public void close() {
+        // nothing to release by default.
+    }
+}
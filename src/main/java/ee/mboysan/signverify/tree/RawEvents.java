@@ -0,0 +1,75 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.hashing.HashEngine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A list of events given as byte ranges of buffers (e.g. lines of a memory-mapped file), so that they can be hashed as
+ * they are, without decoding them into strings first. The buffers are referenced, not copied.
+ */
+public final class RawEvents {
+
+    private ByteBuffer[] buffers;
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+
+    /** view of the last buffer read from, the buffers themselves are not modified. */
+    private ByteBuffer source;
+    private ByteBuffer view;
+
+    /**
+     * @param capacity expected number of events.
+     */
+    public RawEvents(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.buffers = new ByteBuffer[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+    /**
+     * Adds the event in <code>buffer[start, end)</code>.
+     * @param buffer buffer holding the event. It must not be modified until the events are hashed.
+     * @param start  index of the first byte of the event.
+     * @param end    index after the last byte of the event.
+     */
+    public void add(ByteBuffer buffer, int start, int end) {
+        if (size == starts.length) {
+            buffers = Arrays.copyOf(buffers, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        buffers[size] = buffer;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * @return number of events.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * hashes the events as a batch (see {@link HashEngine#newLeafBatch()}) and writes their digests to out one after
+     * the other.
+     */
+    void hashAll(HashEngine engine, byte[] out) {
+        HashEngine.LeafBatch batch = engine.newLeafBatch();
+        for (int i = 0; i < size; i++) {
+            if (buffers[i] != source) {
+                source = buffers[i];
+                view = source.duplicate();
+            }
+            view.limit(ends[i]);
+            view.position(starts[i]);
+            batch.add(view, out, i * engine.getDigestLength());
+        }
+        batch.finish();
+    }
+}
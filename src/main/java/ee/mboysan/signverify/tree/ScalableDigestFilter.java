@@ -0,0 +1,96 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloom filter of hashes that grows as the hashes are added, for when their number is not known in advance. The hashes
+ * are added to the last {@link DigestFilter}, a stage, and a new stage is added once it is full, with twice the
+ * capacity and one more bit per hash than the previous one, so that the false positive rates of the stages, about 1%
+ * for the first one, add up to about 3% at most.
+ * <p>
+ * The stages of another filter can be taken over as they are (see {@link #addAll(ScalableDigestFilter)}), e.g. when
+ * a tree is merged into another one, instead of adding its hashes again.
+ */
+final class ScalableDigestFilter {
+
+    /** capacity of the first stage if the number of hashes is not known. */
+    static final long INITIAL_CAPACITY = 1 << 10;
+
+    private final List<DigestFilter> stages = new ArrayList<>();
+    /** capacity of the next stage. */
+    private long nextCapacity;
+    /** number of stages added by this filter, i.e. not taken over. */
+    private int ownStages;
+    private DigestFilter last;
+    /** number of hashes that can still be added to the last stage. */
+    private long lastFree;
+    private long count;
+
+    /**
+     * @param expectedCount number of hashes expected to be added, the capacity of the first stage.
+     */
+    ScalableDigestFilter(long expectedCount) {
+        this.nextCapacity = Math.max(1, expectedCount);
+    }
+
+    void add(IHash hash) {
+        if (lastFree == 0) {
+            last = new DigestFilter(nextCapacity, DigestFilter.BITS_PER_HASH + ownStages++);
+            stages.add(last);
+            lastFree = nextCapacity;
+            nextCapacity *= 2;
+        }
+        last.add(hash);
+        lastFree--;
+        count++;
+    }
+
+    /**
+     * Takes over the stages of the other filter, to which no hash must be added anymore.
+     * @param other filter to take the stages of.
+     */
+    void addAll(ScalableDigestFilter other) {
+        stages.addAll(other.stages);
+        count += other.count;
+    }
+
+    /**
+     * @return false if the hash was not added for sure, true if it might have been added.
+     */
+    boolean mightContain(IHash hash) {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            if (stages.get(i).mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of hashes added.
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return number of stages.
+     */
+    int stageCount() {
+        return stages.size();
+    }
+
+    /**
+     * @return the size of the filter in bytes.
+     */
+    long sizeInBytes() {
+        long size = 0;
+        for (DigestFilter stage : stages) {
+            size += stage.sizeInBytes();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,181 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.hashing.HashEngine;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Calculates the hashes of consecutive nodes of a {@link TreeShape} from their leaves appended in order. The subtrees
+ * are walked in post-order along with the leaves, so only the path from a node to its current leaf is kept in memory.
+ * <b>NB! </b> not thread safe.
+ */
+public final class SubtreeHasher {
+
+    /**
+     * Receives the digest of every node of the subtrees as soon as it is calculated, i.e. the nodes in post-order.
+     */
+    public interface NodeListener {
+        /**
+         * @param node   the node hashed.
+         * @param digest array containing the digest of the node, only valid during the call.
+         * @param offset offset of the digest in the array.
+         */
+        void onNode(TreeShape.Node node, byte[] digest, int offset);
+    }
+
+    private final String hashAlgorithm;
+    private final HashEngine engine;
+    private final int digestLength;
+
+    /** nodes to hash, the leaves of each one follow the leaves of the previous one. */
+    private final List<TreeShape.Node> nodes;
+    private final List<IHash> hashes = new ArrayList<>();
+    /** index of the node being hashed. */
+    private int current = 0;
+
+    /** inner nodes on the path to the current leaf, from the top. */
+    private TreeShape.Node[] path = new TreeShape.Node[64];
+    /** true if the inner node on the path is being walked on its right side. */
+    private boolean[] onRight = new boolean[64];
+    private int pathSize = 0;
+    /** the current leaf. */
+    private TreeShape.Node leaf;
+
+    /** receives the digests of all the nodes, null if not needed. */
+    private final NodeListener listener;
+
+    /** digests of the left siblings of the path and of the current leaf, one after the other. */
+    private byte[] digests;
+    private int digestCount = 0;
+
+    /**
+     * @param hashAlgorithm hash algorithm for hashing the events and merging the nodes.
+     * @param nodes         consecutive nodes to hash, i.e. the first leaf of each node is the one after the last leaf
+     *                      of the previous node.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     */
+    public SubtreeHasher(String hashAlgorithm, List<TreeShape.Node> nodes) throws NoSuchAlgorithmException {
+        this(hashAlgorithm, nodes, null);
+    }
+
+    /**
+     * @param hashAlgorithm hash algorithm for hashing the events and merging the nodes.
+     * @param nodes         consecutive nodes to hash, see {@link #SubtreeHasher(String, List)}.
+     * @param listener      receives the digest of every node of the subtrees (leaves included), in post-order.
+     * @throws NoSuchAlgorithmException if the hash algorithm is not recognized.
+     */
+    public SubtreeHasher(String hashAlgorithm, List<TreeShape.Node> nodes, NodeListener listener)
+            throws NoSuchAlgorithmException {
+        for (int i = 1; i < nodes.size(); i++) {
+            if (nodes.get(i).getStart() != nodes.get(i - 1).getEnd()) {
+                throw new IllegalArgumentException("Nodes are not consecutive: " + nodes.get(i - 1) + nodes.get(i));
+            }
+        }
+        this.hashAlgorithm = hashAlgorithm;
+        this.engine = HashEngine.forAlgorithm(hashAlgorithm);
+        this.digestLength = engine.getDigestLength();
+        this.digests = new byte[64 * digestLength];
+        this.nodes = nodes;
+        this.listener = listener;
+        if (!nodes.isEmpty()) {
+            descend(nodes.get(0));
+        }
+    }
+
+    /**
+     * Hashes the remaining bytes of the event as they are (i.e. without decoding) and appends it as the next leaf.
+     * @param event raw bytes of the event.
+     * @throws IllegalStateException if all the nodes are already hashed.
+     */
+    public void appendEvent(ByteBuffer event) {
+        ensureLeaf();
+        engine.hash(event, digests, digestCount++ * digestLength);
+        leafAppended();
+    }
+
+    /**
+     * Appends the next leaf with an already calculated digest.
+     * @param digest array containing the digest of the event.
+     * @param offset offset of the digest in the array.
+     * @throws IllegalStateException if all the nodes are already hashed.
+     */
+    public void appendLeafDigest(byte[] digest, int offset) {
+        ensureLeaf();
+        System.arraycopy(digest, offset, digests, digestCount++ * digestLength, digestLength);
+        leafAppended();
+    }
+
+    /**
+     * @return true if all the nodes are hashed.
+     */
+    public boolean isDone() {
+        return current == nodes.size();
+    }
+
+    /**
+     * @return the hashes of the nodes hashed so far, in order.
+     */
+    public List<IHash> getHashes() {
+        return hashes;
+    }
+
+    private void ensureLeaf() {
+        if (isDone()) {
+            throw new IllegalStateException("All the nodes are hashed already.");
+        }
+        if (digestCount * digestLength == digests.length) {
+            digests = Arrays.copyOf(digests, digests.length * 2);
+        }
+    }
+
+    /**
+     * merges the subtrees completed by the leaf and moves on to the next leaf.
+     */
+    private void leafAppended() {
+        if (listener != null) {
+            listener.onNode(leaf, digests, (digestCount - 1) * digestLength);
+        }
+        while (pathSize > 0 && onRight[pathSize - 1]) {
+            int left = (digestCount - 2) * digestLength;
+            engine.merge(digests, left, digests, left + digestLength, digests, left);
+            digestCount--;
+            pathSize--;
+            if (listener != null) {
+                listener.onNode(path[pathSize], digests, left);
+            }
+        }
+        if (pathSize > 0) {
+            onRight[pathSize - 1] = true;
+            descend(path[pathSize - 1].getRight());
+            return;
+        }
+        hashes.add(HashUtils.createHashFromDigest(digests, 0, digestLength, hashAlgorithm));
+        digestCount = 0;
+        if (++current < nodes.size()) {
+            descend(nodes.get(current));
+        }
+    }
+
+    /**
+     * walks down the left side of the node to its first leaf.
+     */
+    private void descend(TreeShape.Node node) {
+        while (!node.isLeaf()) {
+            if (pathSize == path.length) {
+                path = Arrays.copyOf(path, pathSize * 2);
+                onRight = Arrays.copyOf(onRight, pathSize * 2);
+            }
+            path[pathSize] = node;
+            onRight[pathSize] = false;
+            pathSize++;
+            node = node.getLeft();
+        }
+        leaf = node;
+    }
+}
@@ -0,0 +1,252 @@
+package ee.mboysan.signverify.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shape of the hash tree of a file, i.e. which leaves are merged into which nodes, as built by the file hashers from
+ * the chunks of lines (see {@code FileHasher#CHUNK_SIZE}). The rules of the node stack of {@link HashTree} make the
+ * shape depend only on the number of leaves and the chunk size, so the nodes of a tree can be found without hashing,
+ * e.g. to tell which nodes make up a proof.
+ * <p>
+ * The nodes are created on demand while walking the tree, so the memory needed is proportional to the depth of the
+ * tree and not to the number of leaves.
+ */
+public final class TreeShape {
+
+    private final long leafCount;
+    private final int chunkSize;
+    /** depth of the node of a whole chunk. */
+    private final int chunkDepth;
+    private final Node root;
+
+    /**
+     * @param leafCount number of leaves/events of the tree.
+     * @param chunkSize number of leaves per chunk, values less than 1 mean a single leaf per chunk.
+     */
+    public TreeShape(long leafCount, int chunkSize) {
+        if (leafCount <= 0) {
+            throw new IllegalArgumentException("A tree must have at least one leaf: " + leafCount);
+        }
+        this.leafCount = leafCount;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkDepth = chunk(0, this.chunkSize).depth;
+        this.root = buildRoot();
+    }
+
+    /**
+     * The whole chunks are merged into the node stack one by one, making up perfect trees of chunks for the set bits
+     * of the chunk count. The last, incomplete chunk is merged into the stack as it is and the stack is folded.
+     */
+    private Node buildRoot() {
+        long chunks = leafCount / chunkSize;
+        List<Node> stack = new ArrayList<>();
+        long start = 0;
+        for (int height = Long.SIZE - 2; height >= 0; height--) {
+            if ((chunks & (1L << height)) != 0) {
+                stack.add(chunkGroup(start, height));
+                start += (1L << height) * chunkSize;
+            }
+        }
+        if (start < leafCount) {
+            Node last = chunk(start, leafCount - start);
+            while (!stack.isEmpty() && stack.get(stack.size() - 1).depth == last.depth) {
+                last = new Merged(stack.remove(stack.size() - 1), last);
+            }
+            stack.add(last);
+        }
+        return fold(stack);
+    }
+
+    /**
+     * @return the node of 2^height whole chunks starting at the given leaf.
+     */
+    private Node chunkGroup(long start, int height) {
+        return height == 0 ? chunk(start, chunkSize) : new ChunkGroup(start, height);
+    }
+
+    /**
+     * @return the node of a chunk, i.e. the leaves pushed into the node stack one by one and then folded.
+     */
+    private static Node chunk(long start, long size) {
+        List<Node> stack = new ArrayList<>();
+        for (int height = Long.SIZE - 2; height >= 0; height--) {
+            if ((size & (1L << height)) != 0) {
+                stack.add(new Perfect(start, height));
+                start += 1L << height;
+            }
+        }
+        return fold(stack);
+    }
+
+    /**
+     * merges the nodes of the stack from the right, the same as {@link HashTree#construct()}.
+     */
+    private static Node fold(List<Node> stack) {
+        Node node = stack.get(stack.size() - 1);
+        for (int i = stack.size() - 2; i >= 0; i--) {
+            node = new Merged(stack.get(i), node);
+        }
+        return node;
+    }
+
+    /**
+     * Splits the tree at the given leaf, i.e. finds the largest nodes that lie wholly on either side of the leaf.
+     * Only the nodes on the path to the leaf are split, so there are at most two nodes per level of the tree.
+     * @param at index of the first leaf of the right side.
+     * @return the nodes covering all the leaves, in order.
+     */
+    public List<Node> split(long at) {
+        List<Node> nodes = new ArrayList<>();
+        Node node = root;
+        List<Node> right = new ArrayList<>();
+        while (node.start < at && at < node.end) {
+            Node left = node.getLeft();
+            if (at <= left.end) {
+                right.add(node.getRight());
+                node = left;
+            } else {
+                nodes.add(left);
+                node = node.getRight();
+            }
+        }
+        nodes.add(node);
+        for (int i = right.size() - 1; i >= 0; i--) {
+            nodes.add(right.get(i));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the root node of the tree.
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return number of leaves of the tree.
+     */
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * A node of the tree, identified by the range of the leaves under it.
+     */
+    public abstract static class Node {
+        /** index of the first leaf. */
+        final long start;
+        /** index after the last leaf. */
+        final long end;
+        /** same as {@link HashNode#getDepth()}. */
+        final int depth;
+
+        Node(long start, long end, int depth) {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        /**
+         * @return see {@link #start}.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return see {@link #end}.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return true if the node is a leaf, i.e. has no children.
+         */
+        public boolean isLeaf() {
+            return end - start == 1;
+        }
+
+        /**
+         * @return the left child, null for a leaf.
+         */
+        public abstract Node getLeft();
+
+        /**
+         * @return the right child, null for a leaf.
+         */
+        public abstract Node getRight();
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * perfect binary tree of leaves.
+     */
+    private static final class Perfect extends Node {
+        Perfect(long start, int height) {
+            super(start, start + (1L << height), height);
+        }
+
+        @Override
+        public Node getLeft() {
+            return isLeaf() ? null : new Perfect(start, depth - 1);
+        }
+
+        @Override
+        public Node getRight() {
+            return isLeaf() ? null : new Perfect(start + (1L << (depth - 1)), depth - 1);
+        }
+    }
+
+    /**
+     * two nodes merged.
+     */
+    private static final class Merged extends Node {
+        private final Node left;
+        private final Node right;
+
+        Merged(Node left, Node right) {
+            super(left.start, right.end, Math.max(left.depth, right.depth) + 1);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Node getLeft() {
+            return left;
+        }
+
+        @Override
+        public Node getRight() {
+            return right;
+        }
+    }
+
+    /**
+     * perfect binary tree of 2^height (at least 2) whole chunks.
+     */
+    private final class ChunkGroup extends Node {
+        private final int height;
+
+        ChunkGroup(long start, int height) {
+            super(start, start + (1L << height) * chunkSize, chunkDepth + height);
+            this.height = height;
+        }
+
+        @Override
+        public Node getLeft() {
+            return chunkGroup(start, height - 1);
+        }
+
+        @Override
+        public Node getRight() {
+            return chunkGroup(start + (1L << (height - 1)) * chunkSize, height - 1);
+        }
+    }
+}
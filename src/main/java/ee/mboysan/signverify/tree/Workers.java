@@ -0,0 +1,175 @@
+package ee.mboysan.signverify.tree;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The threads the files are hashed on. By default, the work of the whole process runs on a single {@link ForkJoinPool}
+ * of as many (daemon) threads as there are processors, created on first use, so hashing many small files does not
+ * start and stop a pool of threads for each of them. Other executors can be passed to
+ * {@link HashTreeAggregator} and to the hashers and {@link ee.mboysan.signverify.ops.SignVerify} of the ops package.
+ * <p>
+ * For sources that are slow to read (e.g. network file systems), the hashing jobs can run on virtual threads instead,
+ * see {@link #virtualThreads()}, and by default if the system property {@value #THREADS_PROPERTY} is set to
+ * {@value #VIRTUAL_THREADS}. Virtual threads need Java 21 or later, they are looked up by reflection so that the
+ * library still runs on Java 8. Without them, the property is ignored.
+ */
+public final class Workers {
+
+    /** name of the system property that selects the threads of {@link #defaultExecutor()}. */
+    public static final String THREADS_PROPERTY = "signverify.threads";
+    /** value of {@link #THREADS_PROPERTY} for running the jobs on virtual threads. */
+    public static final String VIRTUAL_THREADS = "virtual";
+
+    /** runs a job on the thread that submits it. */
+    private static final Executor CALLER_RUNS = Runnable::run;
+
+    private Workers() {
+    }
+
+    /** holder of the shared pool, so that it is created on first use. */
+    private static final class Pool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** holder of the virtual thread executor, null if virtual threads are not supported. */
+    private static final class Virtual {
+        static final ExecutorService INSTANCE = newVirtualThreadPerTaskExecutor();
+
+        private static ExecutorService newVirtualThreadPerTaskExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // before Java 21, or a preview feature that is not enabled.
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the pool shared by the whole process, also used for the fork/join work of the trees.
+     */
+    public static ForkJoinPool pool() {
+        return Pool.INSTANCE;
+    }
+
+    /**
+     * @return the executor used when none is given: {@link #virtualThreads()} if selected with the system property
+     *         {@value #THREADS_PROPERTY} and supported, {@link #pool()} otherwise.
+     */
+    public static Executor defaultExecutor() {
+        if (VIRTUAL_THREADS.equalsIgnoreCase(System.getProperty(THREADS_PROPERTY)) && isVirtualThreadsSupported()) {
+            return Virtual.INSTANCE;
+        }
+        return pool();
+    }
+
+    /**
+     * @return true if the JVM has virtual threads.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return Virtual.INSTANCE != null;
+    }
+
+    /**
+     * @return an executor shared by the whole process that runs each job on a new virtual thread.
+     * @throws UnsupportedOperationException if the JVM does not have virtual threads.
+     */
+    public static ExecutorService virtualThreads() {
+        if (!isVirtualThreadsSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.");
+        }
+        return Virtual.INSTANCE;
+    }
+
+    /**
+     * @return an executor that runs each job on the thread that submits it, before returning.
+     */
+    public static Executor callerRuns() {
+        return CALLER_RUNS;
+    }
+
+    /**
+     * Chooses the executor of the jobs that a job running on the given executor submits and waits for, e.g. the
+     * ranges of a file hashed within a job of the executor. Waiting on a thread of a bounded pool for jobs queued to
+     * the same pool deadlocks once all of its threads wait, so the nested jobs run on the same executor only if it
+     * cannot run out of threads: the fork/join pools, which start spare threads for the threads that wait (see
+     * {@link #await(Future)}), and {@link #virtualThreads()}. Otherwise, the nested jobs are run by the waiting thread
+     * itself, see {@link #callerRuns()}.
+     * @param executor executor the submitting job runs on.
+     * @return the executor for the nested jobs.
+     */
+    public static Executor nestedExecutor(Executor executor) {
+        if (executor instanceof ForkJoinPool || executor == CALLER_RUNS
+                || (isVirtualThreadsSupported() && executor == Virtual.INSTANCE)) {
+            return executor;
+        }
+        return CALLER_RUNS;
+    }
+
+    /**
+     * Runs the job on the executor. Unlike {@link ForkJoinPool#submit(Callable)}, the exception of a failed job is the
+     * cause of the {@link ExecutionException} as it is, whatever the executor.
+     * @return the future result of the job, to be waited for with {@link #await(Future)}.
+     */
+    public static <T> Future<T> submit(Executor executor, Callable<T> job) {
+        FutureTask<T> task = new FutureTask<>(job);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Same as {@link #submit(Executor, Callable)}, and adds the future to the given queue once the job is done, so that
+     * the jobs can be waited for in the order they are done.
+     * @return the future result of the job.
+     */
+    public static <T> Future<T> submit(Executor executor, Callable<T> job, BlockingQueue<Future<T>> done) {
+        FutureTask<T> task = new FutureTask<T>(job) {
+            @Override
+            protected void done() {
+                done.add(this);
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for the result of a job. If the calling thread is a thread of a fork/join pool, e.g. a file is hashed
+     * within a job of the shared pool itself, the pool is told that the thread blocks, so it can start a spare thread
+     * for the jobs waited for instead of running out of threads.
+     * @return the result of the job.
+     * @throws ExecutionException if the job failed.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public static <T> T await(Future<T> future) throws ExecutionException, InterruptedException {
+        if (!future.isDone() && Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    try {
+                        future.get();
+                    } catch (ExecutionException | CancellationException e) {
+                        // thrown by the get() below.
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return future.isDone();
+                }
+            });
+        }
+        return future.get();
+    }
+}
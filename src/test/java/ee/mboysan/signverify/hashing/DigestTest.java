@@ -0,0 +1,85 @@
+package ee.mboysan.signverify.hashing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class DigestTest {
+
+    @Test
+    public void testLengths() throws Exception {
+        Random rng = new Random(5);
+        for (int length : new int[]{0, 1, 7, 8, 16, 20, 31, 32, 33, 64}) {
+            byte[] bytes = new byte[length];
+            rng.nextBytes(bytes);
+            Digest digest = Digest.of(bytes);
+            assertEquals(length, digest.length());
+            assertArrayEquals(bytes, digest.toByteArray());
+
+            byte[] padded = new byte[length + 3];
+            digest.copyTo(padded, 2);
+            assertArrayEquals(bytes, Arrays.copyOfRange(padded, 2, length + 2));
+            assertEquals(digest, Digest.of(padded, 2, length));
+            assertEquals(digest.hashCode(), Digest.of(padded, 2, length).hashCode());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            digest.writeTo(new DataOutputStream(out));
+            assertArrayEquals(bytes, out.toByteArray());
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : bytes) {
+                hex.append(String.format("%02x", b));
+            }
+            assertEquals(hex.toString(), digest.toString());
+
+            long leading = length == 0 ? 0 : new BigInteger(1, Arrays.copyOf(bytes, Math.min(8, length))).longValue();
+            assertEquals(leading, digest.leadingBits());
+
+            if (length > 0) {
+                bytes[length - 1] ^= 1;
+                assertNotEquals(digest, Digest.of(bytes));
+            }
+        }
+        // trailing zeros do not make digests of different lengths equal.
+        assertNotEquals(Digest.of(new byte[16]), Digest.of(new byte[20]));
+    }
+
+    @Test
+    public void testHashEqualsDigest() throws Exception {
+        for (String algorithm : new String[]{"SHA-256", "SHA-1", "MD5"}) {
+            IHash hash = HashUtils.createHash("event", algorithm);
+            Digest digest = Digest.of(HashEngine.forAlgorithm(algorithm).hash("event".getBytes()));
+            assertEquals(digest, hash);
+            assertEquals(hash, digest);
+            assertEquals(digest.hashCode(), hash.hashCode());
+            assertEquals(digest.toString(), hash.toString());
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        IHash hash = HashUtils.createHash("event", "SHA-1");
+        hash.setPosition(IHash.Position.RIGHT);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(hash);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            IHash read = (IHash) in.readObject();
+            assertEquals(hash, read);
+            assertEquals(IHash.Position.RIGHT, read.getPosition());
+            assertEquals(HashUtils.mergeHashes(hash, hash), HashUtils.mergeHashes(read, read));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ee.mboysan.signverify.hashing;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HashEngineTest {
+
+    private static final String[] ALGORITHMS = {"SHA-256", "SHA-1", "MD5"};
+
+    @Test
+    public void testEngineIsSharedPerAlgorithm() throws Exception {
+        assertSame(HashEngine.forAlgorithm("SHA-256"), HashEngine.forAlgorithm("SHA-256"));
+    }
+
+    @Test
+    public void testHashWithOffsetsMatchesMessageDigest() throws Exception {
+        byte[] input = "some prefix|event to hash|some suffix".getBytes(StandardCharsets.UTF_8);
+        for (String algorithm : ALGORITHMS) {
+            HashEngine engine = HashEngine.forAlgorithm(algorithm);
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            md.update(input, 12, 13);
+            byte[] expected = md.digest();
+
+            byte[] out = new byte[engine.getDigestLength() + 3];
+            engine.hash(input, 12, 13, out, 3);
+            byte[] actual = new byte[engine.getDigestLength()];
+            System.arraycopy(out, 3, actual, 0, actual.length);
+
+            assertEquals(expected.length, engine.getDigestLength());
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testMergeEqualsHashOfConcatenation() throws Exception {
+        for (String algorithm : ALGORITHMS) {
+            HashEngine engine = HashEngine.forAlgorithm(algorithm);
+            byte[] left = engine.hash("left".getBytes(StandardCharsets.UTF_8));
+            byte[] right = engine.hash("right".getBytes(StandardCharsets.UTF_8));
+
+            byte[] concat = new byte[left.length + right.length];
+            System.arraycopy(left, 0, concat, 0, left.length);
+            System.arraycopy(right, 0, concat, left.length, right.length);
+
+            assertArrayEquals(MessageDigest.getInstance(algorithm).digest(concat), engine.merge(left, right));
+        }
+    }
+
+    @Test
+    public void testMergeIntoOverlappingBuffer() throws Exception {
+        HashEngine engine = HashEngine.forAlgorithm("SHA-256");
+        byte[] left = engine.hash("left".getBytes(StandardCharsets.UTF_8));
+        byte[] right = engine.hash("right".getBytes(StandardCharsets.UTF_8));
+        byte[] expected = engine.merge(left, right);
+
+        engine.merge(left, 0, right, 0, left, 0);
+        assertArrayEquals(expected, left);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        HashEngine engine = HashEngine.forAlgorithm("SHA-256");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    MessageDigest md = MessageDigest.getInstance("SHA-256");
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] input = ("event" + i).getBytes(StandardCharsets.UTF_8);
+                        if (!MessageDigest.isEqual(md.digest(input), engine.hash(input))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(true, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ee.mboysan.signverify.hashing;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashProvidersTest {
+
+    /** input lengths and digests of the official BLAKE3 test vectors, the input being i % 251 for i = 0, 1, ... */
+    private static final Object[][] BLAKE3_VECTORS = {
+            {0, "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262"},
+            {1, "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213"},
+            {1023, "10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11"},
+            {1024, "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7"},
+            {1025, "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444"},
+            {2048, "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a"},
+            {2049, "5f4d72f40d7a5f82b15ca2b2e44b1de3c2ef86c426c95c1af0b6879522563030"},
+            {3072, "b98cb0ff3623be03326b373de6b9095218513e64f1ee2edd2525c7ad1e5cffd2"},
+    };
+
+    @Test
+    public void testBlake3Vectors() throws Exception {
+        MessageDigest md = HashProviders.get("BLAKE3").newDigest();
+        for (Object[] vector : BLAKE3_VECTORS) {
+            byte[] input = input((Integer) vector[0]);
+            assertEquals("length " + vector[0], vector[1], hex(md.digest(input)));
+
+            // fed in pieces of all sizes.
+            for (int piece : new int[]{1, 63, 64, 65, 1000}) {
+                for (int i = 0; i < input.length; i += piece) {
+                    md.update(input, i, Math.min(piece, input.length - i));
+                }
+                assertEquals("length " + vector[0] + ", pieces of " + piece, vector[1], hex(md.digest()));
+            }
+        }
+    }
+
+    @Test
+    public void testBlake3Abc() throws Exception {
+        assertEquals("6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85",
+                hex(HashEngine.forAlgorithm("BLAKE3").hash("abc".getBytes())));
+    }
+
+    @Test
+    public void testAlgorithms() throws Exception {
+        assertTrue(HashProviders.getAlgorithms().containsAll(Arrays.asList("SHA-256", "SHA-1", "MD5", "BLAKE3")));
+        assertFalse(HashProviders.isSupported("SHA1"));
+        assertFalse(HashProviders.isSupported(null));
+        for (String algorithm : HashProviders.getAlgorithms()) {
+            HashEngine engine = HashEngine.forAlgorithm(algorithm);
+            byte[] digest = engine.hash("event".getBytes());
+            assertEquals(engine.getDigestLength(), digest.length);
+            assertArrayEquals(HashProviders.get(algorithm).newDigest().digest("event".getBytes()), digest);
+            IHash hash = HashUtils.createHash("event", algorithm);
+            assertArrayEquals(digest, hash.toByteArray());
+            assertEquals(hash, HashUtils.createHashFromDigest(digest, algorithm));
+        }
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testUnknownAlgorithm() throws Exception {
+        HashEngine.forAlgorithm("SHA1");
+    }
+
+    private static byte[] input(int length) {
+        byte[] input = new byte[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = (byte) (i % 251);
+        }
+        return input;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
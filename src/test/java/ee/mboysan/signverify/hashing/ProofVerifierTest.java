@@ -0,0 +1,90 @@
+package ee.mboysan.signverify.hashing;
+
+import ee.mboysan.signverify.ops.FileHasher;
+import ee.mboysan.signverify.tree.HashTree;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProofVerifierTest {
+
+    private static final String[] ALGORITHMS = {"SHA-256", "SHA-1", "MD5"};
+
+    private final File file = new File("src/test/resources/tmp.log");
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testVerifyHashChainsOfTree() throws Exception {
+        List<String> events = createEvents(300, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        for (String algorithm : ALGORITHMS) {
+            HashEngine engine = HashEngine.forAlgorithm(algorithm);
+            int digestLength = engine.getDigestLength();
+            byte[] scratch = new byte[digestLength];
+            try (HashTree tree = new FileHasher(file, algorithm).getFileHashTree()) {
+                IHash root = tree.getRoot().getHash();
+                for (String event : events) {
+                    List<IHash> chain = tree.extractHashChain(event, 0);
+                    List<IHash> copy = new ArrayList<>(chain);
+                    assertTrue(ProofVerifier.verify(chain, algorithm, root));
+                    assertEquals(copy, chain);
+
+                    byte[] digests = new byte[chain.size() * digestLength];
+                    byte[] mask = new byte[(chain.size() - 2 + 7) / 8];
+                    for (int i = 0; i < chain.size(); i++) {
+                        System.arraycopy(chain.get(i).toByteArray(), 0, digests, i * digestLength, digestLength);
+                        if (i > 0 && i < chain.size() - 1 && chain.get(i).getPosition() == IHash.Position.LEFT) {
+                            mask[(i - 1) >>> 3] |= 0x80 >>> ((i - 1) & 7);
+                        }
+                    }
+                    assertTrue(ProofVerifier.verifyChain(engine, digests, 0, chain.size() - 2, mask, scratch));
+
+                    if (chain.size() > 2) {
+                        // flipping a direction breaks the proof.
+                        mask[0] ^= 0x80;
+                        assertFalse(ProofVerifier.verifyChain(engine, digests, 0, chain.size() - 2, mask, scratch));
+                        mask[0] ^= 0x80;
+                    }
+                    // a modified digest breaks the proof.
+                    digests[digests.length / 2] ^= 1;
+                    assertFalse(ProofVerifier.verifyChain(engine, digests, 0, chain.size() - 2, mask, scratch));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVerifyAgainstOtherRootFails() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(10, "event")));
+        try (HashTree tree = new FileHasher(file, "SHA-256").getFileHashTree()) {
+            List<IHash> chain = tree.extractHashChain("event3", 0);
+            assertFalse(ProofVerifier.verify(chain, "SHA-256", HashUtils.createHash("other", "SHA-256")));
+            assertFalse(ProofVerifier.verify(chain.subList(0, 1), "SHA-256", tree.getRoot().getHash()));
+        }
+    }
+
+    @Test
+    public void testSingleLeafTree() throws Exception {
+        HashEngine engine = HashEngine.forAlgorithm("SHA-256");
+        byte[] leaf = engine.hash("event0".getBytes());
+        byte[] digests = new byte[2 * leaf.length];
+        System.arraycopy(leaf, 0, digests, 0, leaf.length);
+        System.arraycopy(leaf, 0, digests, leaf.length, leaf.length);
+        assertTrue(ProofVerifier.verifyChain(engine, digests, 0, 0, new byte[0], new byte[leaf.length]));
+    }
+}
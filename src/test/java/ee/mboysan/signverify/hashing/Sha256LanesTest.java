@@ -0,0 +1,69 @@
+package ee.mboysan.signverify.hashing;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Sha256LanesTest {
+
+    @Test
+    public void testAllBlockCounts() throws Exception {
+        // every length accepted, including the ones whose padding needs an extra block (55, 56, 119, 120, ...).
+        int maxLength = Sha256Lanes.MAX_BLOCKS * 64 - 9;
+        assertTrue(Sha256Lanes.accepts(maxLength));
+        assertFalse(Sha256Lanes.accepts(maxLength + 1));
+        assertHashes(maxLength + 1, i -> i);
+    }
+
+    @Test
+    public void testFullGroups() throws Exception {
+        // more messages than lanes, with lengths mixed so that the groups fill up at different times.
+        Random rng = new Random(7);
+        assertHashes(3 * Sha256Lanes.LANES + 5, i -> rng.nextInt(200));
+    }
+
+    @Test
+    public void testLeafBatch() throws Exception {
+        HashEngine engine = HashEngine.forAlgorithm("SHA-256");
+        byte[] event = new byte[1000];
+        new Random(3).nextBytes(event);
+        byte[] out = new byte[2 * 32];
+        HashEngine.LeafBatch batch = engine.newLeafBatch();
+        batch.add(ByteBuffer.wrap(event, 0, 10), out, 0);
+        batch.add(ByteBuffer.wrap(event), out, 32);
+        batch.finish();
+        assertArrayEquals(engine.hash(Arrays.copyOf(event, 10)), Arrays.copyOfRange(out, 0, 32));
+        assertArrayEquals(engine.hash(event), Arrays.copyOfRange(out, 32, 64));
+    }
+
+    private interface Lengths {
+        int of(int i);
+    }
+
+    private static void assertHashes(int count, Lengths lengths) throws Exception {
+        byte[][] messages = new byte[count][];
+        Random rng = new Random(count);
+        for (int i = 0; i < count; i++) {
+            messages[i] = new byte[lengths.of(i)];
+            rng.nextBytes(messages[i]);
+        }
+        Sha256Lanes lanes = new Sha256Lanes();
+        byte[] out = new byte[count * 32];
+        for (int i = 0; i < count; i++) {
+            lanes.add(ByteBuffer.wrap(messages[i]), out, i * 32);
+        }
+        lanes.flush();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals("length " + messages[i].length, md.digest(messages[i]),
+                    Arrays.copyOfRange(out, i * 32, (i + 1) * 32));
+        }
+    }
+}
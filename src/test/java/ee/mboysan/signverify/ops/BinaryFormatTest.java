@@ -0,0 +1,181 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashTree;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.appendToFile;
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the binary encoding of the signatures and the hash chains, see {@link BinaryFormat}.
+ */
+@RunWith(Parameterized.class)
+public class BinaryFormatTest {
+
+    @Parameterized.Parameters(name = "{index}: hashAlg={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {"SHA-256"}, {"SHA-1"}, {"MD5"}, {"BLAKE3"}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public String hashAlgorithm;
+
+    private final File file = new File("src/test/resources/tmp.log");
+    private final File signatureFile = new File("src/test/resources/tmp.sig");
+    private final File chainFile = new File("src/test/resources/tmp.chain");
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(signatureFile.toPath());
+        Files.deleteIfExists(chainFile.toPath());
+    }
+
+    @Test
+    public void testSignaturesRoundTrip() throws Exception {
+        SignVerify sv = new SignVerify();
+        List<Signature> signatures = new ArrayList<>();
+        for (int lineCount : new int[]{1, 7, 300, 1000}) {
+            createFile(file.getPath(), eventsAsLines(createEvents(lineCount, "event")));
+            signatures.add(sv.sign(file, false, hashAlgorithm));
+            signatures.add(sv.sign(file, true, hashAlgorithm));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SignatureWriter writer = new SignatureWriter(bytes)) {
+            for (Signature signature : signatures) {
+                writer.write(signature);
+            }
+        }
+        try (SignatureReader reader = new SignatureReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (Signature expected : signatures) {
+                Signature actual = reader.read();
+                assertEquals(expected.getFileHash(), actual.getFileHash());
+                assertEquals(expected.getEventCount(), actual.getEventCount());
+                assertEquals(expected.isAppendAllowed(), actual.isAppendAllowed());
+                assertEquals(expected.getHashAlgorithm(), actual.getHashAlgorithm());
+                assertEquals(expected.getAppendState() != null, actual.getAppendState() != null);
+                if (expected.getAppendState() != null) {
+                    assertEquals(expected.getAppendState().getSubtreeRoots(),
+                            actual.getAppendState().getSubtreeRoots());
+                    assertEquals(expected.getAppendState().getEventCount(), actual.getAppendState().getEventCount());
+                    assertEquals(expected.getAppendState().getByteCount(), actual.getAppendState().getByteCount());
+                }
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testExtendSignatureReadFromFile() throws Exception {
+        List<String> events = createEvents(600, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        sv.sign(file, signatureFile, true, hashAlgorithm);
+
+        appendToFile(file.getPath(), eventsAsLines(createEvents(77, "newEvent")));
+        Signature extended = sv.extend(signatureFile, file, signatureFile);
+        assertEquals(sv.sign(file, true, hashAlgorithm).getFileHash(), extended.getFileHash());
+        assertTrue(sv.verify(signatureFile, file));
+    }
+
+    @Test
+    public void testSerializedSignatureStillRead() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(50, "event")));
+        SignVerify sv = new SignVerify();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(signatureFile))) {
+            out.writeObject(sv.sign(file, false, hashAlgorithm));
+        }
+        assertTrue(sv.verify(signatureFile, file));
+    }
+
+    @Test
+    public void testHashChainsRoundTrip() throws Exception {
+        List<String> events = createEvents(129, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+
+        List<List<IHash>> chains = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (HashTree tree = new FileHasher(file, hashAlgorithm).getFileHashTree();
+             HashChainWriter writer = new HashChainWriter(bytes)) {
+            for (String event : events) {
+                List<IHash> chain = tree.extractHashChain(event, 0);
+                chains.add(chain);
+                writer.write(chain, hashAlgorithm);
+            }
+        }
+        try (HashChainReader reader = new HashChainReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (List<IHash> expected : chains) {
+                assertTrue(reader.next());
+                assertEquals(hashAlgorithm, reader.getHashAlgorithm());
+                assertEquals(expected.size() - 2, reader.getSiblingCount());
+                int digestLength = reader.getDigestLength();
+                byte[] root = expected.get(expected.size() - 1).toByteArray();
+                assertTrue(reader.verify(root, new byte[digestLength]));
+                assertFalse(reader.verify(expected.get(0).toByteArray(), new byte[digestLength]));
+                for (int i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(expected.get(i).toByteArray(), Arrays.copyOfRange(reader.getDigests(),
+                            i * digestLength, (i + 1) * digestLength));
+                }
+                List<IHash> actual = reader.toHashChain();
+                assertEquals(expected, actual);
+                for (int i = 1; i < expected.size() - 1; i++) {
+                    assertEquals(expected.get(i).getPosition(), actual.get(i).getPosition());
+                }
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testHashChainFile() throws Exception {
+        List<String> events = createEvents(40, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        List<IHash> chain = sv.hashChainForEvent(file, chainFile, "event13", 0, hashAlgorithm);
+        assertEquals(chain, sv.readHashChainFromFile(chainFile));
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            for (IHash hash : chain) {
+                out.writeObject(hash);
+            }
+        }
+        assertTrue(chainFile.length() < serialized.size());
+
+        // files written by older versions.
+        Files.write(chainFile.toPath(), serialized.toByteArray());
+        assertEquals(chain, sv.readHashChainFromFile(chainFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongKindOfStream() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new HashChainWriter(bytes).close();
+        new SignatureReader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
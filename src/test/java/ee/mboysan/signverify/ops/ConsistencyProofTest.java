@@ -0,0 +1,131 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.SubtreeHasher;
+import ee.mboysan.signverify.tree.TreeShape;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link TreeShape} against the file hashers and the {@link ConsistencyProof}s built on it.
+ */
+@RunWith(Parameterized.class)
+public class ConsistencyProofTest {
+
+    @Parameterized.Parameters(name = "{index}: chunkSize={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {0}, {1}, {3}, {4}, {7}, {256}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public int chunkSize;
+
+    private final File file = new File("src/test/resources/tmp.log");
+
+    @Before
+    public void setUp() {
+        FileHasher.CHUNK_SIZE = chunkSize;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileHasher.CHUNK_SIZE = 256;
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testShapeSameRootAsFileHash() throws Exception {
+        for (int lineCount : new int[]{1, 2, 3, 5, 7, 8, 9, 12, 21, 28, 29, 64, 100, 300}) {
+            createFile(file.getPath(), eventsAsLines(createEvents(lineCount, "event")));
+
+            TreeShape shape = new TreeShape(lineCount, chunkSize);
+            SubtreeHasher hasher = new SubtreeHasher("SHA-256", Collections.singletonList(shape.getRoot()));
+            for (String event : createEvents(lineCount, "event")) {
+                hasher.appendEvent(ByteBuffer.wrap(event.getBytes()));
+            }
+            assertTrue(hasher.isDone());
+            assertEquals("lineCount " + lineCount, new StreamingFileHasher(file, "SHA-256").getFileHash(),
+                    hasher.getHashes().get(0));
+        }
+    }
+
+    @Test
+    public void testProofForEveryPrefix() throws Exception {
+        int lineCount = 70;
+        List<String> events = createEvents(lineCount, "event");
+        List<Signature> signatures = new ArrayList<>();
+        SignVerify sv = new SignVerify();
+        for (int m = 1; m <= lineCount; m++) {
+            createFile(file.getPath(), eventsAsLines(events.subList(0, m)));
+            signatures.add(sv.sign(file, m % 2 == 0, "SHA-256"));
+        }
+        Signature newer = signatures.get(lineCount - 1);
+        int maxHashes = 0;
+        for (int m = 1; m <= lineCount; m++) {
+            Signature older = signatures.get(m - 1);
+            ConsistencyProof proof = sv.proveConsistency(older, newer, file);
+            assertTrue("m " + m, sv.verifyConsistency(older, newer, proof));
+            assertEquals(m == lineCount, sv.verifyConsistency(newer, older, proof));
+            if (m > 1) {
+                assertFalse("m " + m, sv.verifyConsistency(signatures.get(m - 2), newer, proof));
+            }
+            maxHashes = Math.max(maxHashes, proof.getHashes().size());
+        }
+        assertTrue("proof size " + maxHashes, maxHashes <= 2 * 8 + 2);
+    }
+
+    @Test
+    public void testTamperedProofFails() throws Exception {
+        List<String> events = createEvents(50, "event");
+        SignVerify sv = new SignVerify();
+        createFile(file.getPath(), eventsAsLines(events.subList(0, 21)));
+        Signature older = sv.sign(file, true, "SHA-256");
+        createFile(file.getPath(), eventsAsLines(events));
+        Signature newer = sv.sign(file, true, "SHA-256");
+
+        ConsistencyProof proof = sv.proveConsistency(older, newer, file);
+        for (int i = 0; i < proof.getHashes().size(); i++) {
+            List<IHash> hashes = new ArrayList<>(proof.getHashes());
+            hashes.set(i, hashes.get((i + 1) % hashes.size()));
+            ConsistencyProof tampered = new ConsistencyProof(proof.getOldEventCount(), proof.getNewEventCount(),
+                    chunkSize, proof.getHashAlgorithm(), hashes);
+            assertFalse(sv.verifyConsistency(older, newer, tampered));
+        }
+    }
+
+    @Test(expected = FileHashingFailedException.class)
+    public void testProofOfModifiedFileFails() throws Exception {
+        List<String> events = createEvents(50, "event");
+        SignVerify sv = new SignVerify();
+        createFile(file.getPath(), eventsAsLines(events.subList(0, 21)));
+        Signature older = sv.sign(file, false, "SHA-256");
+        createFile(file.getPath(), eventsAsLines(events));
+        Signature newer = sv.sign(file, false, "SHA-256");
+
+        events.set(3, "modified");
+        createFile(file.getPath(), eventsAsLines(events));
+        sv.proveConsistency(older, newer, file);
+    }
+}
@@ -0,0 +1,264 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashFrontier;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static ee.mboysan.signverify.util.TestUtils.appendToFile;
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests signing the files of a directory into a {@link Manifest} and verifying them with it.
+ */
+public class ManifestTest {
+
+    private final File directory = new File("src/test/resources/tmp-manifest");
+    private final File manifestFile = new File("src/test/resources/tmp.manifest");
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(manifestFile.toPath());
+        if (directory.exists()) {
+            try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testSignAllMatchesSigningEachFile() throws Exception {
+        createFiles(20);
+        SignVerify signVerify = new SignVerify();
+        Manifest manifest = signVerify.signAll(directory, "**.log", manifestFile, true, "SHA-256");
+
+        assertEquals(SignVerify.listFiles(directory, "**.log"), paths(manifest));
+        assertEquals(20, manifest.getEntries().size());
+        HashFrontier frontier = new HashFrontier("SHA-256");
+        for (Manifest.Entry entry : manifest.getEntries()) {
+            File file = new File(directory, entry.getPath());
+            Signature expected = signVerify.sign(file, true, "SHA-256");
+            assertEquals(expected.getFileHash(), entry.getSignature().getFileHash());
+            assertEquals(expected.getEventCount(), entry.getSignature().getEventCount());
+            assertTrue(signVerify.verify(entry.getSignature(), file));
+            frontier.appendLeafDigest(leafDigest(entry.getPath(), expected.getFileHash()), 0);
+        }
+        assertEquals(frontier.getRoot(), manifest.getRoot());
+
+        Manifest read = signVerify.readManifest(manifestFile);
+        assertEquals(manifest.getRoot(), read.getRoot());
+        assertEquals(paths(manifest), paths(read));
+        for (int i = 0; i < read.getEntries().size(); i++) {
+            Signature signature = read.getEntries().get(i).getSignature();
+            assertEquals(manifest.getEntries().get(i).getSignature().getFileHash(), signature.getFileHash());
+            assertTrue(signature.isAppendAllowed());
+            assertTrue(signature.getAppendState() != null);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testSignAllOnBoundedExecutor() throws Exception {
+        createFiles(12);
+        Manifest expected = new SignVerify().signAll(directory, "**.log", true, "SHA-256");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            splitIntoRanges();
+            Manifest manifest = new SignVerify(executor).signAll(directory, "**.log", true, "SHA-256");
+            assertEquals(expected.getRoot(), manifest.getRoot());
+        } finally {
+            resetRanges();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRootCoversPaths() throws Exception {
+        createFiles(2);
+        SignVerify signVerify = new SignVerify();
+        Signature first = signVerify.sign(new File(directory, "a0.log"), false, "SHA-256");
+        Signature second = signVerify.sign(new File(directory, "sub/a1.log"), false, "SHA-256");
+        IHash root = new Manifest("SHA-256", Arrays.asList(
+                new Manifest.Entry("a.log", first), new Manifest.Entry("b.log", second))).getRoot();
+        IHash swapped = new Manifest("SHA-256", Arrays.asList(
+                new Manifest.Entry("a.log", second), new Manifest.Entry("b.log", first))).getRoot();
+        IHash renamed = new Manifest("SHA-256", Arrays.asList(
+                new Manifest.Entry("a.log", first), new Manifest.Entry("c.log", second))).getRoot();
+        assertNotEquals(root, swapped);
+        assertNotEquals(root, renamed);
+        assertNotEquals(swapped, renamed);
+    }
+
+    @Test
+    public void testGlobRelativeToDirectory() throws Exception {
+        createFiles(4);
+        createFile(directory + "/notes.txt", "note\n");
+        assertEquals(Arrays.asList("a0.log", "a2.log"), SignVerify.listFiles(directory, "*.log"));
+        assertEquals(Arrays.asList("a0.log", "a2.log", "sub/a1.log", "sub/a3.log"),
+                SignVerify.listFiles(directory, "**.log"));
+        assertEquals(Arrays.asList("sub/a1.log", "sub/a3.log"), SignVerify.listFiles(directory, "**/*.log"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoMatchingFiles() throws Exception {
+        createFiles(2);
+        new SignVerify().signAll(directory, "*.txt", false, "SHA-256");
+    }
+
+    @Test
+    public void testSignAllFailsOnEmptyFile() throws Exception {
+        createFiles(4);
+        createFile(directory + "/empty.log", "");
+        try {
+            new SignVerify().signAll(directory, "*.log", false, "SHA-256");
+            fail("signed an empty file");
+        } catch (FileHashingFailedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("empty.log"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedRootIsRejected() throws Exception {
+        createFiles(3);
+        Manifest manifest = new SignVerify().signAll(directory, "**.log", false, "SHA-256");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        // the first byte of the root: magic, version, kind, algorithm id and file count come before it.
+        bytes[4 + 1 + 1 + 1 + 4] ^= 1;
+        Manifest.readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testVerifyAll() throws Exception {
+        createFiles(20);
+        SignVerify signVerify = new SignVerify();
+        signVerify.signAll(directory, "**.log", manifestFile, false, "SHA-256");
+        List<FileVerification> results = new ArrayList<>();
+        assertTrue(signVerify.verifyAll(manifestFile, directory, 3, false, results::add));
+        assertEquals(20, results.size());
+        for (FileVerification result : results) {
+            assertTrue(result.toString(), result.isVerified());
+        }
+
+        appendToFile(directory + "/sub/a5.log", "appended");
+        Files.delete(new File(directory, "a8.log").toPath());
+        createFile(directory + "/a10.log", "");
+        results.clear();
+        assertFalse(signVerify.verifyAll(manifestFile, directory, 3, false, results::add));
+        assertEquals(20, results.size());
+        Map<String, FileVerification.Status> statuses = new HashMap<>();
+        for (FileVerification result : results) {
+            statuses.put(result.getPath(), result.getStatus());
+        }
+        assertEquals(FileVerification.Status.FAILED, statuses.get("sub/a5.log"));
+        assertEquals(FileVerification.Status.MISSING, statuses.get("a8.log"));
+        assertEquals(FileVerification.Status.FAILED, statuses.get("a10.log"));
+        assertEquals(17, Collections.frequency(statuses.values(), FileVerification.Status.VERIFIED));
+    }
+
+    @Test(timeout = 20000)
+    public void testVerifyAllOnBoundedExecutor() throws Exception {
+        createFiles(12);
+        Manifest manifest = new SignVerify().signAll(directory, "**.log", false, "SHA-256");
+        appendToFile(directory + "/sub/a5.log", "appended");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            splitIntoRanges();
+            Map<String, FileVerification.Status> statuses = new HashMap<>();
+            assertFalse(new SignVerify(executor).verifyAll(manifest, directory, 4, false,
+                    result -> statuses.put(result.getPath(), result.getStatus())));
+            assertEquals(12, statuses.size());
+            assertEquals(FileVerification.Status.FAILED, statuses.get("sub/a5.log"));
+            assertEquals(11, Collections.frequency(statuses.values(), FileVerification.Status.VERIFIED));
+        } finally {
+            resetRanges();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVerifyAllStopsOnFailure() throws Exception {
+        createFiles(20);
+        SignVerify signVerify = new SignVerify();
+        Manifest manifest = signVerify.signAll(directory, "**.log", false, "SHA-256");
+        // the largest file is verified first.
+        appendToFile(directory + "/sub/a19.log", "appended");
+        List<FileVerification> results = new ArrayList<>();
+        assertFalse(signVerify.verifyAll(manifest, directory, 1, true, results::add));
+        assertEquals(1, results.size());
+        assertEquals("sub/a19.log", results.get(0).getPath());
+        assertEquals(FileVerification.Status.FAILED, results.get(0).getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVerifyAllNeedsPositiveMaxFiles() throws Exception {
+        createFiles(2);
+        SignVerify signVerify = new SignVerify();
+        signVerify.verifyAll(signVerify.signAll(directory, "**.log", false, "SHA-256"), directory, 0, false,
+                result -> {});
+    }
+
+    /**
+     * splits even the small files into ranges, so that their lines are hashed by jobs of their own.
+     */
+    private static void splitIntoRanges() {
+        StreamingFileHasher.PARALLELISM = 4;
+        StreamingFileHasher.RANGE_SIZE = 1 << 10;
+        StreamingFileHasher.MIN_RANGE_SIZE = 0;
+    }
+
+    private static void resetRanges() {
+        StreamingFileHasher.PARALLELISM = Runtime.getRuntime().availableProcessors();
+        StreamingFileHasher.RANGE_SIZE = 1 << 22;
+        StreamingFileHasher.MIN_RANGE_SIZE = 1 << 20;
+    }
+
+    private void createFiles(int count) throws IOException {
+        Files.createDirectories(new File(directory, "sub").toPath());
+        for (int i = 0; i < count; i++) {
+            String path = (i % 2 == 0 ? "" : "sub/") + "a" + i + ".log";
+            createFile(directory + "/" + path, eventsAsLines(createEvents(1 + i * 37, "event" + i)));
+        }
+    }
+
+    private static byte[] leafDigest(String path, IHash fileRoot) throws Exception {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(ByteBuffer.allocate(Integer.BYTES).putInt(pathBytes.length).array());
+        md.update(pathBytes);
+        md.update(fileRoot.toByteArray());
+        return md.digest();
+    }
+
+    private static List<String> paths(Manifest manifest) {
+        return Arrays.asList(manifest.getEntries().stream().map(Manifest.Entry::getPath).toArray(String[]::new));
+    }
+}
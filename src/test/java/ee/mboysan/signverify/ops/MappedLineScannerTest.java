@@ -0,0 +1,119 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashFrontier;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the {@link MappedLineScanner} splits the lines the same as {@link BufferedReader#readLine()}, also when
+ * the lines and the terminators cross the mapped windows.
+ */
+@RunWith(Parameterized.class)
+public class MappedLineScannerTest {
+
+    @Parameterized.Parameters(name = "{index}: windowSize={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {1}, {2}, {3}, {7}, {1 << 26}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public int windowSize;
+
+    private final File file = new File("src/test/resources/tmp.log");
+
+    @After
+    public void tearDown() throws Exception {
+        MappedLineScanner.WINDOW_SIZE = 1 << 26;
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testSameLinesAsReader() throws Exception {
+        String[] contents = {
+                "a", "a\n", "\n", "\n\n", "a\nb", "a\r\nb\r\n", "a\rb\r", "\r\n\r\n", "\r\r\n\n", "a\r\n\rb",
+                "long line of some events\nshort\r\näöü € 😀\rlast"
+        };
+        for (String content : contents) {
+            assertEquals(content, readLines(content), scanLines(content));
+        }
+    }
+
+    @Test
+    public void testSameLeafHashesAsDecodedLines() throws Exception {
+        String content = "ascii\näöü\r\n€ 😀\n﻿bom\n";
+        MappedLineScanner.WINDOW_SIZE = windowSize;
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        List<IHash> actual = new ArrayList<>();
+        MappedLineScanner.scan(file, (window, start, end) -> {
+            HashFrontier frontier = new HashFrontier("SHA-256");
+            window.limit(end);
+            window.position(start);
+            frontier.appendEvent(window);
+            actual.add(frontier.getRoot());
+        });
+        List<IHash> expected = new ArrayList<>();
+        for (String line : readLines(content)) {
+            expected.add(HashUtils.createHash(line, "SHA-256"));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLineStartFrom() throws Exception {
+        String content = "a\r\n\rbc\n\r\r\nd";
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        long[] expected = {0, 3, 3, 3, 4, 7, 7, 7, 8, 10, 10, 11};
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int position = 0; position < expected.length; position++) {
+                assertEquals("position " + position, expected[position], MappedLineScanner.lineStartFrom(channel, position));
+            }
+        }
+    }
+
+    private List<String> scanLines(String content) throws Exception {
+        MappedLineScanner.WINDOW_SIZE = windowSize;
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        long count = MappedLineScanner.scan(file, (window, start, end) -> {
+            byte[] bytes = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                bytes[i - start] = window.get(i);
+            }
+            lines.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        assertEquals(lines.size(), count);
+        return lines;
+    }
+
+    private static List<String> readLines(String content) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,150 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link MultiProof}s against the hash chains of the single events.
+ */
+@RunWith(Parameterized.class)
+public class MultiProofTest {
+
+    @Parameterized.Parameters(name = "{index}: chunkSize={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {0}, {3}, {4}, {256}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public int chunkSize;
+
+    private final File file = new File("src/test/resources/tmp.log");
+
+    @Before
+    public void setUp() {
+        FileHasher.CHUNK_SIZE = chunkSize;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileHasher.CHUNK_SIZE = 256;
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testSingleEventSameAsHashChain() throws Exception {
+        List<String> events = createEvents(45, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        Signature signature = sv.sign(file, false, "SHA-256");
+
+        try (HashTree tree = new FileHasher(file, "SHA-256").getFileHashTree()) {
+            for (String event : events) {
+                MultiProof proof = sv.multiProofForEvents(file, null, Collections.singletonList(event), "SHA-256");
+                List<IHash> chain = tree.extractHashChain(event);
+                assertEquals(chain.get(0), proof.getLeafHashes().get(0));
+                assertEquals(chain.size() - 2, proof.getHashes().size());
+                assertTrue(proof.getHashes().containsAll(chain.subList(1, chain.size() - 1)));
+                assertTrue(sv.verifyMultiProof(signature, proof));
+            }
+        }
+    }
+
+    @Test
+    public void testManyEventsShareNodes() throws Exception {
+        List<String> events = createEvents(300, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        Signature signature = sv.sign(file, false, "SHA-256");
+
+        Random rng = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            List<String> toProve = new ArrayList<>();
+            List<Long> indices = new ArrayList<>();
+            int singleProofsSize = 0;
+            for (int i = 0; i < events.size(); i++) {
+                if (rng.nextInt(10) == 0) {
+                    toProve.add(events.get(i));
+                    indices.add((long) i);
+                    singleProofsSize += sv.multiProofForEvents(file, null,
+                            Collections.singletonList(events.get(i)), "SHA-256").getHashes().size();
+                }
+            }
+            if (toProve.isEmpty()) {
+                continue;
+            }
+            Collections.shuffle(toProve, rng);
+            MultiProof proof = sv.multiProofForEvents(file, null, toProve, "SHA-256");
+            assertTrue(sv.verifyMultiProof(signature, proof));
+            assertArrayEquals(indices.stream().mapToLong(Long::longValue).toArray(), proof.getLeafIndices());
+            for (String event : toProve) {
+                assertTrue(proof.containsEvent(event));
+            }
+            if (toProve.size() > 1) {
+                assertTrue(proof.getHashes().size() < singleProofsSize);
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedEvents() throws Exception {
+        createFile(file.getPath(), eventsAsLines(Arrays.asList("a", "b", "a", "c", "a")));
+        SignVerify sv = new SignVerify();
+        Signature signature = sv.sign(file, false, "SHA-256");
+
+        MultiProof proof = sv.multiProofForEvents(file, null, Arrays.asList("a", "c", "a"), "SHA-256");
+        assertArrayEquals(new long[]{0, 2, 3}, proof.getLeafIndices());
+        assertTrue(sv.verifyMultiProof(signature, proof));
+    }
+
+    @Test
+    public void testTamperedProofFails() throws Exception {
+        List<String> events = createEvents(100, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        Signature signature = sv.sign(file, false, "SHA-256");
+
+        MultiProof proof = sv.multiProofForEvents(file, null, Arrays.asList("event3", "event50", "event97"), "SHA-256");
+        List<IHash> hashes = new ArrayList<>(proof.getHashes());
+        Collections.swap(hashes, 0, 1);
+        MultiProof tampered = new MultiProof(proof.getEventCount(), chunkSize, "SHA-256", proof.getLeafIndices(),
+                proof.getLeafHashes(), hashes, proof.getRootHash());
+        assertFalse(sv.verifyMultiProof(signature, tampered));
+
+        long[] indices = proof.getLeafIndices();
+        indices[1]++;
+        tampered = new MultiProof(proof.getEventCount(), chunkSize, "SHA-256", indices,
+                proof.getLeafHashes(), proof.getHashes(), proof.getRootHash());
+        assertFalse(sv.verifyMultiProof(signature, tampered));
+    }
+
+    @Test(expected = HashNotFoundException.class)
+    public void testMissingEvent() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(10, "event")));
+        new SignVerify().multiProofForEvents(file, null, Arrays.asList("event3", "event3", "missing"), "SHA-256");
+    }
+}
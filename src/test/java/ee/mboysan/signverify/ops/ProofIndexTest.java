@@ -0,0 +1,201 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.IHash;
+import ee.mboysan.signverify.tree.HashTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.appendToFile;
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hash chains read from the {@link ProofIndex} against the ones of the hash tree of the file.
+ */
+@RunWith(Parameterized.class)
+public class ProofIndexTest {
+
+    @Parameterized.Parameters(name = "{index}: hashAlg={0}, chunkSize={1}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {"SHA-256", 0}, {"SHA-256", 3}, {"SHA-256", 4}, {"SHA-256", 256}, {"MD5", 3}, {"SHA-1", 256}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public String hashAlgorithm;
+
+    @Parameterized.Parameter(1)
+    public int chunkSize;
+
+    private final File file = new File("src/test/resources/tmp.log");
+    private final File indexFile = ProofIndex.sidecarOf(file);
+
+    @Before
+    public void setUp() {
+        FileHasher.CHUNK_SIZE = chunkSize;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileHasher.CHUNK_SIZE = 256;
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+    }
+
+    @Test
+    public void testSameHashChainsAsHashTree() throws Exception {
+        for (int lineCount : new int[]{1, 2, 5, 8, 21, 100, 300}) {
+            List<String> events = createEvents(lineCount, "event");
+            createFile(file.getPath(), eventsAsLines(events));
+            IHash root = new SignVerify().index(file, hashAlgorithm);
+
+            try (ProofIndex index = ProofIndex.open(indexFile);
+                 HashTree tree = new FileHasher(file, hashAlgorithm).getFileHashTree()) {
+                assertEquals(tree.getRoot().getHash(), root);
+                assertEquals(root, index.getRoot());
+                assertEquals(lineCount, index.getLeafCount());
+                for (String event : events) {
+                    assertChainsEqual(tree.extractHashChain(event, 0), index.extractHashChain(event));
+                    assertTrue(index.isValidEvent(event));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHashChainsAndEventsByLine() throws Exception {
+        for (int lineCount : new int[]{1, 2, 5, 64, 65, 130}) {
+            List<String> events = createEvents(lineCount, "event");
+            StringBuilder content = new StringBuilder();
+            String[] terminators = {"\n", "\r\n", "\r"};
+            for (int i = 0; i < lineCount; i++) {
+                content.append(events.get(i));
+                if (i < lineCount - 1) {
+                    content.append(terminators[i % terminators.length]);
+                }
+            }
+            Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+            new SignVerify().index(file, hashAlgorithm);
+
+            try (ProofIndex index = ProofIndex.open(indexFile);
+                 HashTree tree = new FileHasher(file, hashAlgorithm).getFileHashTree()) {
+                for (int i = 0; i < lineCount; i++) {
+                    List<IHash> expected = tree.extractHashChain(events.get(i), 0);
+                    assertChainsEqual(expected, index.extractHashChain(i));
+                    assertChainsEqual(expected, tree.extractHashChain(i));
+                    assertEquals(events.get(i), index.readEvent(file, i));
+                }
+                assertEquals(file.length(), index.lineOffset(lineCount));
+            }
+        }
+    }
+
+    @Test
+    public void testSignVerifyHashChainForLine() throws Exception {
+        List<String> events = createEvents(100, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        // without an index, the tree of the file is used.
+        List<IHash> expected = sv.hashChainForLine(file, null, 42, hashAlgorithm);
+        assertEquals("event42", sv.eventAt(file, 42, hashAlgorithm));
+
+        sv.index(file, hashAlgorithm);
+        assertChainsEqual(expected, sv.hashChainForLine(file, null, 42, hashAlgorithm));
+        assertEquals("event42", sv.eventAt(file, 42, hashAlgorithm));
+        try (ProofIndex index = ProofIndex.open(indexFile)) {
+            index.extractHashChain(100);
+            throw new AssertionError("line out of range");
+        } catch (IndexOutOfBoundsException expectedException) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRepeatedEvents() throws Exception {
+        List<String> events = Arrays.asList("a", "b", "a", "c", "a", "b", "a");
+        createFile(file.getPath(), eventsAsLines(events));
+        new SignVerify().index(file, hashAlgorithm);
+
+        try (ProofIndex index = ProofIndex.open(indexFile);
+             HashTree tree = new FileHasher(file, hashAlgorithm).getFileHashTree()) {
+            for (int occurrence = 0; occurrence < 4; occurrence++) {
+                assertChainsEqual(tree.extractHashChain("a", occurrence), index.extractHashChain("a", occurrence));
+            }
+        }
+    }
+
+    @Test(expected = HashNotFoundException.class)
+    public void testMissingOccurrence() throws Exception {
+        createFile(file.getPath(), eventsAsLines(Arrays.asList("a", "b", "a")));
+        new SignVerify().index(file, hashAlgorithm);
+        try (ProofIndex index = ProofIndex.open(indexFile)) {
+            index.extractHashChain("a", 2);
+        }
+    }
+
+    @Test
+    public void testSignVerifyUsesFreshIndexOnly() throws Exception {
+        List<String> events = createEvents(50, "event");
+        createFile(file.getPath(), eventsAsLines(events));
+        SignVerify sv = new SignVerify();
+        sv.index(file, hashAlgorithm);
+
+        try (ProofIndex index = ProofIndex.openFor(file, hashAlgorithm)) {
+            assertNotNull(index);
+        }
+        assertNull(ProofIndex.openFor(file, "SHA-256".equals(hashAlgorithm) ? "MD5" : "SHA-256"));
+        assertTrue(sv.isValidEvent(file, "event7", hashAlgorithm));
+
+        appendToFile(file.getPath(), eventsAsLines(createEvents(3, "newEvent")));
+        assertNull(ProofIndex.openFor(file, hashAlgorithm));
+        // falls back to hashing the file, which has the new lines.
+        List<IHash> chain = sv.hashChainForEvent(file, null, "newEvent1", 0, hashAlgorithm);
+        assertEquals(new StreamingFileHasher(file, hashAlgorithm).getFileHash(), chain.get(chain.size() - 1));
+        assertTrue(sv.isValidEvent(file, "newEvent1", hashAlgorithm));
+
+        IHash root = sv.index(file, hashAlgorithm);
+        assertEquals(root, sv.hashChainForEvent(file, null, "newEvent1", 0, hashAlgorithm).get(chain.size() - 1));
+    }
+
+    @Test
+    public void testTruncatedIndexIsNotUsed() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(20, "event")));
+        new SignVerify().index(file, hashAlgorithm);
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try {
+            ProofIndex.open(indexFile).close();
+            throw new AssertionError("truncated index opened");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertNull(ProofIndex.openFor(file, hashAlgorithm));
+    }
+
+    private static void assertChainsEqual(List<IHash> expected, List<IHash> actual) {
+        assertEquals(expected, actual);
+        for (int i = 1; i < expected.size() - 1; i++) {
+            assertEquals(expected.get(i).getPosition(), actual.get(i).getPosition());
+        }
+    }
+}
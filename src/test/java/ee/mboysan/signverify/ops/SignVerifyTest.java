@@ -10,6 +10,7 @@ import ee.mboysan.signverify.tree.HashTree;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -17,6 +18,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static ee.mboysan.signverify.util.TestUtils.*;
@@ -29,6 +31,8 @@ public class SignVerifyTest {
         return Arrays.asList(new Object[][] {
                 {"SHA-256", "MEM"}, {"SHA-1", "MEM"}, {"MD5", "MEM"},
                 {"SHA-256", "CPU"}, {"SHA-1", "CPU"}, {"MD5", "CPU"},
+                {"SHA-256", "FLAT"}, {"SHA-1", "FLAT"}, {"MD5", "FLAT"},
+                {"SHA-256", "MMAP"}, {"SHA-1", "MMAP"}, {"MD5", "MMAP"},
         });
     }
 
@@ -114,5 +118,66 @@ public class SignVerifyTest {
         assertFalse(sv.verify(signatureFile, fileToSign));
     }
 
+    @Test
+    public void testExtendSameAsSign() throws Exception {
+        createRandomFile(fileToSign.getPath(), 1, 500);
+        File extendedFile = new File("src/test/resources/test_extended.sig");
+        filesToDelete.add(extendedFile);
+
+        SignVerify sv = new SignVerify();
+
+        Signature trusted = sv.sign(fileToSign, signatureFile, true, hashAlgorithm);
+
+        appendToFile(fileToSign.getPath(), eventsAsLines(createEvents(300, "newEventSet1.")));
+        Signature extended = sv.extend(signatureFile, fileToSign, extendedFile);
+        Signature signed = sv.sign(fileToSign, true, hashAlgorithm);
+        assertEquals(signed.getFileHash(), extended.getFileHash());
+        assertEquals(signed.getEventCount(), extended.getEventCount());
+        assertTrue(sv.verify(extendedFile, fileToSign));
+        assertTrue(sv.verifyAppend(trusted, extended, fileToSign));
+
+        appendToFile(fileToSign.getPath(), eventsAsLines(createEvents(5, "newEventSet2.")));
+        Signature extendedAgain = sv.extend(extended, fileToSign);
+        assertEquals(sv.sign(fileToSign, true, hashAlgorithm).getFileHash(), extendedAgain.getFileHash());
+        assertTrue(sv.verifyAppend(trusted, extendedAgain, fileToSign));
+        assertTrue(sv.verifyAppend(extended, extendedAgain, fileToSign));
+        assertFalse(sv.verifyAppend(extendedAgain, extended, fileToSign));
+    }
+
+    @Test
+    public void testVerifyAppendModifiedAppendedLine() throws Exception {
+        createFile(fileToSign.getPath(), eventsAsLines(createEvents(100, "event")));
+
+        SignVerify sv = new SignVerify();
+
+        Signature trusted = sv.sign(fileToSign, true, hashAlgorithm);
+        appendToFile(fileToSign.getPath(), eventsAsLines(createEvents(100, "newEvent")));
+        Signature extended = sv.extend(trusted, fileToSign);
+
+        Files.write(fileToSign.toPath(), new String(Files.readAllBytes(fileToSign.toPath()))
+                .replace("newEvent50", "newEvent5O").getBytes());
+        assertFalse(sv.verifyAppend(trusted, extended, fileToSign));
+    }
+
+    @Test
+    public void testVerifyAppendModifiedLastTrustedLine() throws Exception {
+        createFile(fileToSign.getPath(), eventsAsLines(createEvents(100, "event")));
+
+        SignVerify sv = new SignVerify();
+
+        Signature trusted = sv.sign(fileToSign, true, hashAlgorithm);
+        Files.write(fileToSign.toPath(), "appended to the last line".getBytes(), StandardOpenOption.APPEND);
+        Signature signed = sv.sign(fileToSign, true, hashAlgorithm);
+        assertFalse(sv.verifyAppend(trusted, signed, fileToSign));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtendAppendNotAllowed() throws Exception {
+        createRandomFile(fileToSign.getPath(), 1, 100);
 
-}
\ No newline at end of file
+        SignVerify sv = new SignVerify();
+
+        Signature signature = sv.sign(fileToSign, false, hashAlgorithm);
+        sv.extend(signature, fileToSign);
+    }
+}
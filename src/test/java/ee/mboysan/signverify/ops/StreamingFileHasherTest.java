@@ -0,0 +1,186 @@
+package ee.mboysan.signverify.ops;
+
+import ee.mboysan.signverify.exceptions.FileHashingFailedException;
+import ee.mboysan.signverify.tree.HashTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static ee.mboysan.signverify.util.TestUtils.createFile;
+import static ee.mboysan.signverify.util.TestUtils.eventsAsLines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link StreamingFileHasher} against the {@link FileHasher}, also when the file is split into many ranges
+ * hashed in parallel.
+ */
+@RunWith(Parameterized.class)
+public class StreamingFileHasherTest {
+
+    @Parameterized.Parameters(name = "{index}: chunkSize={0}, parallelism={1}, rangeSize={2}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {0, 1, 1 << 24}, {1, 1, 1 << 24}, {4, 1, 1 << 24}, {127, 1, 1 << 24}, {256, 1, 1 << 24},
+                {0, 3, 64}, {1, 3, 64}, {4, 3, 64}, {127, 3, 64}, {256, 3, 64},
+                {4, 8, 1}, {127, 2, 1000}, {256, 4, 1 << 24}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public int chunkSize;
+
+    @Parameterized.Parameter(1)
+    public int parallelism;
+
+    @Parameterized.Parameter(2)
+    public int rangeSize;
+
+    private final File file = new File("src/test/resources/tmp.log");
+
+    @Before
+    public void setUp() {
+        FileHasher.CHUNK_SIZE = chunkSize;
+        StreamingFileHasher.PARALLELISM = parallelism;
+        StreamingFileHasher.RANGE_SIZE = rangeSize;
+        StreamingFileHasher.MIN_RANGE_SIZE = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileHasher.CHUNK_SIZE = 256;
+        StreamingFileHasher.PARALLELISM = Runtime.getRuntime().availableProcessors();
+        StreamingFileHasher.RANGE_SIZE = 1 << 22;
+        StreamingFileHasher.MIN_RANGE_SIZE = 1 << 20;
+        StreamingFileHasher.MAX_RANGE_LEAVES = 1 << 17;
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testSameHashAsFileHasher() throws Exception {
+        for (int lineCount : new int[]{1, 2, 3, 5, 8, 127, 128, 129, 300, 1000}) {
+            createFile(file.getPath(), eventsAsLines(createEvents(lineCount, "event")));
+
+            StreamingFileHasher streaming = new StreamingFileHasher(file, "SHA-256");
+            try (HashTree tree = new FileHasher(file, "SHA-256").getFileHashTree()) {
+                assertEquals(tree.getRoot().getHash(), streaming.getFileHash());
+                assertEquals(tree.getLeafCount(), streaming.getEventCount());
+            }
+            assertNull(streaming.getPrevEventsHash());
+        }
+    }
+
+    @Test
+    public void testSameHashWithLinesBeyondKeptLeaves() throws Exception {
+        StreamingFileHasher.MAX_RANGE_LEAVES = 3;
+        for (int lineCount : new int[]{1, 3, 4, 129, 1000}) {
+            createFile(file.getPath(), eventsAsLines(createEvents(lineCount, "event")));
+
+            StreamingFileHasher streaming = new StreamingFileHasher(file, 100, "SHA-256");
+            FileHasher hasher = new FileHasher(file, 100, "SHA-256");
+            hasher.getFileHashTree().close();
+            assertEquals(hasher.getFileHash(), streaming.getFileHash());
+            assertEquals(hasher.getPrevEventsHash(), streaming.getPrevEventsHash());
+            assertEquals(lineCount, streaming.getEventCount());
+        }
+    }
+
+    @Test
+    public void testSameHashesAsFileHasherWithPrevEventCount() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(700, "event")));
+        for (int prevEventCount : new int[]{1, 2, 3, 4, 5, 127, 128, 256, 257, 699, 700, 701}) {
+            StreamingFileHasher streaming = new StreamingFileHasher(file, prevEventCount, "MD5");
+            FileHasher hasher = new FileHasher(file, prevEventCount, "MD5");
+            hasher.getFileHashTree().close();
+
+            assertEquals(hasher.getFileHash(), streaming.getFileHash());
+            assertEquals(hasher.getPrevEventsHash(), streaming.getPrevEventsHash());
+        }
+    }
+
+    @Test
+    public void testResumeSameHashAsWholeFile() throws Exception {
+        String[] terminators = {"\n", "\r\n", "\r", "\n\n", "\r\r\n"};
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            content.append("event").append(i).append(terminators[i % terminators.length]);
+        }
+        content.append("last");
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+
+        Files.write(file.toPath(), bytes);
+        StreamingFileHasher whole = new StreamingFileHasher(file, "SHA-256");
+        for (int hashed = 1; hashed <= bytes.length; hashed++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, hashed));
+            AppendState state = new StreamingFileHasher(file, "SHA-256").getAppendState();
+            assertEquals(hashed, state.getByteCount());
+
+            Files.write(file.toPath(), bytes);
+            boolean lastLineCut = isLetterOrDigit(bytes[hashed - 1]) && hashed < bytes.length
+                    && isLetterOrDigit(bytes[hashed]);
+            try {
+                StreamingFileHasher resumed = new StreamingFileHasher(file, state, -1);
+                if (lastLineCut) {
+                    fail("modified last line not detected at " + hashed);
+                }
+                assertEquals("hashed " + hashed, whole.getFileHash(), resumed.getFileHash());
+                assertEquals("hashed " + hashed, whole.getEventCount(), resumed.getEventCount());
+                assertEquals(bytes.length, resumed.getAppendState().getByteCount());
+            } catch (FileHashingFailedException e) {
+                if (!lastLineCut) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean isLetterOrDigit(byte b) {
+        return Character.isLetterOrDigit((char) b);
+    }
+
+    @Test(expected = FileHashingFailedException.class)
+    public void testResumeTruncatedFile() throws Exception {
+        createFile(file.getPath(), eventsAsLines(createEvents(10, "event")));
+        AppendState state = new StreamingFileHasher(file, "SHA-256").getAppendState();
+        createFile(file.getPath(), eventsAsLines(createEvents(5, "event")));
+        new StreamingFileHasher(file, state, -1);
+    }
+
+    @Test(expected = FileHashingFailedException.class)
+    public void testStreamingEmptyFile() throws Exception {
+        new StreamingFileHasher(new File("src/test/resources/empty.txt"));
+    }
+
+    @Test
+    public void testSmallFileIsNotSplit() throws Exception {
+        StreamingFileHasher.PARALLELISM = 32;
+        StreamingFileHasher.RANGE_SIZE = 1 << 24;
+        StreamingFileHasher.MIN_RANGE_SIZE = 1 << 20;
+        createFile(file.getPath(), eventsAsLines(createEvents(100, "event")));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(1, StreamingFileHasher.split(channel, 0, channel.size()).size());
+        }
+        StreamingFileHasher.MIN_RANGE_SIZE = 64;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<long[]> ranges = StreamingFileHasher.split(channel, 0, channel.size());
+            assertEquals(channel.size(), ranges.get(ranges.size() - 1)[1]);
+            for (long[] range : ranges.subList(0, ranges.size() - 1)) {
+                assertTrue(range[1] - range[0] >= 64);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DigestFilterTest {
+
+    @Test
+    public void testNoFalseNegativesAndFewFalsePositives() throws Exception {
+        int count = 10000;
+        DigestFilter filter = new DigestFilter(count);
+        for (int i = 0; i < count; i++) {
+            filter.add(HashUtils.createHash("event" + i));
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain(HashUtils.createHash("event" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.mightContain(HashUtils.createHash("other" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < count / 50);
+    }
+
+    @Test
+    public void testCpuTreeFindsAllNodesAndRejectsMisses() throws Exception {
+        List<String> events = createEvents(1000, "event");
+        HashTree.HashTreeBuilder builder = HashTree.builder("SHA-256", HashTree.OperationMode.CPU)
+                .expectLeafCount(events.size());
+        for (String event : events) {
+            builder.appendEvent(event);
+        }
+        HashTreeCpuImpl tree = (HashTreeCpuImpl) builder.build();
+        assertTrue(tree.isFilterBuilt());
+        assertEquals(1, tree.filter().stageCount());
+        assertTrue(tree.filter().sizeInBytes() < 3L * events.size());
+        assertFindsAllNodesAndRejectsMisses(tree, events);
+    }
+
+    @Test
+    public void testScalableFilterGrows() throws Exception {
+        int count = 20000;
+        ScalableDigestFilter filter = new ScalableDigestFilter(ScalableDigestFilter.INITIAL_CAPACITY);
+        for (int i = 0; i < count; i++) {
+            filter.add(HashUtils.createHash("event" + i));
+        }
+        assertTrue(filter.stageCount() > 1);
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain(HashUtils.createHash("event" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.mightContain(HashUtils.createHash("other" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < count / 25);
+    }
+
+    @Test
+    public void testAggregatedCpuTreeFilterBuiltWhileMerging() throws Exception {
+        List<String> events = createEvents(5000, "event");
+        HashTreeCpuImpl tree = aggregateCpuTree(events);
+        assertTrue(tree.isFilterBuilt());
+        assertFindsAllNodesAndRejectsMisses(tree, events);
+    }
+
+    @Test
+    public void testFilterBuiltOnLookupIfDropped() throws Exception {
+        List<String> events = createEvents(5000, "event");
+        int maxStages = HashTreeCpuImpl.MAX_STAGES;
+        HashTreeCpuImpl tree;
+        try {
+            HashTreeCpuImpl.MAX_STAGES = 0;
+            tree = aggregateCpuTree(events);
+        } finally {
+            HashTreeCpuImpl.MAX_STAGES = maxStages;
+        }
+        assertFalse(tree.isFilterBuilt());
+        assertFindsAllNodesAndRejectsMisses(tree, events);
+        assertTrue(tree.isFilterBuilt());
+        assertEquals(1, tree.filter().stageCount());
+    }
+
+    private static HashTreeCpuImpl aggregateCpuTree(List<String> events) throws Exception {
+        HashTree.OperationMode mode = HashTree.OPERATION_MODE;
+        HashTree.OPERATION_MODE = HashTree.OperationMode.CPU;
+        try (HashTreeAggregator aggregator = new HashTreeAggregator("SHA-256", 3)) {
+            for (int i = 0; i < events.size(); i += 256) {
+                aggregator.aggregateEvents(events.subList(i, Math.min(events.size(), i + 256)));
+            }
+            return (HashTreeCpuImpl) aggregator.endAggregation().getAggregatedTree();
+        } finally {
+            HashTree.OPERATION_MODE = mode;
+        }
+    }
+
+    private static void assertFindsAllNodesAndRejectsMisses(HashTreeCpuImpl tree, List<String> events)
+            throws Exception {
+        Deque<HashNode> toVisit = new ArrayDeque<>();
+        toVisit.push(tree.getRoot());
+        while (!toVisit.isEmpty()) {
+            HashNode node = toVisit.pop();
+            assertEquals(node.getHash(), tree.findNode(node.getHash()).getHash());
+            if (node.getLeftNode() != null) {
+                toVisit.push(node.getLeftNode());
+                toVisit.push(node.getRightNode());
+            }
+        }
+        for (String event : events) {
+            assertTrue(tree.isValidEvent(event));
+        }
+        for (int i = 0; i < 100; i++) {
+            IHash missing = HashUtils.createHash("missing" + i);
+            try {
+                tree.findNode(missing);
+                fail("found a missing hash");
+            } catch (HashNotFoundException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package ee.mboysan.signverify.tree;
 
 import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.IHash;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static ee.mboysan.signverify.tree.ITreeTestUtils.assertEventsValid;
 import static ee.mboysan.signverify.tree.ITreeTestUtils.createHashTree;
@@ -49,4 +52,56 @@ public class HashChainTest {
         HashTree hashTree = createHashTree(createEvents(11, "event"));
         hashTree.isValidEvent("non-existent-event");
     }
+
+    @Test
+    public void testHashChainByLeafIndex() throws Exception {
+        List<String> events = Arrays.asList("a", "b", "a", "c", "d", "a", "e", "b", "f", "g", "a");
+        for (HashTree.OperationMode mode : HashTree.OperationMode.values()) {
+            HashTree.HashTreeBuilder builder = HashTree.builder("SHA-256", mode);
+            for (String event : events) {
+                builder.appendEvent(event);
+            }
+            try (HashTree hashTree = builder.build()) {
+                for (int i = 0; i < events.size(); i++) {
+                    int occurrence = 0;
+                    for (int j = 0; j < i; j++) {
+                        occurrence += events.get(j).equals(events.get(i)) ? 1 : 0;
+                    }
+                    List<IHash> expected = hashTree.extractHashChain(events.get(i), occurrence);
+                    List<IHash> actual = hashTree.extractHashChain(i);
+                    assertEquals(mode.toString(), expected, actual);
+                    for (int k = 1; k < expected.size() - 1; k++) {
+                        assertEquals(expected.get(k).getPosition(), actual.get(k).getPosition());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHashChainByLeafIndexOfAggregatedTree() throws Exception {
+        // merged chunks of 7 leaves, so that the left subtrees are not perfect.
+        List<String> events = createEvents(1000, "event");
+        for (HashTree.OperationMode mode : HashTree.OperationMode.values()) {
+            HashTree.OPERATION_MODE = mode;
+            try (HashTreeAggregator aggr = new HashTreeAggregator("SHA-256")) {
+                for (int i = 0; i < events.size(); i += 7) {
+                    aggr.aggregateEvents(events.subList(i, Math.min(i + 7, events.size())));
+                }
+                HashTree hashTree = aggr.endAggregation().getAggregatedTree();
+                for (int i = 0; i < events.size(); i++) {
+                    assertEquals(mode.toString(),
+                            hashTree.extractHashChain(events.get(i)), hashTree.extractHashChain(i));
+                }
+            } finally {
+                HashTree.OPERATION_MODE = HashTree.OperationMode.MEM;
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testHashChainByLeafIndexOutOfRange() throws Exception {
+        HashTree hashTree = createHashTree(createEvents(11, "event"));
+        hashTree.extractHashChain(11L);
+    }
 }
@@ -2,6 +2,7 @@ package ee.mboysan.signverify.tree;
 
 import ee.mboysan.signverify.exceptions.HashNotFoundException;
 import ee.mboysan.signverify.exceptions.TreeConstructionFailedException;
+import ee.mboysan.signverify.hashing.IHash;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -9,6 +10,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static ee.mboysan.signverify.tree.ITreeTestUtils.assertEventValid;
@@ -78,6 +80,27 @@ public class HashTreeAggregatorTest {
         multiRunAggregation("non-existing-event", events1, events2);
     }
 
+    @Test
+    public void testBoundedInFlightSameRoot() throws Exception {
+        List<String> events = createEvents(1000, "event");
+        IHash expected = null;
+        for (int maxInFlight : new int[]{1, 2, 3, 64}) {
+            try (HashTreeAggregator aggr = new HashTreeAggregator("SHA-256", maxInFlight)) {
+                for (int i = 0; i < events.size(); i += 7) {
+                    aggr.aggregateEvents(events.subList(i, Math.min(i + 7, events.size())));
+                    if (i == 350) {
+                        aggr.endAggregation();
+                    }
+                }
+                IHash root = aggr.endAggregation().getAggregatedTree().getRoot().getHash();
+                if (expected == null) {
+                    expected = root;
+                }
+                assertEquals(expected, root);
+                assertEventsValid(aggr.getAggregatedTree(), events);
+            }
+        }
+    }
 
     @SafeVarargs
     private final void multiRunAggregation(String eventToCheck, List<String>... eventsToAggregate) throws Exception {
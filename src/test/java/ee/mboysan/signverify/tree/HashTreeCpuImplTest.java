@@ -0,0 +1,85 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.IHash;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the parallel search of the {@link HashTreeCpuImpl} against a sequential depth-first search.
+ */
+public class HashTreeCpuImplTest {
+
+    @After
+    public void tearDown() {
+        HashTreeCpuImpl.SEQUENTIAL_HEIGHT = 12;
+    }
+
+    @Test
+    public void testFindsFirstNodeInPreOrder() throws Exception {
+        // repeated events, so that a hash matches several leaves in different subtrees.
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            events.add("event" + (i % 37));
+        }
+        for (int sequentialHeight : new int[]{0, 1, 3, 12}) {
+            HashTreeCpuImpl.SEQUENTIAL_HEIGHT = sequentialHeight;
+            HashTree.HashTreeBuilder builder = HashTree.builder("SHA-256", HashTree.OperationMode.CPU);
+            for (String event : events) {
+                builder.appendEvent(event);
+            }
+            HashTree tree = builder.build();
+
+            for (HashNode node : preOrder(tree.getRoot())) {
+                assertSame(firstInPreOrder(tree.getRoot(), node.getHash()), tree.findNode(node.getHash()));
+            }
+            for (int i = 0; i < 37; i++) {
+                assertTrue(tree.isValidEvent("event" + i));
+            }
+        }
+    }
+
+    @Test(expected = HashNotFoundException.class)
+    public void testParallelSearchMiss() throws Exception {
+        HashTreeCpuImpl.SEQUENTIAL_HEIGHT = 1;
+        HashTree.HashTreeBuilder builder = HashTree.builder("SHA-256", HashTree.OperationMode.CPU);
+        for (int i = 0; i < 100; i++) {
+            builder.appendEvent("event" + i);
+        }
+        builder.build().isValidEvent("event100");
+    }
+
+    private static List<HashNode> preOrder(HashNode root) {
+        List<HashNode> nodes = new ArrayList<>();
+        Deque<HashNode> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            HashNode node = toVisit.pop();
+            nodes.add(node);
+            if (node.getRightNode() != null) {
+                toVisit.push(node.getRightNode());
+            }
+            if (node.getLeftNode() != null) {
+                toVisit.push(node.getLeftNode());
+            }
+        }
+        return nodes;
+    }
+
+    private static HashNode firstInPreOrder(HashNode root, IHash hash) {
+        for (HashNode node : preOrder(root)) {
+            if (node.getHash().equals(hash)) {
+                return node;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.IHash;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static ee.mboysan.signverify.tree.ITreeTestUtils.assertEventsValid;
+import static ee.mboysan.signverify.tree.ITreeTestUtils.createHashTree;
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link HashTreeFlatImpl} and the {@link HashTreeMappedImpl} against the {@link HashTreeMemImpl}.
+ */
+@RunWith(Parameterized.class)
+public class HashTreeFlatImplTest {
+
+    @Parameterized.Parameters(name = "{index}: opMode={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {HashTree.OperationMode.FLAT}, {HashTree.OperationMode.MMAP}
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public HashTree.OperationMode opMode;
+
+    @After
+    public void tearDown() {
+        HashTree.OPERATION_MODE = HashTree.OperationMode.MEM;
+    }
+
+    private HashTree createTree(HashTree.OperationMode mode, List<String> events) throws Exception {
+        HashTree.OPERATION_MODE = mode;
+        return createHashTree(events);
+    }
+
+    private HashTree aggregate(HashTree.OperationMode mode, List<String> events, int chunkSize) throws Exception {
+        HashTree.OPERATION_MODE = mode;
+        try (HashTreeAggregator aggr = new HashTreeAggregator()) {
+            for (int i = 0; i < events.size(); i += chunkSize) {
+                aggr.aggregateEvents(events.subList(i, Math.min(i + chunkSize, events.size())));
+                if (i == chunkSize * 2) {
+                    aggr.endAggregation();
+                }
+            }
+            return aggr.endAggregation().getAggregatedTree();
+        }
+    }
+
+    @Test
+    public void testRootAndChainsSameAsMemTree() throws Exception {
+        for (int size = 1; size <= 40; size++) {
+            List<String> events = createEvents(size, "event");
+            HashTree memTree = createTree(HashTree.OperationMode.MEM, events);
+            HashTree flatTree = createTree(opMode, events);
+
+            assertEquals(memTree.getRoot().getHash(), flatTree.getRoot().getHash());
+            assertEquals(memTree.getLeafCount(), flatTree.getLeafCount());
+            for (String event : events) {
+                List<IHash> memChain = memTree.extractHashChain(event);
+                List<IHash> flatChain = flatTree.extractHashChain(event);
+                assertEquals(memChain, flatChain);
+                for (int i = 1; i < memChain.size() - 1; i++) {
+                    assertEquals(memChain.get(i).getPosition(), flatChain.get(i).getPosition());
+                }
+            }
+            assertEventsValid(flatTree, events);
+        }
+    }
+
+    @Test
+    public void testAddNodeCopiesSubtree() throws Exception {
+        for (int size = 2; size <= 20; size++) {
+            List<String> events = createEvents(size, "event");
+            HashTree subtree = createTree(HashTree.OperationMode.MEM, events.subList(0, size / 2));
+            HashTree expected = new HashTreeCpuImpl("SHA-256");
+            HashTree flatTree = opMode == HashTree.OperationMode.FLAT
+                    ? new HashTreeFlatImpl("SHA-256") : new HashTreeMappedImpl("SHA-256");
+            expected.addNode(subtree.getRoot());
+            flatTree.addNode(subtree.getRoot());
+            for (String event : events.subList(size / 2, size)) {
+                expected.addNode(new HashLeaf(event, "SHA-256"));
+                flatTree.addNode(new HashLeaf(event, "SHA-256"));
+            }
+            expected.construct();
+            flatTree.construct();
+
+            assertEquals(expected.getRoot().getHash(), flatTree.getRoot().getHash());
+            assertEquals(size, flatTree.getLeafCount());
+            for (int i = 0; i < size; i++) {
+                assertEquals(expected.extractHashChain(events.get(i)), flatTree.extractHashChain(i));
+            }
+            assertEventsValid(flatTree, events);
+            flatTree.close();
+        }
+    }
+
+    @Test
+    public void testAggregatedRootSameAsMemTree() throws Exception {
+        List<String> events = createEvents(1000, "event");
+        for (int chunkSize : new int[]{1, 3, 64, 256}) {
+            HashTree memTree = aggregate(HashTree.OperationMode.MEM, events, chunkSize);
+            HashTree flatTree = aggregate(opMode, events, chunkSize);
+            assertEquals(memTree.getRoot().getHash(), flatTree.getRoot().getHash());
+            assertEquals(memTree.getLeafCount(), flatTree.getLeafCount());
+            assertEventsValid(flatTree, events);
+        }
+    }
+
+    @Test
+    public void testLargeTreeSpanningManyPages() throws Exception {
+        List<String> events = createEvents(100_000, "event");
+        HashTree memTree = aggregate(HashTree.OperationMode.MEM, events, 4096);
+        HashTree flatTree = aggregate(opMode, events, 4096);
+        assertEquals(memTree.getRoot().getHash(), flatTree.getRoot().getHash());
+        assertTrue(flatTree.isValidEvent("event99999"));
+        assertTrue(flatTree.isValidEvent("event0"));
+    }
+
+    @Test
+    public void testVisualizationSameAsMemTree() throws Exception {
+        List<String> events = createEvents(11, "event");
+        HashTree memTree = createTree(HashTree.OperationMode.MEM, events);
+        HashTree flatTree = createTree(opMode, events);
+        assertEquals(memTree.visualize(), flatTree.visualize());
+    }
+
+    @Test(expected = HashNotFoundException.class)
+    public void testHashValidationFailure() throws Exception {
+        HashTree flatTree = createTree(opMode, createEvents(11, "event"));
+        flatTree.isValidEvent("non-existent-event");
+    }
+}
@@ -1,8 +1,19 @@
 package ee.mboysan.signverify.tree;
 
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
 import org.junit.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static ee.mboysan.signverify.tree.ITreeTestUtils.createHashTree;
 import static ee.mboysan.signverify.util.TestUtils.createEvents;
 
@@ -50,4 +61,48 @@ public class HashTreeTest {
         System.out.println("HashTreeTest.testTreeVisualizationOnUnbalancedTree()");
         System.out.println(hashTree.visualize());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInnerNodesFoundInAllModes() throws Exception {
+        List<String> events = createEvents(37, "event");
+        HashTree reference = build(HashTree.OperationMode.CPU, events);
+        List<IHash> innerHashes = new ArrayList<>();
+        Deque<HashNode> toVisit = new ArrayDeque<>();
+        toVisit.push(reference.getRoot());
+        while (!toVisit.isEmpty()) {
+            HashNode node = toVisit.pop();
+            if (node.getLeftNode() != null) {
+                innerHashes.add(node.getHash());
+                toVisit.push(node.getLeftNode());
+                toVisit.push(node.getRightNode());
+            }
+        }
+        assertEquals(events.size() - 1, innerHashes.size());
+
+        for (HashTree.OperationMode mode : HashTree.OperationMode.values()) {
+            try (HashTree tree = build(mode, events)) {
+                for (IHash hash : innerHashes) {
+                    assertTrue(mode.toString(), tree.isValidEvent(hash));
+                    assertEquals(mode.toString(), reference.extractHashChain(hash), tree.extractHashChain(hash));
+                }
+                for (String event : events) {
+                    assertTrue(mode.toString(), tree.isValidEvent(event));
+                }
+                try {
+                    tree.isValidEvent(HashUtils.createHash("missing", "SHA-256"));
+                    fail(mode + " found a missing hash");
+                } catch (HashNotFoundException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private static HashTree build(HashTree.OperationMode mode, List<String> events) throws Exception {
+        HashTree.HashTreeBuilder builder = HashTree.builder("SHA-256", mode);
+        for (String event : events) {
+            builder.appendEvent(event);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,118 @@
+package ee.mboysan.signverify.tree;
+
+import ee.mboysan.signverify.exceptions.HashNotFoundException;
+import ee.mboysan.signverify.hashing.HashUtils;
+import ee.mboysan.signverify.hashing.IHash;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ee.mboysan.signverify.tree.ITreeTestUtils.createHashTree;
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LeafIndexTest {
+
+    @After
+    public void tearDown() {
+        HashTree.OPERATION_MODE = HashTree.OperationMode.MEM;
+    }
+
+    @Test
+    public void testFindAllOccurrencesAcrossResizesAndMerges() throws Exception {
+        List<IHash> leaves = new ArrayList<>();
+        LeafIndex index = new LeafIndex(leaves::get);
+        LeafIndex other = new LeafIndex(position -> leaves.get(position + 1000));
+        for (int i = 0; i < 2000; i++) {
+            IHash hash = HashUtils.createHash("event" + (i % 500));
+            leaves.add(hash);
+            if (i < 1000) {
+                index.add(hash, i);
+            } else {
+                other.add(hash, i - 1000);
+            }
+        }
+        index.addAll(other, 1000);
+        for (int i = 0; i < 500; i++) {
+            IHash hash = HashUtils.createHash("event" + i);
+            for (int occurrence = 0; occurrence < 4; occurrence++) {
+                assertEquals(i + occurrence * 500, index.find(hash, occurrence));
+            }
+            assertEquals(LeafIndex.NONE, index.find(hash, 4));
+        }
+        assertEquals(LeafIndex.NONE, index.find(HashUtils.createHash("non-existing-event"), 0));
+    }
+
+    @Test
+    public void testParallelMergeOfManyIndexes() throws Exception {
+        List<IHash> leaves = new ArrayList<>();
+        List<LeafIndex> others = new ArrayList<>();
+        int[] offsets = new int[40];
+        for (int t = 0; t < offsets.length; t++) {
+            int offset = leaves.size();
+            offsets[t] = offset;
+            LeafIndex other = new LeafIndex(position -> leaves.get(position + offset));
+            for (int i = 0; i < 1000; i++) {
+                IHash hash = HashUtils.createHash("event" + (leaves.size() % 10000));
+                other.add(hash, i);
+                leaves.add(hash);
+            }
+            others.add(other);
+        }
+        LeafIndex index = new LeafIndex(leaves::get);
+        index.addAll(others, offsets);
+        for (int i = 0; i < 10000; i++) {
+            IHash hash = leaves.get(i);
+            for (int occurrence = 0; occurrence < 4; occurrence++) {
+                assertEquals(i + occurrence * 10000, index.find(hash, occurrence));
+            }
+            assertEquals(LeafIndex.NONE, index.find(hash, 4));
+        }
+    }
+
+    @Test
+    public void testProveEachOccurrenceOfDuplicateEvents() throws Exception {
+        List<String> events = new ArrayList<>(createEvents(5, "event"));
+        events.add("event1");
+        events.add("event3");
+        events.add("event1");
+        for (HashTree.OperationMode mode : HashTree.OperationMode.values()) {
+            HashTree.OPERATION_MODE = mode;
+            HashTree tree = createHashTree(events);
+            List<List<IHash>> chains = new ArrayList<>();
+            for (int occurrence = 0; occurrence < 3; occurrence++) {
+                chains.add(tree.extractHashChain("event1", occurrence));
+            }
+            // different leaves, hence different paths to the root.
+            assertTrue(mode.name(), !chains.get(0).subList(1, chains.get(0).size() - 1)
+                    .equals(chains.get(1).subList(1, chains.get(1).size() - 1)));
+            assertTrue(mode.name(), !chains.get(1).subList(1, chains.get(1).size() - 1)
+                    .equals(chains.get(2).subList(1, chains.get(2).size() - 1)));
+            for (List<IHash> chain : chains) {
+                assertEquals(tree.getRoot().getHash(), chain.get(chain.size() - 1));
+            }
+            tree.close();
+        }
+    }
+
+    @Test(expected = HashNotFoundException.class)
+    public void testMissingOccurrence() throws Exception {
+        List<String> events = new ArrayList<>(createEvents(5, "event"));
+        events.add("event1");
+        HashTree tree = createHashTree(events);
+        tree.extractHashChain("event1", 2);
+    }
+
+    @Test
+    public void testMemTreeFindsFirstLeaf() throws Exception {
+        List<String> events = new ArrayList<>(createEvents(5, "event"));
+        events.add("event1");
+        HashTreeMemImpl tree = (HashTreeMemImpl) createHashTree(events);
+        IHash hash = HashUtils.createHash("event1");
+        assertSame(tree.findLeaf(hash, 0), tree.findNode(hash));
+    }
+}
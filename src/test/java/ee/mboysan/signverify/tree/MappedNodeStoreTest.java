@@ -0,0 +1,67 @@
+package ee.mboysan.signverify.tree;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedNodeStoreTest {
+
+    @After
+    public void tearDown() {
+        MappedNodeStore.MAX_SEGMENT_BYTES = 1L << 30;
+    }
+
+    @Test
+    public void testSmallStoreMapsLittle() {
+        try (MappedNodeStore store = new MappedNodeStore(32)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(digest(i, 32), 0, i);
+            }
+            assertTrue("mapped: " + store.mappedBytes(), store.mappedBytes() < 1 << 20);
+            assertRecords(store, 10);
+        }
+    }
+
+    @Test
+    public void testGrowsAcrossSegments() {
+        MappedNodeStore.MAX_SEGMENT_BYTES = 1 << 16;
+        try (MappedNodeStore store = new MappedNodeStore(32)) {
+            int count = 10_000;
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                store.append(digest(i, 32), 0, i);
+                // the file is mapped in steps, never for more than twice the records plus a whole segment.
+                assertTrue(store.mappedBytes() >= previous);
+                assertTrue(store.mappedBytes() <= 2L * (i + 1) * 40 + (1 << 16));
+                previous = store.mappedBytes();
+            }
+            assertEquals(count, store.size());
+            assertRecords(store, count);
+
+            MappedNodeStore copy = new MappedNodeStore(32);
+            copy.appendAll(store);
+            assertRecords(copy, count);
+            copy.close();
+        }
+    }
+
+    private static void assertRecords(NodeStore store, int count) {
+        byte[] actual = new byte[32];
+        for (int i = 0; i < count; i++) {
+            store.readDigest(i, actual, 0);
+            assertArrayEquals(digest(i, 32), actual);
+            assertEquals(i, store.readLeafCount(i));
+        }
+    }
+
+    private static byte[] digest(int i, int length) {
+        byte[] digest = new byte[length];
+        for (int j = 0; j < length; j++) {
+            digest[j] = (byte) (i * 31 + j);
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,96 @@
+package ee.mboysan.signverify.tree;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.mboysan.signverify.util.TestUtils.createEvents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WorkersTest {
+
+    @Test
+    public void testAggregatorOnGivenExecutor() throws Exception {
+        AtomicInteger jobs = new AtomicInteger();
+        Executor executor = job -> {
+            jobs.incrementAndGet();
+            Workers.pool().execute(job);
+        };
+        List<String> events = createEvents(1000, "event");
+        HashTree expected = aggregate(new HashTreeAggregator("SHA-256"), events);
+        HashTree actual = aggregate(new HashTreeAggregator("SHA-256", executor), events);
+        assertEquals(expected.getRoot().getHash(), actual.getRoot().getHash());
+        assertEquals(10, jobs.get());
+    }
+
+    @Test
+    public void testNestedAggregationsOnSharedPool() throws Exception {
+        // more aggregations waiting within the jobs of the pool than there are threads in the pool.
+        List<String> events = createEvents(1000, "event");
+        List<Future<HashTree>> trees = new ArrayList<>();
+        for (int i = 0; i < 4 * Workers.pool().getParallelism(); i++) {
+            trees.add(Workers.pool().submit(() -> aggregate(new HashTreeAggregator("SHA-256"), events)));
+        }
+        HashTree expected = aggregate(new HashTreeAggregator("SHA-256"), events);
+        for (Future<HashTree> tree : trees) {
+            assertEquals(expected.getRoot().getHash(), tree.get(30, TimeUnit.SECONDS).getRoot().getHash());
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue(Workers.isVirtualThreadsSupported());
+        List<String> events = createEvents(1000, "event");
+        HashTree expected = aggregate(new HashTreeAggregator("SHA-256"), events);
+        HashTree actual = aggregate(new HashTreeAggregator("SHA-256", Workers.virtualThreads()), events);
+        assertEquals(expected.getRoot().getHash(), actual.getRoot().getHash());
+    }
+
+    @Test
+    public void testNestedJobsOfBoundedPoolRunByCaller() {
+        assertSame(Workers.pool(), Workers.nestedExecutor(Workers.pool()));
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            assertSame(Workers.callerRuns(), Workers.nestedExecutor(executor));
+        } finally {
+            executor.shutdownNow();
+        }
+        if (Workers.isVirtualThreadsSupported()) {
+            assertSame(Workers.virtualThreads(), Workers.nestedExecutor(Workers.virtualThreads()));
+        }
+    }
+
+    @Test
+    public void testDefaultExecutorIsSharedPool() {
+        String threads = System.getProperty(Workers.THREADS_PROPERTY);
+        try {
+            System.setProperty(Workers.THREADS_PROPERTY, Workers.VIRTUAL_THREADS);
+            assertTrue(Workers.defaultExecutor() != Workers.pool() || !Workers.isVirtualThreadsSupported());
+            System.clearProperty(Workers.THREADS_PROPERTY);
+            assertSame(Workers.pool(), Workers.defaultExecutor());
+        } finally {
+            if (threads != null) {
+                System.setProperty(Workers.THREADS_PROPERTY, threads);
+            }
+        }
+    }
+
+    private static HashTree aggregate(HashTreeAggregator aggregator, List<String> events) throws Exception {
+        try (HashTreeAggregator aggr = aggregator) {
+            for (int i = 0; i < events.size(); i += 100) {
+                aggr.aggregateEvents(events.subList(i, i + 100));
+            }
+            return aggr.endAggregation().getAggregatedTree();
+        }
+    }
+}